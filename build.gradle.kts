@@ -12,6 +12,9 @@ plugins {
 
     // Apply the application plugin to add support for building a CLI application
     application
+
+    // JMH benchmarks live in src/jmh and run with `./gradlew jmh`
+    id("me.champeau.gradle.jmh") version "0.5.0"
 }
 
 repositories {
@@ -26,11 +29,30 @@ java {
 
 }
 
+// The load generator lives in src/loadTest, so it and HdrHistogram stay out of the service jar
+sourceSets {
+    create("loadTest") {
+        compileClasspath += sourceSets["main"].output
+        runtimeClasspath += sourceSets["main"].output
+    }
+}
+
+configurations["loadTestImplementation"].extendsFrom(configurations.implementation.get())
+configurations["loadTestRuntimeOnly"].extendsFrom(configurations.runtimeOnly.get())
+
 dependencies {
     implementation("com.google.code.gson:gson:2.8.5")
     implementation("com.google.guava:guava:27.1-jre")
-    implementation("com.h2database:h2:1.4.199")
+    implementation("com.h2database:h2:1.4.200")
+    implementation("com.zaxxer:HikariCP:3.4.1")
+    implementation("io.r2dbc:r2dbc-h2:0.8.1.RELEASE")
+    implementation("io.r2dbc:r2dbc-pool:0.8.0.RELEASE")
+    implementation("io.micrometer:micrometer-core:1.3.0")
+    implementation("io.micrometer:micrometer-registry-prometheus:1.3.0")
     implementation("io.projectreactor.netty:reactor-netty:0.9.0.RC1")
+    // epoll event loops on Linux when [server] nativeTransport is set; keep in step with
+    // the netty version reactor-netty brings in
+    runtimeOnly("io.netty:netty-transport-native-epoll:4.1.39.Final:linux-x86_64")
     implementation("com.moandjiezana.toml:toml4j:0.7.2")
     implementation("org.sql2o:sql2o:1.6.0")
     implementation("org.slf4j:slf4j-api:1.7.28")
@@ -44,6 +66,17 @@ dependencies {
     testImplementation("junit:junit:4.12")
     testImplementation("org.mockito:mockito-core:3.0.0")
     testImplementation("io.projectreactor:reactor-test:3.3.0.RELEASE")
+
+    "loadTestImplementation"("org.hdrhistogram:HdrHistogram:2.1.11")
+}
+
+jmh {
+    jmhVersion = "1.22"
+    // e.g. ./gradlew jmh -PjmhInclude=DaoBenchmark -PjmhThreads=8
+    include = listOf(project.findProperty("jmhInclude") as String? ?: ".*")
+    threads = (project.findProperty("jmhThreads") as String?)?.toInt() ?: 1
+    // e.g. -PjmhProfilers=gc to report allocation per operation
+    profilers = (project.findProperty("jmhProfilers") as String?)?.split(",") ?: listOf()
 }
 
 application {
@@ -51,6 +84,19 @@ application {
     mainClassName = "revolut.App"
 }
 
+tasks.register<JavaExec>("loadTest") {
+    group = "verification"
+    description = "Runs the load generator against an in-process server, e.g. -PloadArgs=\"--rate=2000\""
+    classpath = sourceSets["loadTest"].runtimeClasspath
+    main = "revolut.LoadGenerator"
+    args = (project.findProperty("loadArgs") as String?)?.split(" ") ?: emptyList()
+}
+
+// compile the load generator with every build, although only loadTest runs it
+tasks.named("check") {
+    dependsOn("loadTestClasses")
+}
+
 val jar by tasks.getting(Jar::class) {
     manifest {
         attributes["Main-Class"] = "revolut.App"
@@ -0,0 +1,71 @@
+package revolut;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ThreadLocalRandom;
+import org.sql2o.Sql2o;
+import reactor.core.scheduler.Scheduler;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+
+/**
+ * Shared fixture for the benchmarks: an in-memory H2 database with the application schema,
+ * seeded accounts, and account picking for the uniform and hot-key contention modes.
+ */
+class BenchmarkSupport {
+
+  static final String UNIFORM = "uniform";
+  static final String HOT = "hot";
+
+  static final Path JMH_DIR = Paths.get("./build/tmp/jmh");
+
+  /** Accounts that receive most of the traffic in hot-key mode. */
+  private static final int HOT_ACCOUNTS = 4;
+
+  /** Share of picks that go to the hot accounts in hot-key mode. */
+  private static final double HOT_SHARE = 0.9;
+
+  static DataConfig inMemoryConfig() {
+    DataConfig config = App.createDataConfig();
+    config.connection.url = "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1;mode=mysql;"
+        + "INIT=RUNSCRIPT FROM 'classpath:/sql/create_schema.sql';";
+    config.wal.dir = JMH_DIR.resolve("wal").toString();
+    return config;
+  }
+
+  static Sql2o createDB(DataConfig config) {
+    return App.createDB(config);
+  }
+
+  static Scheduler createScheduler(DataConfig config) {
+    return App.createScheduler(config.scheduler);
+  }
+
+  static Long[] seedAccounts(AccountDAO dao, int count) {
+    Long[] ids = new Long[count];
+    for (int i = 0; i < count; i++) {
+      ids[i] = dao.createAccount(new CreateAccountRequest("BENCH " + i)).block().getId();
+      dao.createDeposit(new CreateDepositRequest(ids[i], Money.parse("1000000.00"))).block();
+    }
+    return ids;
+  }
+
+  static Long pick(Long[] ids, String contention) {
+    var random = ThreadLocalRandom.current();
+    if (HOT.equals(contention) && random.nextDouble() < HOT_SHARE) {
+      return ids[random.nextInt(Math.min(HOT_ACCOUNTS, ids.length))];
+    }
+    return ids[random.nextInt(ids.length)];
+  }
+
+  /** Picks a second account, different from {@code other}. */
+  static Long pickOther(Long[] ids, String contention, Long other) {
+    Long id;
+    do {
+      id = pick(ids, contention);
+    } while (id.equals(other));
+    return id;
+  }
+}
@@ -0,0 +1,114 @@
+package revolut;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import revolut.models.Account;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+
+/**
+ * {@link AccountDAOImpl}, {@link R2dbcAccountDAO} or {@link LedgerAccountDAO} against
+ * in-memory H2. Run with several JMH threads ({@code -t}) to see how the DAO behaves under
+ * concurrency; {@code contention} spreads operations over all accounts or concentrates them
+ * on a few hot ones.
+ * {@link #concurrentTransfers} keeps {@value #IN_FLIGHT} transfers in flight from one thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class DaoBenchmark {
+
+  private static final Money AMOUNT = Money.parse("0.01");
+
+  private static final int IN_FLIGHT = 1000;
+
+  @Param({"sql2o", "r2dbc", "ledger"})
+  public String impl;
+
+  @Param({BenchmarkSupport.UNIFORM, BenchmarkSupport.HOT})
+  public String contention;
+
+  @Param({"1000"})
+  public int accounts;
+
+  private Scheduler scheduler;
+  private AccountDAO dao;
+  private Long[] ids;
+
+  @Setup
+  public void setUp() {
+    DataConfig config = BenchmarkSupport.inMemoryConfig();
+    scheduler = BenchmarkSupport.createScheduler(config);
+    switch (impl) {
+      case "r2dbc":
+        dao = new R2dbcAccountDAO(App.createConnectionPool(config.connection), config);
+        break;
+      case "ledger":
+        dao = new LedgerAccountDAO(BenchmarkSupport.createDB(config), config, scheduler);
+        break;
+      default:
+        dao = new AccountDAOImpl(BenchmarkSupport.createDB(config), config, scheduler);
+    }
+    ids = BenchmarkSupport.seedAccounts(dao, accounts);
+  }
+
+  @TearDown
+  public void tearDown() throws Exception {
+    if (dao instanceof AutoCloseable) {
+      ((AutoCloseable) dao).close();
+    }
+    scheduler.dispose();
+  }
+
+  @Benchmark
+  public Account findAccount() {
+    return dao.findAccount(BenchmarkSupport.pick(ids, contention)).block();
+  }
+
+  @Benchmark
+  public Money createDeposit() {
+    Long id = BenchmarkSupport.pick(ids, contention);
+    return dao.createDeposit(new CreateDepositRequest(id, AMOUNT)).block();
+  }
+
+  @Benchmark
+  public Money createTransfer() {
+    return createTransferAsync().block();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(IN_FLIGHT)
+  public Long concurrentTransfers() {
+    return Flux.range(0, IN_FLIGHT)
+        .flatMap(i -> createTransferAsync(), IN_FLIGHT)
+        .count()
+        .block();
+  }
+
+  private Mono<Money> createTransferAsync() {
+    Long from = BenchmarkSupport.pick(ids, contention);
+    Long to = BenchmarkSupport.pickOther(ids, contention, from);
+    return dao.createTransfer(new CreateTransferRequest(from, to, AMOUNT))
+        .onErrorResume(InsufficientFunds.class, e -> Mono.empty());
+  }
+}
@@ -0,0 +1,75 @@
+package revolut;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.scheduler.Scheduler;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+
+/**
+ * Transfers from many accounts into a single merchant account, with the merchant's balance
+ * in its own row or split into {@code [hotAccounts]} sub-balances. Run with several JMH
+ * threads ({@code -PjmhThreads=8}) to see whether credits to the merchant scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class FanInBenchmark {
+
+  private static final Money AMOUNT = Money.parse("0.01");
+
+  @Param({"false", "true"})
+  public boolean split;
+
+  @Param({"1000"})
+  public int accounts;
+
+  private Scheduler scheduler;
+  private AccountDAOImpl dao;
+  private Long[] payers;
+  private Long merchant;
+
+  @Setup
+  public void setUp() {
+    DataConfig config = BenchmarkSupport.inMemoryConfig();
+    scheduler = BenchmarkSupport.createScheduler(config);
+    var db = BenchmarkSupport.createDB(config);
+    Long[] ids = BenchmarkSupport.seedAccounts(new AccountDAOImpl(db, config, scheduler),
+        accounts + 1);
+    merchant = ids[0];
+    payers = Arrays.copyOfRange(ids, 1, ids.length);
+    config.hotAccounts.enabled = split;
+    config.hotAccounts.ids = List.of(merchant);
+    dao = new AccountDAOImpl(db, config, scheduler);
+  }
+
+  @TearDown
+  public void tearDown() {
+    dao.close();
+    scheduler.dispose();
+  }
+
+  @Benchmark
+  public Money createTransfer() {
+    Long from = payers[ThreadLocalRandom.current().nextInt(payers.length)];
+    return dao.createTransfer(new CreateTransferRequest(from, merchant, AMOUNT)).block();
+  }
+}
@@ -0,0 +1,92 @@
+package revolut;
+
+import com.google.gson.Gson;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import revolut.models.CreateTransferRequest;
+import revolut.models.CreateTransferResponse;
+import revolut.models.Money;
+
+/**
+ * (De)serialization of the transfer payloads per request. The {@code string*} benchmarks are
+ * the old path, going through a {@code String} on both sides; the {@code codec*} ones use
+ * {@link JsonCodec} against pooled buffers as {@link App} does now. Run with
+ * {@code -PjmhProfilers=gc} to compare allocation per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JsonBenchmark {
+
+  private final Gson gson = new Gson();
+
+  private final JsonCodec codec = new JsonCodec(gson);
+
+  private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+
+  private final String requestJson = "{\"amount\": \"41.99\", \"toAccount\": 99}";
+
+  private final CreateTransferResponse response =
+      new CreateTransferResponse(Money.parse("1234.56"));
+
+  private ByteBuf requestBody;
+
+  @Setup
+  public void setUp() {
+    requestBody = alloc.directBuffer();
+    requestBody.writeCharSequence(requestJson, StandardCharsets.UTF_8);
+  }
+
+  @TearDown
+  public void tearDown() {
+    requestBody.release();
+  }
+
+  @Benchmark
+  public CreateTransferRequest stringParseTransferRequest() {
+    String body = requestBody.toString(StandardCharsets.UTF_8);
+    return gson.fromJson(body, CreateTransferRequest.class);
+  }
+
+  @Benchmark
+  public int stringWriteTransferResponse() {
+    ByteBuf out = alloc.directBuffer();
+    try {
+      return out.writeCharSequence(gson.toJson(response), StandardCharsets.UTF_8);
+    } finally {
+      out.release();
+    }
+  }
+
+  @Benchmark
+  public CreateTransferRequest codecParseTransferRequest() {
+    return codec.decode(requestBody.duplicate(), CreateTransferRequest.class);
+  }
+
+  @Benchmark
+  public int codecWriteTransferResponse() {
+    ByteBuf out = codec.encode(alloc, response);
+    try {
+      return out.readableBytes();
+    } finally {
+      out.release();
+    }
+  }
+}
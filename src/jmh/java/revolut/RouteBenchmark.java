@@ -0,0 +1,87 @@
+package revolut;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import revolut.models.DataConfig;
+
+/**
+ * Whole request pipeline: HTTP client, {@link App} routes, JSON, controller and DAO over
+ * in-memory H2. Binds the service on its usual port.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RouteBenchmark {
+
+  @Param({BenchmarkSupport.UNIFORM, BenchmarkSupport.HOT})
+  public String contention;
+
+  @Param({"1000"})
+  public int accounts;
+
+  private Scheduler scheduler;
+  private DisposableServer server;
+  private HttpClient client;
+  private Long[] ids;
+
+  @Setup
+  public void setUp() {
+    DataConfig config = BenchmarkSupport.inMemoryConfig();
+    scheduler = BenchmarkSupport.createScheduler(config);
+    AccountDAO dao = App.createDAO(BenchmarkSupport.createDB(config), config, scheduler);
+    ids = BenchmarkSupport.seedAccounts(dao, accounts);
+
+    server = new App(new AccountController(dao)).bindNow();
+    client = HttpClient.create()
+        .baseUrl(String.format("http://%s:%d", server.host(), server.port()));
+  }
+
+  @TearDown
+  public void tearDown() {
+    server.disposeNow();
+    scheduler.dispose();
+  }
+
+  @Benchmark
+  public String getAccount() {
+    return client.get()
+        .uri("/accounts/" + BenchmarkSupport.pick(ids, contention))
+        .responseContent()
+        .aggregate()
+        .asString()
+        .block();
+  }
+
+  @Benchmark
+  public String createTransfer() {
+    Long from = BenchmarkSupport.pick(ids, contention);
+    Long to = BenchmarkSupport.pickOther(ids, contention, from);
+    String body = String.format("{\"amount\": \"0.01\", \"toAccount\": %d}", to);
+    return client.post()
+        .uri(String.format("/accounts/%d/transfers", from))
+        .send(ByteBufFlux.fromString(Mono.just(body)))
+        .responseContent()
+        .aggregate()
+        .asString()
+        .block();
+  }
+}
@@ -0,0 +1,73 @@
+package revolut;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sql2o.Sql2o;
+import org.sql2o.quirks.NoQuirks;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+
+/**
+ * CPU time per transfer through {@link AccountDAOImpl} with query preparation cached, as
+ * {@link App#createDB} sets it up, or done from scratch on every call: sql2o parsing the
+ * named parameters and H2 preparing the statement with its query cache disabled. The DAO
+ * runs on the calling thread so that handing calls to the DAO scheduler does not drown out
+ * the difference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class StatementBenchmark {
+
+  private static final Money AMOUNT = Money.parse("0.01");
+
+  @Param({"true", "false"})
+  public boolean cached;
+
+  @Param({"1000"})
+  public int accounts;
+
+  private AccountDAO dao;
+  private Long[] ids;
+
+  @Setup
+  public void setUp() {
+    DataConfig config = BenchmarkSupport.inMemoryConfig();
+    Sql2o db;
+    if (cached) {
+      db = BenchmarkSupport.createDB(config);
+    } else {
+      config.connection.statementCacheSize = 0;
+      db = new Sql2o(App.createDataSource(config.connection),
+          new NoQuirks(Map.of(Money.class, new MoneyConverter())));
+    }
+    dao = new AccountDAOImpl(db, config, Schedulers.immediate());
+    ids = BenchmarkSupport.seedAccounts(dao, accounts);
+  }
+
+  @Benchmark
+  public Money createTransfer() {
+    Long from = BenchmarkSupport.pick(ids, BenchmarkSupport.UNIFORM);
+    Long to = BenchmarkSupport.pickOther(ids, BenchmarkSupport.UNIFORM, from);
+    return dao.createTransfer(new CreateTransferRequest(from, to, AMOUNT))
+        .onErrorResume(InsufficientFunds.class, e -> Mono.empty())
+        .block();
+  }
+}
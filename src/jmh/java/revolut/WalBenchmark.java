@@ -0,0 +1,64 @@
+package revolut;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import revolut.models.WalConfig;
+
+/**
+ * Records per second through {@link WriteAheadLog} under each fsync policy, each append
+ * waiting until its record is as durable as the policy promises. Run with several JMH
+ * threads ({@code -PjmhThreads=8}) to see {@code group} share forces between writers.
+ * Segments are written under {@code build/tmp/jmh} and deleted as they fill up.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class WalBenchmark {
+
+  @Param({"record", "group", "interval"})
+  public String fsync;
+
+  @Param({"67108864"})
+  public long segmentSize;
+
+  private WriteAheadLog log;
+
+  @Setup
+  public void setUp() throws IOException {
+    var config = new WalConfig();
+    Files.createDirectories(BenchmarkSupport.JMH_DIR);
+    config.dir = Files.createTempDirectory(BenchmarkSupport.JMH_DIR, "wal").toString();
+    config.segmentSize = segmentSize;
+    config.fsync = fsync;
+    config.fsyncIntervalMs = 10;
+    log = new WriteAheadLog(config, seq -> true);
+  }
+
+  @TearDown
+  public void tearDown() {
+    log.close();
+  }
+
+  @Benchmark
+  public long append() {
+    long seq = log.append(1, 2, 100, 100, null).getSeq();
+    log.awaitDurable(seq);
+    return seq;
+  }
+}
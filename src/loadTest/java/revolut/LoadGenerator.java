@@ -0,0 +1,318 @@
+package revolut;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateAccountResponse;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+
+/**
+ * Closed-loop load generator for the HTTP API. Starts the service in-process (or targets
+ * {@code --url}), seeds accounts, and then lets {@code --users} virtual users issue a mix of
+ * requests at a combined {@code --rate} per second for {@code --duration} seconds.
+ *
+ * <p>Users share at most {@code --connections} keep-alive connections, by default one each.
+ * A comma-separated list, e.g. {@code --connections=1,4,16,64}, runs the whole load once per
+ * count, so that the report shows how throughput and latency scale with connections.
+ *
+ * <p>Every request has an intended start time on a fixed schedule. A user that falls behind
+ * sends its next request immediately, and latency is measured from the intended start, so
+ * stalls of the server are charged to every request they delayed (coordinated-omission
+ * correction). The raw service time is recorded as well. Results are printed and written
+ * as JSON to {@code --report}.
+ *
+ * <pre>
+ * ./gradlew loadTest -PloadArgs="--rate=2000 --users=64 --mix=transfer:6,get:3,deposit:1"
+ * </pre>
+ */
+public class LoadGenerator {
+
+  private static final Logger logger = LoggerFactory.getLogger(LoadGenerator.class);
+
+  private static final long HIGHEST_LATENCY_US = TimeUnit.MINUTES.toMicros(1);
+
+  private static final Map<String, String> DEFAULTS = Map.of(
+      "rate", "1000",
+      "users", "32",
+      "duration", "30",
+      "warmup", "5",
+      "accounts", "1000",
+      "mix", "create:1,deposit:2,transfer:5,get:2",
+      "jdbcUrl", "jdbc:h2:mem:load;DB_CLOSE_DELAY=-1;mode=mysql;"
+          + "INIT=RUNSCRIPT FROM 'classpath:/sql/create_schema.sql';",
+      "report", "build/load-report.json");
+
+  private final Gson gson = new Gson();
+  private final Map<String, String> options;
+  private final int connections;
+  private final Map<String, Operation> operations = new LinkedHashMap<>();
+  private final HttpClient client;
+  private final Long[] accounts;
+
+  LoadGenerator(Map<String, String> options, String baseUrl, int connections) {
+    this.options = options;
+    this.connections = connections;
+    this.client = HttpClient.create(ConnectionProvider.fixed("load-" + connections,
+        connections))
+        .baseUrl(baseUrl);
+    for (String entry : options.get("mix").split(",")) {
+      String[] weighted = entry.split(":");
+      operations.put(weighted[0], new Operation(weighted[0], Integer.parseInt(weighted[1])));
+    }
+    if (operations.containsKey("transfer") && intOption("accounts") < 2) {
+      throw new IllegalArgumentException("Transfers need at least two --accounts");
+    }
+    this.accounts = seedAccounts(intOption("accounts"));
+  }
+
+  public static void main(String[] args) throws IOException {
+    Map<String, String> options = new HashMap<>(DEFAULTS);
+    for (String arg : args) {
+      String[] kv = arg.replaceFirst("^--", "").split("=", 2);
+      options.put(kv[0], kv.length > 1 ? kv[1] : "true");
+    }
+
+    DisposableServer server = null;
+    Scheduler scheduler = null;
+    String baseUrl = options.get("url");
+    if (baseUrl == null) {
+      DataConfig config = App.createDataConfig();
+      config.connection.url = options.get("jdbcUrl");
+      scheduler = App.createScheduler(config.scheduler);
+      AccountDAO dao = App.createDAO(App.createDB(config), config, scheduler);
+      server = new App(new AccountController(dao), App.createMeterRegistry(), null, null,
+          null, config.server).bindNow();
+      baseUrl = String.format("http://%s:%d", server.host(), server.port());
+    }
+
+    try {
+      List<Map<String, Object>> reports = new ArrayList<>();
+      for (String connections : options.getOrDefault("connections", options.get("users"))
+          .split(",")) {
+        var generator = new LoadGenerator(options, baseUrl, Integer.parseInt(connections));
+        reports.add(generator.run());
+      }
+      Object report = reports.size() == 1 ? reports.get(0) : reports;
+      String json = new GsonBuilder().setPrettyPrinting().create().toJson(report);
+      Path reportPath = Paths.get(options.get("report"));
+      if (reportPath.getParent() != null) {
+        Files.createDirectories(reportPath.getParent());
+      }
+      Files.writeString(reportPath, json);
+      System.out.println(json);
+    } finally {
+      if (server != null) {
+        server.disposeNow();
+        scheduler.dispose();
+      }
+    }
+  }
+
+  Map<String, Object> run() {
+    int users = intOption("users");
+    long intervalNanos = TimeUnit.SECONDS.toNanos(1) * users / intOption("rate");
+    long warmupNanos = TimeUnit.SECONDS.toNanos(intOption("warmup"));
+    long runNanos = TimeUnit.SECONDS.toNanos(intOption("duration"));
+    long start = System.nanoTime();
+    long recordFrom = start + warmupNanos;
+    long end = recordFrom + runNanos;
+
+    logger.info("Running {} users over {} connections at {} req/s for {}s after {}s warmup",
+        users, connections, options.get("rate"), options.get("duration"),
+        options.get("warmup"));
+    Flux.range(0, users)
+        .flatMap(user -> {
+          // stagger users evenly over one interval
+          long first = start + intervalNanos * user / users;
+          return userLoop(first, intervalNanos, recordFrom, end);
+        }, users)
+        .blockLast();
+
+    return report(runNanos);
+  }
+
+  private Mono<Void> userLoop(long intended, long intervalNanos, long recordFrom, long end) {
+    if (intended >= end) {
+      return Mono.empty();
+    }
+    long wait = intended - System.nanoTime();
+    Operation op = pickOperation();
+    return Mono.delay(Duration.ofNanos(Math.max(0, wait)))
+        .then(Mono.defer(() -> {
+          long sent = System.nanoTime();
+          return send(op)
+              .doOnNext(status -> {
+                if (intended >= recordFrom) {
+                  op.record(intended, sent, System.nanoTime(), status);
+                }
+              });
+        }))
+        .then(Mono.defer(() -> userLoop(intended + intervalNanos, intervalNanos, recordFrom,
+            end)));
+  }
+
+  private Mono<Integer> send(Operation op) {
+    var random = ThreadLocalRandom.current();
+    Long account = accounts[random.nextInt(accounts.length)];
+    switch (op.name) {
+      case "create":
+        return post("/accounts", new CreateAccountRequest("LOAD"));
+      case "deposit":
+        return post(String.format("/accounts/%d/deposits", account),
+            new CreateDepositRequest(account, Money.parse("1.00")));
+      case "transfer":
+        Long to = account;
+        while (to.equals(account)) {
+          to = accounts[random.nextInt(accounts.length)];
+        }
+        return post(String.format("/accounts/%d/transfers", account),
+            new CreateTransferRequest(account, to, Money.parse("0.01")));
+      case "get":
+        return client.get()
+            .uri("/accounts/" + account)
+            .responseSingle((resp, body) -> body.then(Mono.just(resp.status().code())))
+            .onErrorReturn(-1);
+      default:
+        throw new IllegalArgumentException("Unknown operation: " + op.name);
+    }
+  }
+
+  private Mono<Integer> post(String uri, Object body) {
+    return client.post()
+        .uri(uri)
+        .send(ByteBufFlux.fromString(Mono.just(gson.toJson(body))))
+        .responseSingle((resp, content) -> content.then(Mono.just(resp.status().code())))
+        .onErrorReturn(-1);
+  }
+
+  private Long[] seedAccounts(int count) {
+    logger.info("Seeding {} accounts", count);
+    List<Long> ids = Flux.range(0, count)
+        .flatMap(i -> client.post()
+            .uri("/accounts")
+            .send(ByteBufFlux.fromString(Mono.just(gson.toJson(
+                new CreateAccountRequest("LOAD " + i)))))
+            .responseContent()
+            .aggregate()
+            .asString()
+            .map(json -> gson.fromJson(json, CreateAccountResponse.class).getAccount().getId())
+            .flatMap(id -> post(String.format("/accounts/%d/deposits", id),
+                new CreateDepositRequest(id, Money.parse("1000000.00")))
+                .thenReturn(id)), 16)
+        .collectList()
+        .block();
+    return ids.toArray(new Long[0]);
+  }
+
+  private Operation pickOperation() {
+    int total = operations.values().stream().mapToInt(op -> op.weight).sum();
+    int pick = ThreadLocalRandom.current().nextInt(total);
+    for (Operation op : operations.values()) {
+      pick -= op.weight;
+      if (pick < 0) {
+        return op;
+      }
+    }
+    throw new IllegalStateException("Empty operation mix");
+  }
+
+  private Map<String, Object> report(long runNanos) {
+    Histogram all = new Histogram(HIGHEST_LATENCY_US, 3);
+    Map<String, Object> byOperation = new LinkedHashMap<>();
+    for (Operation op : operations.values()) {
+      all.add(op.latency);
+      byOperation.put(op.name, op.summary(runNanos));
+    }
+
+    Map<String, Object> report = new LinkedHashMap<>();
+    report.put("options", new TreeMap<>(options));
+    report.put("connections", connections);
+    report.put("throughput", all.getTotalCount() * 1e9 / runNanos);
+    report.put("latencyUs", percentiles(all));
+    report.put("operations", byOperation);
+    return report;
+  }
+
+  private static Map<String, Object> percentiles(Histogram histogram) {
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("count", histogram.getTotalCount());
+    result.put("mean", histogram.getMean());
+    result.put("p50", histogram.getValueAtPercentile(50));
+    result.put("p90", histogram.getValueAtPercentile(90));
+    result.put("p99", histogram.getValueAtPercentile(99));
+    result.put("p99.9", histogram.getValueAtPercentile(99.9));
+    result.put("max", histogram.getMaxValue());
+    return result;
+  }
+
+  private int intOption(String name) {
+    return Integer.parseInt(options.get(name));
+  }
+
+  private static class Operation {
+
+    final String name;
+    final int weight;
+    /** Latency from the intended start time, corrected for coordinated omission. */
+    final Histogram latency = new ConcurrentHistogram(HIGHEST_LATENCY_US, 3);
+    /** Latency from the moment the request was actually sent. */
+    final Histogram serviceTime = new ConcurrentHistogram(HIGHEST_LATENCY_US, 3);
+    final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+    Operation(String name, int weight) {
+      this.name = name;
+      this.weight = weight;
+    }
+
+    void record(long intended, long sent, long done, int status) {
+      latency.recordValue(micros(done - intended));
+      serviceTime.recordValue(micros(done - sent));
+      statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+    }
+
+    private static long micros(long nanos) {
+      return Math.min(HIGHEST_LATENCY_US, TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    Map<String, Object> summary(long runNanos) {
+      Map<String, Object> result = new LinkedHashMap<>();
+      result.put("throughput", latency.getTotalCount() * 1e9 / runNanos);
+      result.put("latencyUs", percentiles(latency));
+      result.put("serviceTimeUs", percentiles(serviceTime));
+      result.put("statuses", statuses.entrySet().stream()
+          .collect(Collectors.toMap(e -> String.valueOf(e.getKey()), e -> e.getValue().sum(),
+              (a, b) -> a, TreeMap::new)));
+      return result;
+    }
+  }
+}
@@ -2,8 +2,10 @@ package revolut;
 
 import com.google.gson.Gson;
 import java.util.Objects;
+import java.util.function.Supplier;
 import lombok.AllArgsConstructor;
 import lombok.Data;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.netty.http.server.HttpServerRequest;
 import reactor.netty.http.server.HttpServerResponse;
@@ -14,13 +16,35 @@ import revolut.models.CreateDepositRequest;
 import revolut.models.CreateDepositResponse;
 import revolut.models.CreateTransferRequest;
 import revolut.models.CreateTransferResponse;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
 
 public class AccountController {
 
   private final AccountDAO accountDAO;
 
+  private final IdempotencyStore idempotency;
+
+  private final ReadModel readModel;
+
   public AccountController(AccountDAO accountDAO) {
+    this(accountDAO, null);
+  }
+
+  /** {@code idempotency} may be null, in which case idempotency keys are ignored. */
+  public AccountController(AccountDAO accountDAO, IdempotencyStore idempotency) {
+    this(accountDAO, idempotency, null);
+  }
+
+  /**
+   * {@code readModel} is the one {@code accountDAO} reads from, if any; transfers then
+   * return its version.
+   */
+  AccountController(AccountDAO accountDAO, IdempotencyStore idempotency,
+      ReadModel readModel) {
     this.accountDAO = accountDAO;
+    this.idempotency = idempotency;
+    this.readModel = readModel;
   }
 
   public Mono<CreateAccountResponse> createAccount(CreateAccountRequest request) {
@@ -33,12 +57,60 @@ public class AccountController {
         .map(CreateDepositResponse::new);
   }
 
+  public Mono<CreateDepositResponse> createDeposit(CreateDepositRequest request,
+      String idempotencyKey) {
+    return idempotent(idempotencyKey, request, CreateDepositResponse.class,
+        () -> createDeposit(request));
+  }
+
+  /**
+   * The version is read once the transfer has been published to the read model, so it
+   * covers the transfer.
+   */
   public Mono<CreateTransferResponse> createTransfer(CreateTransferRequest request) {
     return accountDAO.createTransfer(request)
-        .map(CreateTransferResponse::new);
+        .map(balance -> new CreateTransferResponse(balance,
+            readModel == null ? null : readModel.version()));
+  }
+
+  public Mono<CreateTransferResponse> createTransfer(CreateTransferRequest request,
+      String idempotencyKey) {
+    return idempotent(idempotencyKey, request, CreateTransferResponse.class,
+        () -> createTransfer(request));
+  }
+
+  /**
+   * The key is also put in the subscriber context of the DAO call, for the write-ahead log
+   * to record.
+   */
+  private <T> Mono<T> idempotent(String key, Object request, Class<T> responseType,
+      Supplier<Mono<T>> call) {
+    if (key == null) {
+      return call.get();
+    }
+    Supplier<Mono<T>> keyed = () -> call.get()
+        .subscriberContext(ctx -> ctx.put(WriteAheadLog.IDEMPOTENCY_KEY, key));
+    if (idempotency == null) {
+      return keyed.get();
+    }
+    return idempotency.execute(key, request, responseType, keyed);
   }
 
   public Mono<Account> getAccount(Long id) {
     return accountDAO.findAccount(id);
   }
+
+  /** Reads the account as of at least {@code minVersion} of the read model, if not null. */
+  public Mono<Account> getAccount(Long id, Long minVersion) {
+    if (minVersion == null) {
+      return getAccount(id);
+    }
+    return getAccount(id)
+        .subscriberContext(ctx -> ctx.put(ReadModel.MIN_VERSION, minVersion));
+  }
+
+  public Flux<Transaction> listTransactions(Long accountID, TransactionCursor before,
+      int limit) {
+    return accountDAO.listTransactions(accountID, before, limit);
+  }
 }
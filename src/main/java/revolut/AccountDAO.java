@@ -1,11 +1,14 @@
 package revolut;
 
-import java.math.BigDecimal;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import revolut.models.Account;
 import revolut.models.CreateAccountRequest;
 import revolut.models.CreateDepositRequest;
 import revolut.models.CreateTransferRequest;
+import revolut.models.Money;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
 
 public interface AccountDAO {
 
@@ -13,7 +16,13 @@ public interface AccountDAO {
 
   Mono<Account> findAccount(Long accountID);
 
-  Mono<BigDecimal> createDeposit(CreateDepositRequest obj) throws DataException;
+  Mono<Money> createDeposit(CreateDepositRequest obj) throws DataException;
 
-  Mono<BigDecimal> createTransfer(CreateTransferRequest obj) throws DataException;
+  Mono<Money> createTransfer(CreateTransferRequest obj) throws DataException;
+
+  /**
+   * Streams up to {@code limit} transactions from or to an account, newest first, starting
+   * after {@code before} or at the newest one if it is null.
+   */
+  Flux<Transaction> listTransactions(Long accountID, TransactionCursor before, int limit);
 }
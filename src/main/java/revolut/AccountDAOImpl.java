@@ -1,137 +1,457 @@
 package revolut;
 
-import java.math.BigDecimal;
-import lombok.Data;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.sql2o.Connection;
+import org.sql2o.Query;
 import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import revolut.TransferBatcher.PendingTransfer;
 import revolut.models.Account;
 import revolut.models.CreateAccountRequest;
 import revolut.models.CreateDepositRequest;
 import revolut.models.CreateTransferRequest;
 import revolut.models.DataConfig;
+import revolut.models.HotAccountConfig;
+import revolut.models.Money;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
 
-public class AccountDAOImpl implements AccountDAO {
+public class AccountDAOImpl implements AccountDAO, AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(AccountDAOImpl.class);
 
   private final Sql2o db;
 
   private final DataConfig config;
 
-  public AccountDAOImpl(Sql2o db, DataConfig config) {
+  private final Scheduler scheduler;
+
+  private final AccountLocks locks;
+
+  private final TransferBatcher batcher;
+
+  private final Set<Long> hotAccounts;
+
+  private final ScheduledExecutorService compaction;
+
+  public AccountDAOImpl(Sql2o db, DataConfig config, Scheduler scheduler) {
     this.db = db;
     this.config = config;
+    this.scheduler = scheduler;
+    this.locks = new AccountLocks(config.locks.stripes);
+    this.batcher = config.batching.enabled
+        ? new TransferBatcher(config.batching, this::applyTransfers)
+        : null;
+    HotAccountConfig hot = config.hotAccounts;
+    this.hotAccounts = hot.enabled ? Set.copyOf(hot.ids) : Set.of();
+    prepareShards();
+    if (hotAccounts.isEmpty()) {
+      this.compaction = null;
+    } else {
+      this.compaction = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("shard-compaction")
+          .setDaemon(true)
+          .build());
+      compaction.scheduleWithFixedDelay(this::compactShards, hot.compactIntervalMs,
+          hot.compactIntervalMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Stops the batching thread and compacting sub-balances, which are folded into their
+   * accounts on the next start.
+   */
+  @Override
+  public void close() {
+    if (batcher != null) {
+      batcher.close();
+    }
+    if (compaction != null) {
+      compaction.shutdownNow();
+    }
+  }
+
+  TransferBatcher getBatcher() {
+    return batcher;
   }
 
 
   @Override
   public Mono<Account> createAccount(CreateAccountRequest obj) throws DataException {
-    try (Connection conn = db.beginTransaction()) {
-      Long newId = conn.createQuery(config.queries.createAccount, true)
-          .addParameter("name", obj.getName())
-          .executeUpdate()
-          .getKeys(Long.class)
-          .get(0);
-
-      conn.commit(false);
-      return findAccount(conn, newId);
-    }
+    return blocking(() -> {
+      try (Connection conn = db.beginTransaction()) {
+        Long newId = conn.createQuery(config.queries.createAccount, true)
+            .addParameter("name", obj.getName())
+            .executeUpdate()
+            .getKeys(Long.class)
+            .get(0);
+
+        conn.commit(false);
+        return findAccount(conn, newId);
+      }
+    });
   }
 
   @Override
   public Mono<Account> findAccount(Long accountID) {
-    try (Connection conn = db.beginTransaction()) {
-      var acc = findAccount(conn, accountID);
-      conn.commit();
-      return acc;
-    }
+    return blocking(() -> {
+      try (Connection conn = db.beginTransaction()) {
+        var acc = findAccount(conn, accountID);
+        conn.commit();
+        return acc;
+      }
+    });
   }
 
   @Override
-  public Mono<BigDecimal> createDeposit(CreateDepositRequest obj) throws DataException {
-    Connection conn = db.beginTransaction();
-    return findAccount(conn, obj.getAccountID())
-        .flatMap(acc -> {
-          Long from = null;
-          Long to = obj.getAccountID();
-          BigDecimal amount = obj.getAmount();
-          Long newId = createAccTransaction(conn, from, to, amount);
-
-          BigDecimal newBalance = acc.getBalance().add(amount);
-          updateBalance(conn, acc.getId(), newBalance);
-
-          conn.commit();
-          return Mono.just(new Account(acc.getId(), acc.getName(), newBalance));
-        })
-        .doFinally(acc -> conn.close())
-        .map(Account::getBalance)
-        .switchIfEmpty(
-            Mono.error(() -> new AccountNotFound("Account not found: " + obj.getAccountID())));
+  public Mono<Money> createDeposit(CreateDepositRequest obj) throws DataException {
+    return blocking(() -> locks.withLocks(() -> {
+      try (Connection conn = db.beginTransaction()) {
+        var statements = new StatementCache(conn);
+        Long from = null;
+        Long to = obj.getAccountID();
+        Money amount = obj.getAmount();
+
+        if (!credit(statements, to, amount)) {
+          return Mono.error(new AccountNotFound("Account not found: " + obj.getAccountID()));
+        }
+        Money newBalance = newBalance(statements, to);
+        createAccTransaction(statements, from, to, amount);
+
+        conn.commit();
+        return Mono.just(newBalance);
+      }
+    }, lockedAccounts(null, obj.getAccountID())));
   }
 
   @Override
-  public Mono<BigDecimal> createTransfer(CreateTransferRequest obj) throws DataException {
+  public Mono<Money> createTransfer(CreateTransferRequest obj) throws DataException {
     if (obj.getFromAccount().equals(obj.getToAccount())) {
       return Mono.error(new CannotTransferSameAccount(
           "Cannot receive transfer on same account " + obj.getFromAccount()));
     }
 
-    Connection conn = db.beginTransaction();
+    if (batcher != null) {
+      return batcher.submit(obj);
+    }
 
-    return findAccount(conn, obj.getFromAccount())
-        .zipWith(findAccount(conn, obj.getToAccount()))
-        .flatMap(accs -> {
-          var from = accs.getT1();
-          var to = accs.getT2();
+    return blocking(() -> locks.withLocks(() -> {
+      try (Connection conn = db.beginTransaction()) {
+        var statements = new StatementCache(conn);
+        Money newFromBalance = transfer(statements, obj);
+        createAccTransaction(statements, obj.getFromAccount(), obj.getToAccount(),
+            obj.getAmount());
+        conn.commit();
+        return Mono.just(newFromBalance);
+      }
+    }, lockedAccounts(obj.getFromAccount(), obj.getToAccount())));
+  }
 
-          BigDecimal amount = obj.getAmount();
-          BigDecimal newFromBalance = from.getBalance().subtract(amount);
-          BigDecimal newToBalance = to.getBalance().add(amount);
+  /**
+   * Applies a batch of transfers in one database transaction. Transfers that fail are
+   * reported to their own caller and leave the balances as they were; the transactions
+   * rows of the successful ones are inserted as one JDBC batch before the single commit.
+   * If the batch fails before it commits, {@link TransferBatcher} fails every transfer not
+   * reported yet. Once the commit went through nothing fails the transfers any more: a
+   * caller told they failed would retry and apply them again.
+   */
+  private void applyTransfers(List<PendingTransfer> batch) {
+    Long[] accountIDs = batch.stream()
+        .map(PendingTransfer::getRequest)
+        .flatMap(req -> Stream.of(lockedAccounts(req.getFromAccount(), req.getToAccount())))
+        .toArray(Long[]::new);
 
-          if (newFromBalance.compareTo(BigDecimal.ZERO) < 0) {
-            String message = String.format("Insufficient funds on account %s: %.2f",
-                from.getId(), from.getBalance());
-            return Mono.error(
-                new InsufficientFunds(message));
-          }
-          Long newId = createAccTransaction(conn, from.getId(), to.getId(), amount);
-          updateBalance(conn, from.getId(), newFromBalance);
-          updateBalance(conn, to.getId(), newToBalance);
-          conn.commit();
-          return Mono.just(new Account(from.getId(), from.getName(), newFromBalance));
-        })
-        .map(Account::getBalance)
-        .doFinally(acc -> conn.close())
-        .switchIfEmpty(
-            Mono.error(() -> {
-              String message = String
-                  .format("Invalid accounts: %s, %s", obj.getFromAccount(), obj.getToAccount());
-              return new AccountNotFound(message);
-            }))
-        .log("dao-create-transfer");
+    List<PendingTransfer> applied = new ArrayList<>();
+    List<Money> balances = new ArrayList<>();
+    try {
+      locks.withLocks(() -> {
+        commitTransfers(batch, applied, balances);
+        return null;
+      }, accountIDs);
+    } catch (Sql2oException e) {
+      throw noConnection(e) ? new ServiceUnavailable("No database connection available") : e;
+    }
+    for (int i = 0; i < applied.size(); i++) {
+      applied.get(i).complete(balances.get(i));
+    }
+  }
+
+  /** Runs the transfers of a batch in one database transaction and commits it. */
+  private void commitTransfers(List<PendingTransfer> batch, List<PendingTransfer> applied,
+      List<Money> balances) {
+    try (Connection conn = db.beginTransaction()) {
+      var statements = new StatementCache(conn);
+      Query insert = conn.createQuery(config.queries.createTransaction);
+      for (PendingTransfer pending : batch) {
+        CreateTransferRequest obj = pending.getRequest();
+        try {
+          balances.add(transfer(statements, obj));
+        } catch (DataException e) {
+          pending.fail(e);
+          continue;
+        }
+        applied.add(pending);
+        insert.addParameter("from_acc", obj.getFromAccount())
+            .addParameter("to_acc", obj.getToAccount())
+            .addParameter("amount", obj.getAmount())
+            .addToBatch();
+      }
+      if (!applied.isEmpty()) {
+        insert.executeBatch();
+      }
+      conn.commit();
+    }
+  }
+
+  /**
+   * Moves the money between the two accounts and returns the new balance of the source
+   * account. If either account is missing or the source is short of funds it throws and
+   * leaves both balances untouched.
+   */
+  private Money transfer(StatementCache statements, CreateTransferRequest obj) {
+    Money amount = obj.getAmount();
+
+    Money newFromBalance = debit(statements, obj.getFromAccount(), amount);
+    if (newFromBalance == null) {
+      // only the failure path pays for a SELECT, to tell a missing account from a short one
+      Account from = fetchAccount(statements, obj.getFromAccount());
+      if (from == null) {
+        throw invalidAccounts(obj);
+      }
+      String message = String.format("Insufficient funds on account %s: %.2f",
+          from.getId(), from.getBalance().toBigDecimal());
+      throw new InsufficientFunds(message);
+    }
+    if (!credit(statements, obj.getToAccount(), amount)) {
+      credit(statements, obj.getFromAccount(), amount);
+      throw invalidAccounts(obj);
+    }
+    return newFromBalance;
+  }
+
+  /**
+   * The page is fetched whole on the DAO scheduler and its connection returned to the pool
+   * before any row is emitted, so a slow client reading the response never holds a pooled
+   * connection. Pages are capped at a thousand rows, which keeps this cheap.
+   */
+  @Override
+  public Flux<Transaction> listTransactions(Long accountID, TransactionCursor before,
+      int limit) {
+    Timestamp createdAt = before == null
+        ? Timestamp.from(Instant.now().plus(1, ChronoUnit.DAYS))
+        : Timestamp.from(before.getCreatedAt());
+    long id = before == null ? Long.MAX_VALUE : before.getId();
+    return blocking(() -> {
+      try (Connection conn = db.open()) {
+        return Mono.just(conn.createQuery(config.queries.listTransactions)
+            .addParameter("account", accountID)
+            .addParameter("createdAt", createdAt)
+            .addParameter("id", id)
+            .addParameter("limit", limit)
+            .executeAndFetch(RowMappers.TRANSACTION));
+      }
+    }).flatMapIterable(page -> page);
+  }
+
+  /**
+   * Runs a blocking DAO call on the bounded DAO scheduler instead of the event loop that
+   * subscribed to it. Once the scheduler queue is full, or no pooled connection frees up
+   * within the acquire timeout, new calls fail fast with {@link ServiceUnavailable}.
+   */
+  private <T> Mono<T> blocking(Supplier<Mono<T>> call) {
+    return Mono.defer(call)
+        .subscribeOn(scheduler)
+        .onErrorMap(RejectedExecutionException.class,
+            e -> new ServiceUnavailable("Too many pending requests"))
+        .onErrorMap(AccountDAOImpl::noConnection,
+            e -> new ServiceUnavailable("No database connection available"));
+  }
+
+  /** Whether the pool gave up waiting for a free connection. */
+  private static boolean noConnection(Throwable e) {
+    return e instanceof Sql2oException
+        && e.getCause() instanceof SQLTransientConnectionException;
   }
 
   private Mono<Account> findAccount(Connection conn, Long accountID) {
-    return Mono.justOrEmpty(conn.createQuery(config.queries.findAccount)
+    return Mono.justOrEmpty(fetchAccount(new StatementCache(conn), accountID));
+  }
+
+  private Account fetchAccount(StatementCache statements, Long accountID) {
+    String query = hotAccounts.contains(accountID)
+        ? config.queries.findHotAccount
+        : config.queries.findAccount;
+    return statements.query(query)
         .addParameter("id", accountID)
-        .executeAndFetchFirst(Account.class));
+        .executeAndFetchFirst(RowMappers.ACCOUNT);
   }
 
 
-  private Long createAccTransaction(Connection conn, Long from, Long to, BigDecimal amount) {
-    return conn.createQuery(config.queries.createTransaction, true)
+  private void createAccTransaction(StatementCache statements, Long from, Long to,
+      Money amount) {
+    statements.query(config.queries.createTransaction)
         .addParameter("from_acc", from)
         .addParameter("to_acc", to)
         .addParameter("amount", amount)
+        .executeUpdate();
+  }
+
+  /**
+   * Subtracts amount from the balance in a single guarded UPDATE, refusing to take it below
+   * zero. Returns the new balance, or null if the account is missing or short of funds. The
+   * UPDATE is wrapped in a FINAL TABLE query so that the new balance comes back with it; hot
+   * accounts still need the sum of their sub-balances read separately.
+   */
+  private Money debit(StatementCache statements, Long id, Money amount) {
+    if (!hotAccounts.contains(id)) {
+      return statements.query(config.queries.debitReturningBalance)
+          .addParameter("id", id)
+          .addParameter("amount", amount)
+          .executeAndFetchFirst(Money.class);
+    }
+    int updated = statements.query(config.queries.debitHotBalance)
+        .addParameter("id", id)
+        .addParameter("amount", amount)
         .executeUpdate()
-        .getKeys(Long.class)
-        .get(0);
+        .getResult();
+    return updated == 0 ? null : newBalance(statements, id);
   }
 
-  private void updateBalance(Connection conn, Long id, BigDecimal newBalance) {
-    conn.createQuery(config.queries.updateBalance)
+  /**
+   * Adds amount to the balance in a single UPDATE, or to a random sub-balance of a hot
+   * account, so that concurrent credits to it rarely wait for the same row. Returns false
+   * if the account is missing.
+   */
+  private boolean credit(StatementCache statements, Long id, Money amount) {
+    Query query = hotAccounts.contains(id)
+        ? statements.query(config.queries.creditShard)
+            .addParameter("shard", ThreadLocalRandom.current().nextInt(config.hotAccounts.shards))
+        : statements.query(config.queries.creditBalance);
+    int updated = query
         .addParameter("id", id)
-        .addParameter("balance", newBalance)
-        .executeUpdate();
+        .addParameter("amount", amount)
+        .executeUpdate()
+        .getResult();
+    return updated > 0;
+  }
+
+  /**
+   * Returns the balance of an account this transaction has just debited or credited. For a
+   * hot account that is the sum of its row and sub-balances as this transaction sees them.
+   */
+  private Money newBalance(StatementCache statements, Long id) {
+    return hotAccounts.contains(id)
+        ? fetchAccount(statements, id).getBalance()
+        : lastBalance(statements);
+  }
+
+  /**
+   * Accounts a transfer or deposit must lock, in that order. Credits to hot accounts land
+   * on a random sub-balance and rely on its row lock alone; debits still lock the account,
+   * so that no two of them spend the same sub-balances.
+   */
+  private Long[] lockedAccounts(Long debited, Long credited) {
+    if (hotAccounts.contains(credited)) {
+      return debited == null ? new Long[0] : new Long[] {debited};
+    }
+    return debited == null ? new Long[] {credited} : new Long[] {debited, credited};
+  }
+
+  /**
+   * Folds sub-balances left over from an earlier run into their account rows, and creates
+   * empty ones for the configured hot accounts. Runs before the DAO serves any request.
+   */
+  private void prepareShards() {
+    try (Connection conn = db.beginTransaction()) {
+      var statements = new StatementCache(conn);
+      statements.query(config.queries.mergeShards).executeUpdate();
+      statements.query(config.queries.deleteShards).executeUpdate();
+      for (Long id : hotAccounts) {
+        if (fetchAccount(statements, id) == null) {
+          throw new IllegalArgumentException("Hot account does not exist: " + id);
+        }
+        for (int shard = 0; shard < config.hotAccounts.shards; shard++) {
+          statements.query(config.queries.createShard)
+              .addParameter("id", id)
+              .addParameter("shard", shard)
+              .executeUpdate();
+        }
+      }
+      conn.commit();
+    }
+  }
+
+  /**
+   * Moves the sub-balances of every hot account into its row, so that debits find the
+   * money there. Each sub-balance is zeroed in the same statement that reads it, so credits
+   * landing meanwhile are either moved or stay behind, never lost.
+   */
+  void compactShards() {
+    for (Long id : hotAccounts) {
+      try {
+        locks.withLocks(() -> {
+          try (Connection conn = db.beginTransaction()) {
+            var statements = new StatementCache(conn);
+            Money moved = Money.ZERO;
+            for (int shard = 0; shard < config.hotAccounts.shards; shard++) {
+              int drained = statements.query(config.queries.drainShard)
+                  .addParameter("id", id)
+                  .addParameter("shard", shard)
+                  .executeUpdate()
+                  .getResult();
+              if (drained > 0) {
+                moved = moved.plus(lastBalance(statements));
+              }
+            }
+            if (!moved.equals(Money.ZERO)) {
+              statements.query(config.queries.creditBalance)
+                  .addParameter("id", id)
+                  .addParameter("amount", moved)
+                  .executeUpdate();
+            }
+            conn.commit();
+          }
+          return null;
+        }, id);
+      } catch (RuntimeException e) {
+        logger.warn("Compacting sub-balances of account {} failed", id, e);
+      }
+    }
+  }
+
+  /**
+   * Reads the balance the last debit or credit left in the session variable, without
+   * going back to the accounts table. Fetched as a row because executeScalar closes the
+   * statement, which would spoil it for reuse.
+   */
+  private Money lastBalance(StatementCache statements) {
+    return statements.query(config.queries.lastBalance)
+        .executeAndFetchFirst(Money.class);
+  }
+
+  private static AccountNotFound invalidAccounts(CreateTransferRequest obj) {
+    String message = String
+        .format("Invalid accounts: %s, %s", obj.getFromAccount(), obj.getToAccount());
+    return new AccountNotFound(message);
   }
 }
 
@@ -162,3 +482,10 @@ class CannotTransferSameAccount extends DataException {
     super(message);
   }
 }
+
+class ServiceUnavailable extends DataException {
+
+  public ServiceUnavailable(String message) {
+    super(message);
+  }
+}
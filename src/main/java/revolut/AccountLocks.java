@@ -0,0 +1,33 @@
+package revolut;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Supplier;
+
+/**
+ * Serializes balance changes per account inside this process. Accounts are hashed onto a
+ * fixed set of lock stripes, so operations on disjoint accounts rarely contend, and an
+ * operation touching several accounts takes its stripes in stripe order so that two
+ * transfers in opposite directions cannot deadlock.
+ */
+class AccountLocks {
+
+  private final Striped<Lock> stripes;
+
+  AccountLocks(int stripes) {
+    this.stripes = Striped.lock(stripes);
+  }
+
+  <T> T withLocks(Supplier<T> action, Long... accountIDs) {
+    List<Lock> locks = Lists.newArrayList(stripes.bulkGet(Arrays.asList(accountIDs)));
+    locks.forEach(Lock::lock);
+    try {
+      return action.get();
+    } finally {
+      Lists.reverse(locks).forEach(Lock::unlock);
+    }
+  }
+}
@@ -4,50 +4,237 @@
 package revolut;
 
 import com.google.gson.Gson;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gson.JsonSyntaxException;
 import com.moandjiezana.toml.Toml;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.r2dbc.h2.H2ConnectionConfiguration;
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.SingleThreadEventExecutor;
+import io.prometheus.client.exporter.common.TextFormat;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import org.reactivestreams.Publisher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 import reactor.netty.DisposableServer;
+import reactor.netty.channel.BootstrapHandlers;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.HttpResources;
 import reactor.netty.http.server.HttpServer;
 import org.sql2o.Sql2o;
+import org.sql2o.quirks.NoQuirks;
+import org.sql2o.quirks.parameterparsing.SqlParameterParsingStrategy;
 import reactor.netty.http.server.HttpServerRequest;
 import reactor.netty.http.server.HttpServerResponse;
+import reactor.netty.resources.LoopResources;
+import revolut.models.Account;
+import revolut.models.BatchTransferResult;
+import revolut.models.ConcurrencyLimitConfig;
 import revolut.models.ConnectionConfig;
 import revolut.models.CreateAccountRequest;
 import revolut.models.CreateDepositRequest;
 import revolut.models.CreateTransferRequest;
 import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.PartitionCredit;
+import revolut.models.RateLimitConfig;
+import revolut.models.SchedulerConfig;
+import revolut.models.ServerConfig;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
 
 public class App {
 
   static final Logger logger = LoggerFactory.getLogger(App.class);
 
+  static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+  static final String MIN_VERSION = "Min-Version";
+
+  /** Subscriber context key: when an admitted request's latency is counted from. */
+  private static final String ADMITTED_AT = "app.admittedAt";
+
+  private static final int BATCH_IN_FLIGHT = 64;
+
+  private static final int BATCH_MAX_LINE_BYTES = 16 * 1024;
+
+  static final int HISTORY_DEFAULT_LIMIT = 100;
+
+  static final int HISTORY_MAX_LIMIT = 1000;
+
+  private static final String H2_JDBC_PREFIX = "jdbc:h2:";
+
   Gson gson = new Gson();
+  private final JsonCodec codec = new JsonCodec(gson);
   final AccountController accountController;
+  private final PrometheusMeterRegistry registry;
   private final HttpServer server;
+  private final LoopResources loopResources;
+  private final ConcurrencyLimiter concurrencyLimiter;
+  private final ConcurrencyLimitConfig concurrencyConfig;
+  private final ClientRateLimiter rateLimiter;
+  private final RateLimitConfig rateLimitConfig;
+  private final int maxBodyBytes;
 
   public App(AccountController accountController) {
+    this(accountController, createMeterRegistry());
+  }
+
+  public App(AccountController accountController, PrometheusMeterRegistry registry) {
+    this(accountController, registry, null, null);
+  }
+
+  /** Requests are admitted without limits if a config is null or not enabled. */
+  public App(AccountController accountController, PrometheusMeterRegistry registry,
+      ConcurrencyLimitConfig concurrencyConfig, RateLimitConfig rateLimitConfig) {
+    this(accountController, registry, concurrencyConfig, rateLimitConfig, null, null);
+  }
+
+  /**
+   * With a {@code partition}, the server listens on the port of this node's entry in
+   * {@code [partitioning] nodes} and also serves the routes other nodes commit their
+   * transfers through. Without a {@code serverConfig} the server keeps reactor-netty's
+   * defaults and listens on port 8080.
+   */
+  App(AccountController accountController, PrometheusMeterRegistry registry,
+      ConcurrencyLimitConfig concurrencyConfig, RateLimitConfig rateLimitConfig,
+      Partition partition, ServerConfig serverConfig) {
     this.accountController = accountController;
-    server = HttpServer.create()
-        .port(8080)
-        .route(routes ->
+    this.registry = registry;
+    this.concurrencyConfig = concurrencyConfig;
+    this.concurrencyLimiter = concurrencyConfig != null && concurrencyConfig.enabled
+        ? new ConcurrencyLimiter(concurrencyConfig, registry)
+        : null;
+    this.rateLimitConfig = rateLimitConfig;
+    this.rateLimiter = rateLimitConfig != null && rateLimitConfig.enabled
+        ? new ClientRateLimiter(rateLimitConfig)
+        : null;
+    this.maxBodyBytes = serverConfig == null ? Integer.MAX_VALUE : serverConfig.maxBodyBytes;
+    HttpServer http;
+    EventLoopGroup loops;
+    if (serverConfig == null) {
+      loopResources = null;
+      http = HttpServer.create().port(8080);
+      loops = HttpResources.get().onServer(LoopResources.DEFAULT_NATIVE);
+    } else {
+      loopResources = createLoopResources(serverConfig);
+      http = configure(HttpServer.create(), serverConfig, loopResources);
+      loops = loopResources.onServer(serverConfig.nativeTransport);
+    }
+    if (partition != null) {
+      http = http.port(partition.port());
+    }
+    server = http
+        .route(routes -> {
+          routes
+              .get("/metrics", this::scrape)
+              .post("/accounts", startPipeline("createAccount", this::createAccount))
+              .get("/accounts/{accountID}/transactions",
+                  streamed("listTransactions", this::listTransactions))
+              .get("/accounts/{accountID}", startPipeline("getAccount", this::getAccount))
+              .post("/accounts/{accountID}/deposits",
+                  startPipeline("createDeposit", this::createDeposit))
+              .post("/accounts/{fromAccount}/transfers",
+                  startPipeline("createTransfer", this::createTransfer))
+              .post("/transfers:batch", streamed("createTransfers", this::createTransfers));
+          if (partition != null) {
             routes
-                .post("/accounts", startPipeline(this::createAccount))
-                .get("/accounts/{accountID}", startPipeline(this::getAccount))
-                .post("/accounts/{accountID}/deposits", startPipeline(this::createDeposit))
-                .post("/accounts/{fromAccount}/transfers", startPipeline(this::createTransfer)
-                ));
+                .post("/partition/credits",
+                    internal("prepareCredit", partition, partition::prepare))
+                .post("/partition/credits/{id}/commit",
+                    internal("commitCredit", partition, partition::commit))
+                .post("/partition/credits/{id}/abort",
+                    internal("abortCredit", partition, partition::abort));
+          }
+        });
+    monitorEventLoops(loops);
+  }
+
+  /**
+   * Event loops of the server: {@code selectThreads} accept connections and
+   * {@code workerThreads}, or one per core if 0, serve them.
+   */
+  static LoopResources createLoopResources(ServerConfig config) {
+    int workers = config.workerThreads > 0
+        ? config.workerThreads
+        : Runtime.getRuntime().availableProcessors();
+    return LoopResources.create("http", config.selectThreads, workers, true);
+  }
+
+  /**
+   * Applies {@code [server]}. With {@code h2c} among the protocols, clients may multiplex
+   * requests as HTTP/2 streams over one cleartext connection, by upgrade or with prior
+   * knowledge; HTTP/1.1 clients keep their connections alive between requests. A connection
+   * that neither reads nor writes for {@code idleTimeoutMs} is closed. The loops run on epoll
+   * if {@code nativeTransport} is set and the native library is on the classpath.
+   */
+  static HttpServer configure(HttpServer server, ServerConfig config, LoopResources loops) {
+    HttpProtocol[] protocols = config.protocols.stream()
+        .map(name -> HttpProtocol.valueOf(name.toUpperCase()))
+        .toArray(HttpProtocol[]::new);
+    return server
+        .port(config.port)
+        .protocol(protocols)
+        .httpRequestDecoder(spec -> spec
+            .maxInitialLineLength(config.maxInitialLineBytes)
+            .maxHeaderSize(config.maxHeaderBytes))
+        .runOn(loops, config.nativeTransport)
+        .tcpConfiguration(tcp -> tcp
+            .option(ChannelOption.SO_BACKLOG, config.backlog)
+            .bootstrap(bootstrap -> BootstrapHandlers.updateConfiguration(bootstrap,
+                "idleTimeout", (observer, channel) -> channel.pipeline()
+                    .addFirst("idleState", new IdleStateHandler(0, 0, config.idleTimeoutMs,
+                        TimeUnit.MILLISECONDS))
+                    .addAfter("idleState", "idleClose", new IdleConnectionCloser()))));
   }
 
   public void run() {
@@ -56,21 +243,178 @@ public class App {
         });
   }
 
+  /** The event loops created for {@code [server]} are disposed together with the server. */
   public DisposableServer bindNow() {
-    return server.bindNow();
+    DisposableServer bound;
+    try {
+      bound = server.bindNow();
+    } catch (RuntimeException e) {
+      disposeLoops();
+      throw e;
+    }
+    bound.onDispose(this::disposeLoops);
+    return bound;
+  }
+
+  private void disposeLoops() {
+    if (loopResources != null) {
+      loopResources.dispose();
+    }
   }
 
   private BiFunction<? super HttpServerRequest, ? super HttpServerResponse, ? extends Publisher<Void>> startPipeline(
+      String route,
       BiFunction<? super HttpServerRequest, ? super HttpServerResponse, ? extends Mono<?>> fn) {
+    return timed(route, (req, resp) -> handler(resp, admit(route, req, true,
+        () -> fn.apply(req, resp))));
+  }
+
+  /**
+   * Admits a route that streams its own response like {@link #startPipeline} does. The
+   * request holds its slot until the response has been written, but its latency, which
+   * depends on how fast the client sends and reads, does not move the concurrency limit.
+   */
+  private BiFunction<? super HttpServerRequest, ? super HttpServerResponse, ? extends Publisher<Void>> streamed(
+      String route,
+      BiFunction<? super HttpServerRequest, ? super HttpServerResponse, ? extends Publisher<Void>> fn) {
+    return timed(route, (req, resp) -> admit(route, req, false,
+        () -> Mono.from(fn.apply(req, resp)))
+        .then()
+        .onErrorResume(err -> !resp.hasSentHeaders(),
+            err -> errorHandler(resp, Mono.error(err)).flatMap(Mono::from)));
+  }
+
+  /**
+   * Route between nodes: not shed, since the other node holds a reservation until it gets
+   * an answer. Requests without the partition secret get {@code 403}, and a credit whose id
+   * differs from the {@code {id}} of the path is invalid input.
+   */
+  private BiFunction<? super HttpServerRequest, ? super HttpServerResponse, ? extends Publisher<Void>> internal(
+      String route, Partition partition, Function<PartitionCredit, Mono<PartitionCredit>> fn) {
+    return timed(route, (req, resp) -> handler(resp, Mono.defer(() ->
+        partition.authorized(req.requestHeaders().get(PartitionClient.SECRET_HEADER))
+            ? body(req)
+            : Mono.error(new PartitionRejected(HttpResponseStatus.FORBIDDEN,
+                "Partition requests need the partition secret")))
+        .flatMap(buf -> Mono.justOrEmpty(codec.decode(buf, PartitionCredit.class)))
+        .doOnNext(credit -> {
+          String id = req.param("id");
+          if (id != null && !id.equals(credit.getId())) {
+            throw new BadInputException("Credit id does not match the path", null);
+          }
+        })
+        .flatMap(fn)));
+  }
+
+  /**
+   * Runs {@code call} unless the client is over its rate limit ({@code 429}) or the server is
+   * at its concurrency limit ({@code 503}). Shed requests fail fast with {@link RequestShed},
+   * so that overload turns some requests away instead of slowing all of them down. Only
+   * {@code measured} requests adjust the concurrency limit by their latency, counted from
+   * when their body has been received so that slow uploads do not shrink it.
+   */
+  private Mono<?> admit(String route, HttpServerRequest req, boolean measured,
+      Supplier<? extends Mono<?>> call) {
+    if (rateLimiter != null) {
+      long waitNanos = rateLimiter.tryAcquire(client(req), System.nanoTime());
+      if (waitNanos > 0) {
+        return shed(route, "rate_limited", new RequestShed(HttpResponseStatus.TOO_MANY_REQUESTS,
+            Math.max(1, (waitNanos + TimeUnit.SECONDS.toNanos(1) - 1)
+                / TimeUnit.SECONDS.toNanos(1)),
+            "Rate limit exceeded"));
+      }
+    }
+    if (concurrencyLimiter == null) {
+      return Mono.defer(call);
+    }
+    if (!concurrencyLimiter.tryAcquire()) {
+      return shed(route, "overloaded", new RequestShed(HttpResponseStatus.SERVICE_UNAVAILABLE,
+          concurrencyConfig.retryAfterSeconds, "Server is overloaded"));
+    }
+    var start = new AtomicLong(System.nanoTime());
+    var dropped = new AtomicBoolean();
+    return Mono.defer(call)
+        .doOnError(ServiceUnavailable.class, err -> dropped.set(true))
+        .doFinally(signal -> {
+          if (signal == SignalType.CANCEL || !(measured || dropped.get())) {
+            concurrencyLimiter.cancel();
+          } else {
+            concurrencyLimiter.release(System.nanoTime() - start.get(), dropped.get());
+          }
+        })
+        .subscriberContext(ctx -> ctx.put(ADMITTED_AT, start));
+  }
+
+  private static Mono<?> shed(String route, String reason, RequestShed err) {
+    Metrics.counter("http.server.shed", "route", route, "reason", reason).increment();
+    return Mono.error(err);
+  }
+
+  /**
+   * Identifies the client by {@code clientHeader} if configured and present, otherwise by
+   * its address. Only set a header that a trusted proxy in front of the service controls.
+   */
+  private String client(HttpServerRequest req) {
+    String header = rateLimitConfig.clientHeader;
+    if (header != null && !header.isEmpty()) {
+      String client = req.requestHeaders().get(header);
+      if (client != null) {
+        return client;
+      }
+    }
+    InetSocketAddress address = req.remoteAddress();
+    if (address == null) {
+      return "";
+    }
+    return address.getAddress() != null
+        ? address.getAddress().getHostAddress()
+        : address.getHostString();
+  }
+
+  private BiFunction<? super HttpServerRequest, ? super HttpServerResponse, ? extends Publisher<Void>> timed(
+      String route,
+      BiFunction<? super HttpServerRequest, ? super HttpServerResponse, ? extends Publisher<Void>> fn) {
     return (req, resp) -> {
-      Mono<?> result = fn.apply(req, resp);
-      return handler(resp, result);
+      Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+      return Flux.from(fn.apply(req, resp))
+          .doFinally(signal -> sample.stop(Metrics.timer("http.server.requests",
+              "route", route, "status", Integer.toString(resp.status().code()))));
     };
   }
 
+  private Publisher<Void> scrape(HttpServerRequest req, HttpServerResponse resp) {
+    return resp.header(HttpHeaderNames.CONTENT_TYPE, TextFormat.CONTENT_TYPE_004)
+        .sendString(Mono.fromSupplier(registry::scrape));
+  }
+
+  static PrometheusMeterRegistry createMeterRegistry() {
+    var registry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    Metrics.addRegistry(registry);
+    return registry;
+  }
+
+  /**
+   * Publishes the number of tasks queued on each server event loop, which grows when
+   * something blocks a loop or it is simply saturated.
+   */
+  private static void monitorEventLoops(EventLoopGroup loops) {
+    int index = 0;
+    for (EventExecutor loop : loops) {
+      if (loop instanceof SingleThreadEventExecutor) {
+        Gauge.builder("reactor.netty.eventloop.pending.tasks", (SingleThreadEventExecutor) loop,
+            SingleThreadEventExecutor::pendingTasks)
+            .tag("loop", Integer.toString(index++))
+            .register(Metrics.globalRegistry);
+      }
+    }
+  }
+
   private Publisher<Void> handler(HttpServerResponse resp, Mono<?> result) {
-    Mono<Publisher<Void>> trySend = result.map(gson::toJson)
-        .map(str -> resp.sendString(Mono.just(str)));
+    return respond(resp, result
+        .map(obj -> resp.send(Mono.fromSupplier(() -> codec.encode(resp.alloc(), obj)))));
+  }
+
+  private Publisher<Void> respond(HttpServerResponse resp, Mono<Publisher<Void>> trySend) {
     return errorHandler(resp, trySend)
         .switchIfEmpty(Mono.just(Mono.defer(resp::sendNotFound)))
         .flux()
@@ -80,6 +424,8 @@ public class App {
   private Mono<Publisher<Void>> errorHandler(HttpServerResponse resp,
       Mono<Publisher<Void>> pipeline) {
     return pipeline
+        .onErrorResume(NotModified.class,
+            err -> Mono.just(resp.status(HttpResponseStatus.NOT_MODIFIED).send()))
         .onErrorResume(AccountNotFound.class,
             basicErrorHandler(resp, HttpResponseStatus.NOT_FOUND))
         .onErrorResume(InsufficientFunds.class,
@@ -87,15 +433,30 @@ public class App {
         .onErrorResume(BadInputException.class,
             basicErrorHandler(resp, HttpResponseStatus.UNPROCESSABLE_ENTITY))
         .onErrorResume(CannotTransferSameAccount.class,
-            basicErrorHandler(resp, HttpResponseStatus.UNPROCESSABLE_ENTITY));
+            basicErrorHandler(resp, HttpResponseStatus.UNPROCESSABLE_ENTITY))
+        .onErrorResume(ServiceUnavailable.class,
+            basicErrorHandler(resp, HttpResponseStatus.SERVICE_UNAVAILABLE))
+        .onErrorResume(IdempotencyKeyReused.class,
+            basicErrorHandler(resp, HttpResponseStatus.UNPROCESSABLE_ENTITY))
+        .onErrorResume(IdempotencyKeyInProgress.class,
+            basicErrorHandler(resp, HttpResponseStatus.CONFLICT))
+        .onErrorResume(PartitionRejected.class,
+            err -> basicErrorHandler(resp, err.status).apply(err))
+        .onErrorResume(RequestTooLarge.class,
+            basicErrorHandler(resp, HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE))
+        .onErrorResume(RequestShed.class, err -> {
+          resp.header(HttpHeaderNames.RETRY_AFTER, Long.toString(err.retryAfterSeconds));
+          return basicErrorHandler(resp, err.status).apply(err);
+        });
   }
 
   private <E extends Exception> Function<E, Mono<? extends Publisher<Void>>> basicErrorHandler(
       HttpServerResponse resp, HttpResponseStatus notFound) {
     return (err) -> {
+      Metrics.counter("http.server.errors", "type", err.getClass().getSimpleName()).increment();
       APIError error = new APIError(err.getMessage());
       return Mono.just(resp.status(notFound)
-          .sendString(Mono.just(error).map(gson::toJson)));
+          .send(Mono.fromSupplier(() -> codec.encode(resp.alloc(), error))));
     };
   }
 
@@ -105,68 +466,381 @@ public class App {
     return toml.to(DataConfig.class);
   }
 
-  static Sql2o createDB(ConnectionConfig config) {
-    return new Sql2o(config.url, config.user, config.password);
+  static Sql2o createDB(DataConfig config) {
+    var queries = new ParsedQueries(config.queries);
+    return new Sql2o(createDataSource(config.connection),
+        new NoQuirks(Map.of(Money.class, new MoneyConverter())) {
+          @Override
+          public SqlParameterParsingStrategy getSqlParameterParsingStrategy() {
+            return queries;
+          }
+        });
+  }
+
+  static HikariDataSource createDataSource(ConnectionConfig config) {
+    var pool = new HikariConfig();
+    pool.setPoolName("accounts");
+    pool.setJdbcUrl(config.url);
+    pool.setUsername(config.user);
+    pool.setPassword(config.password);
+    pool.setMaximumPoolSize(config.maxPoolSize);
+    pool.setMinimumIdle(config.minIdle);
+    pool.setMaxLifetime(config.maxLifetimeMs);
+    pool.setConnectionTimeout(config.acquireTimeoutMs);
+    pool.setLeakDetectionThreshold(config.leakDetectionMs);
+    // H2 keeps this many prepared commands per session, so a pooled connection prepares
+    // each query once instead of on every checkout
+    pool.addDataSourceProperty("QUERY_CACHE_SIZE", Integer.toString(config.statementCacheSize));
+    pool.setRegisterMbeans(true);
+    pool.setMetricRegistry(Metrics.globalRegistry);
+    return new HikariDataSource(pool);
+  }
+
+  /**
+   * Fixed pool with a bounded queue. Reactor's bounded elastic scheduler of this release can
+   * drop tasks that were deferred while all its workers were busy, which hangs their callers.
+   */
+  static Scheduler createScheduler(SchedulerConfig config) {
+    Schedulers.enableMetrics();
+    var executor = new ThreadPoolExecutor(config.threads, config.threads,
+        0L, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(config.queueSize),
+        new ThreadFactoryBuilder().setNameFormat("dao-%d").setDaemon(true).build());
+    return Schedulers.fromExecutorService(executor, "dao");
+  }
+
+  /**
+   * Reactive connection pool on the same H2 database as {@link #createDataSource}, for the
+   * {@code r2dbc} DAO.
+   */
+  static ConnectionPool createConnectionPool(ConnectionConfig config) {
+    if (!config.url.startsWith(H2_JDBC_PREFIX)) {
+      throw new IllegalArgumentException("The r2dbc DAO needs an H2 database: " + config.url);
+    }
+    var factory = new H2ConnectionFactory(H2ConnectionConfiguration.builder()
+        .url(config.url.substring(H2_JDBC_PREFIX.length()))
+        .username(config.user)
+        .password(config.password)
+        .build());
+    return new ConnectionPool(ConnectionPoolConfiguration.builder(factory)
+        .name("accounts-r2dbc")
+        .initialSize(config.minIdle)
+        .maxSize(config.maxPoolSize)
+        .maxLifeTime(Duration.ofMillis(config.maxLifetimeMs))
+        .maxAcquireTime(Duration.ofMillis(config.acquireTimeoutMs))
+        .build());
+  }
+
+  static AccountDAO createDAO(Sql2o db, DataConfig config, Scheduler scheduler) {
+    return createDAO(db, config, scheduler, null, null);
+  }
+
+  /**
+   * With a {@code partition}, accounts of other nodes are reached through it. Only the
+   * accounts of this node are cached, and balances it changes directly drop them from the
+   * cache. With a {@code readModel}, it is loaded once the DAO has recovered its state and
+   * answers lookups before the cache.
+   */
+  static AccountDAO createDAO(Sql2o db, DataConfig config, Scheduler scheduler,
+      Partition partition, ReadModel readModel) {
+    if (partition != null
+        && (!config.dao.impl.equals("sql2o") || config.hotAccounts.enabled)) {
+      throw new IllegalArgumentException(
+          "[partitioning] needs the sql2o DAO without [hotAccounts]");
+    }
+    if (readModel != null && (partition != null
+        || !(config.dao.impl.equals("sql2o") || config.dao.impl.equals("r2dbc")))) {
+      throw new IllegalArgumentException(
+          "[readModel] needs the sql2o or r2dbc DAO without [partitioning]");
+    }
+    AccountDAO dao;
+    switch (config.dao.impl) {
+      case "sql2o":
+        dao = new AccountDAOImpl(db, config, scheduler);
+        break;
+      case "memory":
+        dao = new InMemoryAccountDAO(new AccountDAOImpl(db, config, scheduler), db, config,
+            scheduler);
+        break;
+      case "ledger":
+        if (config.hotAccounts.enabled) {
+          throw new IllegalArgumentException("The ledger DAO does not support [hotAccounts]");
+        }
+        dao = new LedgerAccountDAO(db, config, scheduler);
+        break;
+      case "r2dbc":
+        if (config.hotAccounts.enabled) {
+          throw new IllegalArgumentException("The r2dbc DAO does not support [hotAccounts]");
+        }
+        dao = new R2dbcAccountDAO(createConnectionPool(config.connection), config);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown DAO implementation: " + config.dao.impl);
+    }
+    if (config.cache.enabled) {
+      var cache = new CachingAccountDAO(dao, config.cache);
+      if (partition != null) {
+        partition.onChange(cache::invalidate);
+      }
+      dao = cache;
+    }
+    if (readModel != null) {
+      readModel.load(db, config);
+      dao = new ReadModelAccountDAO(dao, readModel);
+    }
+    if (partition != null) {
+      dao = new PartitionedAccountDAO(dao, partition);
+    }
+    return new MeteredAccountDAO(dao);
   }
 
   private Mono<?> createAccount(HttpServerRequest req, HttpServerResponse resp) {
-    return req.receive()
-        .asString()
-        .map(str -> gson.fromJson(str, CreateAccountRequest.class))
-        .singleOrEmpty()
+    return body(req)
+        .flatMap(buf -> Mono.justOrEmpty(codec.decode(buf, CreateAccountRequest.class)))
         .flatMap(accountController::createAccount)
         .doOnSuccess(ign -> resp.status(HttpResponseStatus.CREATED));
   }
 
   private Mono<?> getAccount(HttpServerRequest req, HttpServerResponse res) {
     var id = Long.valueOf(req.param("accountID"));
-    return accountController.getAccount(id);
+    return Mono.fromCallable(() -> minVersion(req))
+        .flatMap(minVersion -> accountController.getAccount(id, minVersion.orElse(null)))
+        .flatMap(acc -> {
+          String etag = etag(acc);
+          res.header(HttpHeaderNames.ETAG, etag);
+          if (etagMatches(req.requestHeaders().get(HttpHeaderNames.IF_NONE_MATCH), etag)) {
+            return Mono.error(new NotModified());
+          }
+          return Mono.just(acc);
+        });
+  }
+
+  private static Optional<Long> minVersion(HttpServerRequest req) {
+    String header = req.requestHeaders().get(MIN_VERSION);
+    try {
+      return Optional.ofNullable(header).map(Long::valueOf);
+    } catch (NumberFormatException e) {
+      throw new BadInputException("Invalid " + MIN_VERSION, e);
+    }
+  }
+
+  /**
+   * Strong validator for an account, derived from its fields so that checking it does not
+   * need the account serialized.
+   */
+  static String etag(Account acc) {
+    HashCode hash = Hashing.murmur3_128().newHasher()
+        .putLong(acc.getId())
+        .putString(acc.getName(), StandardCharsets.UTF_8)
+        .putString(acc.getBalance().toString(), StandardCharsets.UTF_8)
+        .hash();
+    return '"' + hash.toString() + '"';
+  }
+
+  private static boolean etagMatches(String ifNoneMatch, String etag) {
+    if (ifNoneMatch == null) {
+      return false;
+    }
+    for (String candidate : ifNoneMatch.split(",")) {
+      String tag = candidate.trim();
+      if (tag.equals("*") || tag.equals(etag)) {
+        return true;
+      }
+    }
+    return false;
   }
 
   private Mono<?> createDeposit(HttpServerRequest req, HttpServerResponse res) {
-    return req.receive()
-        .asString()
-        .map(str -> {
+    return body(req)
+        .flatMap(buf -> {
           try {
-            CreateDepositRequest obj = gson
-                .fromJson(str, CreateDepositRequest.class);
+            CreateDepositRequest obj = codec.decode(buf, CreateDepositRequest.class);
+            if (obj == null) {
+              return Mono.empty();
+            }
             obj.setAccountID(
                 Long.valueOf(Objects.requireNonNull(req.param("accountID"))));
-            return obj;
+            return Mono.just(obj);
           } catch (JsonSyntaxException | NumberFormatException e) {
             throw new BadInputException("Invalid input", e);
           }
         })
-        .singleOrEmpty()
-        .flatMap(accountController::createDeposit);
+        .flatMap(obj -> accountController.createDeposit(obj, idempotencyKey(req)));
   }
 
   private Mono<?> createTransfer(HttpServerRequest req, HttpServerResponse res) {
-    return req.receive()
-        .asString()
-        .map(str -> {
+    return body(req)
+        .flatMap(buf -> {
           try {
-            CreateTransferRequest obj = gson
-                .fromJson(str, CreateTransferRequest.class);
+            CreateTransferRequest obj = codec.decode(buf, CreateTransferRequest.class);
+            if (obj == null) {
+              return Mono.empty();
+            }
             obj.setFromAccount(
                 Long.valueOf(Objects.requireNonNull(req.param("fromAccount"))));
-            return obj;
+            return Mono.just(obj);
           } catch (JsonSyntaxException | NumberFormatException e) {
             throw new BadInputException("Invalid input", e);
           }
         })
-        .singleOrEmpty()
+        .flatMap(obj -> accountController.createTransfer(obj, idempotencyKey(req)));
+  }
+
+  /**
+   * Streams a page of an account's transactions, newest first, as
+   * {@code {"transactions":[...],"next":cursor}}. Rows are encoded one buffer each as the DAO
+   * reads them, and {@code next} is the cursor of the following page, or null once a page
+   * comes back short. Errors before the first row still get their usual status.
+   */
+  private Publisher<Void> listTransactions(HttpServerRequest req, HttpServerResponse resp) {
+    return respond(resp, Mono.fromCallable(() -> TransactionPage.parse(req))
+        .flatMap(page -> accountController.getAccount(page.accountID)
+            .map(acc -> sendTransactions(resp, page))));
+  }
+
+  private Publisher<Void> sendTransactions(HttpServerResponse resp, TransactionPage page) {
+    Flux<ByteBuf> body = Flux.defer(() -> {
+      var count = new AtomicInteger();
+      var last = new AtomicReference<Transaction>();
+      Flux<ByteBuf> rows = accountController
+          .listTransactions(page.accountID, page.before, page.limit)
+          .map(tx -> {
+            last.set(tx);
+            String prefix = count.getAndIncrement() == 0 ? "{\"transactions\":[" : ",";
+            return codec.encode(resp.alloc(), prefix, tx);
+          });
+      Mono<ByteBuf> end = Mono.fromSupplier(() -> {
+        String next = count.get() == page.limit ? '"' + cursor(last.get()) + '"' : "null";
+        String tail = (count.get() == 0 ? "{\"transactions\":[" : "")
+            + "],\"next\":" + next + "}";
+        return resp.alloc().buffer(tail.length())
+            .writeBytes(tail.getBytes(StandardCharsets.US_ASCII));
+      });
+      return rows.concatWith(end);
+    });
+    return resp.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+        .send(body)
+        .then()
+        .onErrorResume(err -> !resp.hasSentHeaders(),
+            err -> errorHandler(resp, Mono.error(err)).flatMap(Mono::from));
+  }
+
+  /** Opaque page cursor: the creation time and id of the last transaction on a page. */
+  static String cursor(Transaction tx) {
+    return cursor(tx.getCreatedAt(), tx.getId());
+  }
+
+  static String cursor(TransactionCursor position) {
+    return cursor(position.getCreatedAt().toString(), position.getId());
+  }
+
+  private static String cursor(String createdAt, long id) {
+    String position = createdAt + "|" + id;
+    return Base64.getUrlEncoder().withoutPadding()
+        .encodeToString(position.getBytes(StandardCharsets.US_ASCII));
+  }
+
+  static TransactionCursor parseCursor(String cursor) {
+    try {
+      String position = new String(Base64.getUrlDecoder().decode(cursor),
+          StandardCharsets.US_ASCII);
+      int separator = position.indexOf('|');
+      return new TransactionCursor(Instant.parse(position.substring(0, separator)),
+          Long.parseLong(position.substring(separator + 1)));
+    } catch (IllegalArgumentException | DateTimeParseException
+        | StringIndexOutOfBoundsException e) {
+      throw new BadInputException("Invalid cursor", e);
+    }
+  }
+
+  /**
+   * The whole request body, failing with {@link RequestTooLarge} as soon as it is known to
+   * be over {@code maxBodyBytes}: from its {@code Content-Length}, or once that many bytes
+   * have arrived.
+   */
+  private Mono<ByteBuf> body(HttpServerRequest req) {
+    Integer declared = req.requestHeaders().getInt(HttpHeaderNames.CONTENT_LENGTH);
+    if (declared != null && declared > maxBodyBytes) {
+      return Mono.error(new RequestTooLarge(maxBodyBytes));
+    }
+    var received = new AtomicLong();
+    return req.receive()
+        .doOnNext(buf -> {
+          if (received.addAndGet(buf.readableBytes()) > maxBodyBytes) {
+            throw new RequestTooLarge(maxBodyBytes);
+          }
+        })
+        .aggregate()
+        .doOnEach(signal -> {
+          if (signal.isOnNext()) {
+            signal.getContext().<AtomicLong>getOrEmpty(ADMITTED_AT)
+                .ifPresent(start -> start.set(System.nanoTime()));
+          }
+        });
+  }
+
+  private static String idempotencyKey(HttpServerRequest req) {
+    return req.requestHeaders().get(IDEMPOTENCY_KEY);
+  }
+
+  /**
+   * Applies a stream of newline-delimited {@link CreateTransferRequest}s and streams one
+   * {@link BatchTransferResult} line back per item, in request order. Lines are parsed as
+   * they arrive and at most {@value #BATCH_IN_FLIGHT} transfers are in the DAO at a time,
+   * so a slow DAO stops reading from the client instead of buffering the body.
+   */
+  private Publisher<Void> createTransfers(HttpServerRequest req, HttpServerResponse resp) {
+    Flux<ByteBuf> results = NdjsonLines.split(req.receive(), BATCH_MAX_LINE_BYTES)
+        .index()
+        .flatMapSequential(item -> createBatchedTransfer(item.getT1(), item.getT2()),
+            BATCH_IN_FLIGHT)
+        .map(result -> codec.encodeLine(resp.alloc(), result));
+    return resp.header(HttpHeaderNames.CONTENT_TYPE, "application/x-ndjson")
+        .send(results);
+  }
+
+  private Mono<BatchTransferResult> createBatchedTransfer(long index, byte[] line) {
+    return Mono.fromCallable(() -> decodeBatchedTransfer(line))
         .flatMap(accountController::createTransfer)
-        .log("create-transfer");
+        .map(ok -> new BatchTransferResult(index, ok.getBalance(), null, null))
+        .onErrorResume(err -> Mono.just(new BatchTransferResult(index, null,
+            err.getClass().getSimpleName(), err.getMessage())));
+  }
+
+  /** A blank line, like any line that is not a complete transfer, is invalid input. */
+  private CreateTransferRequest decodeBatchedTransfer(byte[] line) {
+    CreateTransferRequest obj;
+    try {
+      obj = codec.decode(Unpooled.wrappedBuffer(line), CreateTransferRequest.class);
+    } catch (JsonSyntaxException e) {
+      throw new BadInputException("Invalid input", e);
+    }
+    if (obj == null || obj.getFromAccount() == null || obj.getToAccount() == null
+        || obj.getAmount() == null) {
+      throw new BadInputException("fromAccount, toAccount and amount are required", null);
+    }
+    return obj;
   }
 
 
   public static void main(String[] args) {
+    var registry = createMeterRegistry();
     var dataConfig = createDataConfig();
-    var conn = createDB(dataConfig.connection);
-    var dao = new AccountDAOImpl(conn, dataConfig);
-    var controller = new AccountController(dao);
-    var app = new App(controller);
+    var conn = createDB(dataConfig);
+    var scheduler = createScheduler(dataConfig.scheduler);
+    var partition = dataConfig.partitioning.enabled
+        ? new Partition(conn, dataConfig, scheduler)
+        : null;
+    var readModel = dataConfig.readModel.enabled
+        ? new ReadModel(dataConfig.readModel)
+        : null;
+    var dao = createDAO(conn, dataConfig, scheduler, partition, readModel);
+    var idempotency = dataConfig.idempotency.enabled
+        ? new IdempotencyStore(conn, dataConfig, scheduler)
+        : null;
+    var controller = new AccountController(dao, idempotency, readModel);
+    var app = new App(controller, registry, dataConfig.concurrency, dataConfig.rateLimit,
+        partition, dataConfig.server);
     app.run();
   }
 }
@@ -183,4 +857,75 @@ class BadInputException extends RuntimeException {
   public BadInputException(String message, Throwable cause) {
     super(message, cause);
   }
-}
\ No newline at end of file
+}
+
+@AllArgsConstructor
+class TransactionPage {
+
+  final Long accountID;
+  final TransactionCursor before;
+  final int limit;
+
+  static TransactionPage parse(HttpServerRequest req) {
+    Map<String, List<String>> query = new QueryStringDecoder(req.uri()).parameters();
+    try {
+      Long accountID = Long.valueOf(Objects.requireNonNull(req.param("accountID")));
+      String limit = first(query, "limit");
+      int size = limit == null ? App.HISTORY_DEFAULT_LIMIT : Integer.parseInt(limit);
+      if (size < 1 || size > App.HISTORY_MAX_LIMIT) {
+        throw new BadInputException(
+            "limit must be between 1 and " + App.HISTORY_MAX_LIMIT, null);
+      }
+      String cursor = first(query, "cursor");
+      return new TransactionPage(accountID,
+          cursor == null ? null : App.parseCursor(cursor), size);
+    } catch (NumberFormatException e) {
+      throw new BadInputException("Invalid input", e);
+    }
+  }
+
+  private static String first(Map<String, List<String>> query, String name) {
+    List<String> values = query.get(name);
+    return values == null || values.isEmpty() ? null : values.get(0);
+  }
+}
+
+class RequestShed extends RuntimeException {
+
+  final HttpResponseStatus status;
+
+  final long retryAfterSeconds;
+
+  public RequestShed(HttpResponseStatus status, long retryAfterSeconds, String message) {
+    super(message, null, false, false);
+    this.status = status;
+    this.retryAfterSeconds = retryAfterSeconds;
+  }
+}
+
+class RequestTooLarge extends RuntimeException {
+
+  public RequestTooLarge(int maxBytes) {
+    super("Request body is larger than " + maxBytes + " bytes", null, false, false);
+  }
+}
+
+/** Closes a connection once its {@link IdleStateHandler} reports it idle. */
+class IdleConnectionCloser extends ChannelDuplexHandler {
+
+  @Override
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+    if (evt instanceof IdleStateEvent) {
+      ctx.close();
+    } else {
+      super.userEventTriggered(ctx, evt);
+    }
+  }
+}
+
+class NotModified extends RuntimeException {
+
+  public NotModified() {
+    super("Not modified", null, false, false);
+  }
+}
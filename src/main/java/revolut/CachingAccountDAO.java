@@ -0,0 +1,161 @@
+package revolut;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import revolut.models.Account;
+import revolut.models.CacheConfig;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.Money;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
+
+/**
+ * Read-through cache in front of another {@link AccountDAO}. Entries are bounded in number
+ * and expire {@code ttlMs} after they were written.
+ *
+ * <p>Writes keep the cache coherent: a deposit or transfer replaces the cached balance of the
+ * account whose new balance it returns and drops the other account. To avoid caching a value
+ * that a concurrent write already made stale, writes are counted per stripe of accounts; a
+ * lookup only caches what it loaded if no write on its stripe started or finished meanwhile,
+ * and a write only updates an entry in place if it was the only write in flight on it.
+ */
+public class CachingAccountDAO implements AccountDAO {
+
+  private static final int STRIPES = 1024;
+
+  private final AccountDAO delegate;
+
+  private final Cache<Long, Account> cache;
+
+  private final AtomicLongArray writesStarted = new AtomicLongArray(STRIPES);
+
+  private final AtomicLongArray writesFinished = new AtomicLongArray(STRIPES);
+
+  public CachingAccountDAO(AccountDAO delegate, CacheConfig config) {
+    this.delegate = delegate;
+    this.cache = CacheBuilder.newBuilder()
+        .maximumSize(config.maxSize)
+        .expireAfterWrite(config.ttlMs, TimeUnit.MILLISECONDS)
+        .recordStats()
+        .build();
+    GuavaCacheMetrics.monitor(Metrics.globalRegistry, cache, "accounts");
+  }
+
+  @Override
+  public Mono<Account> createAccount(CreateAccountRequest obj) throws DataException {
+    return delegate.createAccount(obj)
+        .doOnNext(acc -> cache.put(acc.getId(), acc));
+  }
+
+  @Override
+  public Mono<Account> findAccount(Long accountID) {
+    return Mono.defer(() -> {
+      Account cached = cache.getIfPresent(accountID);
+      if (cached != null) {
+        return Mono.just(cached);
+      }
+
+      int stripe = stripe(accountID);
+      long started = writesStarted.get(stripe);
+      long finished = writesFinished.get(stripe);
+      return delegate.findAccount(accountID)
+          .doOnNext(acc -> {
+            if (started == finished
+                && writesStarted.get(stripe) == started
+                && writesFinished.get(stripe) == finished) {
+              cache.put(accountID, acc);
+            }
+          });
+    });
+  }
+
+  @Override
+  public Mono<Money> createDeposit(CreateDepositRequest obj) throws DataException {
+    Long id = obj.getAccountID();
+    return write(() -> delegate.createDeposit(obj), id)
+        .doOnNext(balance -> refresh(id, balance));
+  }
+
+  @Override
+  public Mono<Money> createTransfer(CreateTransferRequest obj) throws DataException {
+    Long from = obj.getFromAccount();
+    Long to = obj.getToAccount();
+    return write(() -> delegate.createTransfer(obj), from, to)
+        .doOnNext(balance -> {
+          refresh(from, balance);
+          cache.invalidate(to);
+        });
+  }
+
+  @Override
+  public Flux<Transaction> listTransactions(Long accountID, TransactionCursor before,
+      int limit) {
+    return delegate.listTransactions(accountID, before, limit);
+  }
+
+  /** Drops an account whose balance was changed behind this cache. */
+  void invalidate(Long accountID) {
+    cache.invalidate(accountID);
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+
+  /**
+   * Counts the write as in flight on the stripes of the given accounts until it emits its
+   * result, fails or is cancelled. A write that ends without a result drops the accounts
+   * from the cache, since it may or may not have changed them.
+   */
+  private Mono<Money> write(Supplier<Mono<Money>> call, Long... accountIDs) {
+    return Mono.defer(() -> {
+      AtomicBoolean finished = new AtomicBoolean();
+      for (Long id : accountIDs) {
+        writesStarted.incrementAndGet(stripe(id));
+      }
+      return call.get()
+          .doOnNext(balance -> finish(finished, accountIDs))
+          .doFinally(signal -> {
+            if (finish(finished, accountIDs)) {
+              cache.invalidateAll(Arrays.asList(accountIDs));
+            }
+          });
+    });
+  }
+
+  private boolean finish(AtomicBoolean finished, Long... accountIDs) {
+    if (!finished.compareAndSet(false, true)) {
+      return false;
+    }
+    for (Long id : accountIDs) {
+      writesFinished.incrementAndGet(stripe(id));
+    }
+    return true;
+  }
+
+  private void refresh(Long id, Money balance) {
+    int stripe = stripe(id);
+    if (writesStarted.get(stripe) != writesFinished.get(stripe)) {
+      cache.invalidate(id);
+      return;
+    }
+    cache.asMap().computeIfPresent(id,
+        (key, acc) -> new Account(acc.getId(), acc.getName(), balance));
+  }
+
+  private static int stripe(Long id) {
+    return Long.hashCode(id) & (STRIPES - 1);
+  }
+}
@@ -0,0 +1,64 @@
+package revolut;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.util.concurrent.TimeUnit;
+import revolut.models.RateLimitConfig;
+
+/**
+ * Token bucket per client. Every client may send {@code burst} requests at once and
+ * {@code requestsPerSecond} on average after that. Buckets of the most recently seen
+ * {@code maxClients} clients are kept; a bucket idle long enough to have refilled is dropped,
+ * which loses nothing.
+ */
+class ClientRateLimiter {
+
+  private final double tokensPerNano;
+
+  private final double burst;
+
+  private final Cache<String, TokenBucket> buckets;
+
+  ClientRateLimiter(RateLimitConfig config) {
+    this.tokensPerNano = config.requestsPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.burst = config.burst;
+    this.buckets = CacheBuilder.newBuilder()
+        .maximumSize(config.maxClients)
+        .expireAfterAccess((long) Math.ceil(burst / tokensPerNano), TimeUnit.NANOSECONDS)
+        .build();
+  }
+
+  /**
+   * Takes a token from the bucket of {@code client} and returns 0, or returns how many
+   * nanoseconds from {@code nowNanos} until the next token is available.
+   */
+  long tryAcquire(String client, long nowNanos) {
+    return buckets.asMap()
+        .computeIfAbsent(client, c -> new TokenBucket(burst, nowNanos))
+        .tryAcquire(nowNanos);
+  }
+
+  private class TokenBucket {
+
+    private double tokens;
+
+    private long refilledAt;
+
+    TokenBucket(double tokens, long refilledAt) {
+      this.tokens = tokens;
+      this.refilledAt = refilledAt;
+    }
+
+    synchronized long tryAcquire(long nowNanos) {
+      if (nowNanos > refilledAt) {
+        tokens = Math.min(burst, tokens + (nowNanos - refilledAt) * tokensPerNano);
+        refilledAt = nowNanos;
+      }
+      if (tokens >= 1) {
+        tokens--;
+        return 0;
+      }
+      return (long) Math.ceil((1 - tokens) / tokensPerNano);
+    }
+  }
+}
@@ -0,0 +1,92 @@
+package revolut;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import revolut.models.ConcurrencyLimitConfig;
+
+/**
+ * Caps the number of requests in flight at a limit that adapts to their latency (AIMD). The
+ * limit grows by {@code 1 / limit} for every request that completes within
+ * {@code latencyThresholdMs} while at least half of it is in use, so by about one per round
+ * trip when it is fully used, and shrinks by {@code backoffRatio} when a request is
+ * slower or was rejected downstream, at most once per {@code latencyThresholdMs}: requests
+ * that were slow together count as one signal. Requests over the limit are turned away
+ * instead of queueing behind the ones already running.
+ */
+class ConcurrencyLimiter {
+
+  private final ConcurrencyLimitConfig config;
+
+  private final long thresholdNanos;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  private volatile double limit;
+
+  private long lastBackoffNanos;
+
+  /** Reports the limit and the requests in flight to {@code registry}. */
+  ConcurrencyLimiter(ConcurrencyLimitConfig config, MeterRegistry registry) {
+    this.config = config;
+    this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(config.latencyThresholdMs);
+    this.limit = config.initialLimit;
+    this.lastBackoffNanos = System.nanoTime() - thresholdNanos;
+    Gauge.builder("http.server.concurrency.limit", this, ConcurrencyLimiter::limit)
+        .register(registry);
+    Gauge.builder("http.server.concurrency.inflight", inFlight, AtomicInteger::get)
+        .register(registry);
+  }
+
+  /** Takes a slot if one is free; a taken slot must be given back with {@link #release}. */
+  boolean tryAcquire() {
+    while (true) {
+      int current = inFlight.get();
+      if (current >= (int) limit) {
+        return false;
+      }
+      if (inFlight.compareAndSet(current, current + 1)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Gives back a slot taken {@code latencyNanos} ago. {@code dropped} tells that the request
+   * was rejected downstream, e.g. because no database thread or connection was free.
+   */
+  void release(long latencyNanos, boolean dropped) {
+    release(latencyNanos, dropped, System.nanoTime());
+  }
+
+  void release(long latencyNanos, boolean dropped, long nowNanos) {
+    int current = inFlight.getAndDecrement();
+    synchronized (this) {
+      if (dropped || latencyNanos > thresholdNanos) {
+        if (nowNanos - lastBackoffNanos >= thresholdNanos) {
+          lastBackoffNanos = nowNanos;
+          limit = Math.max(config.minLimit, limit * config.backoffRatio);
+        }
+      } else if (current * 2 >= limit) {
+        limit = Math.min(config.maxLimit, limit + 1 / limit);
+      }
+    }
+  }
+
+  /**
+   * Gives back a slot without adjusting the limit, for requests cancelled by the client or
+   * streamed ones whose latency is up to the client.
+   */
+  void cancel() {
+    inFlight.decrementAndGet();
+  }
+
+  double limit() {
+    return limit;
+  }
+
+  int inFlight() {
+    return inFlight.get();
+  }
+}
@@ -0,0 +1,376 @@
+package revolut;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import io.micrometer.core.instrument.Metrics;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import revolut.WriteAheadLog.Record;
+import revolut.models.CreateDepositResponse;
+import revolut.models.CreateTransferResponse;
+import revolut.models.DataConfig;
+import revolut.models.IdempotencyConfig;
+import revolut.models.Money;
+
+/**
+ * Remembers the responses of requests sent with an {@code Idempotency-Key}, so that a retried
+ * request gets the original response instead of being applied again.
+ *
+ * <p>Completed responses are kept in a bounded in-memory cache and in the
+ * {@code idempotency_keys} table for {@code ttlMs}. A key is claimed in the table before the
+ * request runs, so a request is never applied twice even across restarts. The claim is only
+ * released when the request fails with a {@link DataException}, which the DAOs raise before
+ * anything is committed; after any other failure the request may have been applied, so the
+ * key stays claimed until it expires, like the key of a request interrupted by a crash.
+ * Concurrent requests with the same key share a single execution.
+ *
+ * <p>Rows are stored under the {@link #hash} of their key, which the write-ahead log records
+ * with every change together with the balance the request was answered with. If a crash
+ * lost a response before it was stored, the log replay stores it with
+ * {@link #restoreResponses}. Rows stored before keys were hashed are found under the raw
+ * key, until the last of them has expired.
+ */
+class IdempotencyStore implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(IdempotencyStore.class);
+
+  static final int MAX_KEY_LENGTH = 255;
+
+  /**
+   * Fingerprint of a claim restored from the write-ahead log, which does not know the
+   * request; any request with the key gets the stored response.
+   */
+  static final String RECOVERED = "recovered";
+
+  private static final int COMPLETE_RETRIES = 3;
+
+  private static final Duration COMPLETE_BACKOFF = Duration.ofMillis(50);
+
+  private final Sql2o db;
+
+  private final DataConfig config;
+
+  private final Scheduler scheduler;
+
+  private final Gson gson = new Gson();
+
+  private final Cache<String, Stored> completed;
+
+  private final ConcurrentMap<String, Execution> inFlight = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService expiry;
+
+  IdempotencyStore(Sql2o db, DataConfig config, Scheduler scheduler) {
+    IdempotencyConfig idempotency = config.idempotency;
+    this.db = db;
+    this.config = config;
+    this.scheduler = scheduler;
+    this.completed = CacheBuilder.newBuilder()
+        .maximumSize(idempotency.maxSize)
+        .expireAfterWrite(idempotency.ttlMs, TimeUnit.MILLISECONDS)
+        .build();
+    this.expiry = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("idempotency-expiry")
+        .setDaemon(true)
+        .build());
+    long period = Math.max(1, idempotency.ttlMs / 10);
+    expiry.scheduleWithFixedDelay(this::expire, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs {@code call} once for {@code key} and returns its response, or the response of an
+   * earlier or concurrent call with the same key. {@code request} identifies what was asked
+   * for; reusing a key for a different request fails with {@link IdempotencyKeyReused}.
+   * Calls that fail with a {@link DataException} are not remembered and may be retried with
+   * the same key.
+   */
+  <T> Mono<T> execute(String key, Object request, Class<T> responseType,
+      Supplier<Mono<T>> call) {
+    if (key.isEmpty() || key.length() > MAX_KEY_LENGTH) {
+      return Mono.error(new BadInputException(
+          "Idempotency-Key must be 1 to " + MAX_KEY_LENGTH + " characters", null));
+    }
+    String fingerprint = fingerprint(request);
+    return Mono.defer(() -> {
+      Stored stored = completed.getIfPresent(key);
+      if (stored != null) {
+        if (!stored.fingerprint.equals(fingerprint)) {
+          return Mono.error(reused());
+        }
+        Metrics.counter("idempotency.requests", "outcome", "replayed").increment();
+        return Mono.just(gson.fromJson(stored.response, responseType));
+      }
+      Execution created = new Execution(fingerprint);
+      created.response = run(key, fingerprint, call)
+          .doFinally(signal -> inFlight.remove(key, created))
+          .cache();
+      Execution execution = inFlight.putIfAbsent(key, created);
+      if (execution == null) {
+        execution = created;
+        // run to completion even if every caller goes away, so the key is not left claimed
+        execution.response.subscribe(ok -> { }, err -> { });
+      } else {
+        Metrics.counter("idempotency.requests", "outcome", "coalesced").increment();
+      }
+      if (!execution.fingerprint.equals(fingerprint)) {
+        return Mono.error(reused());
+      }
+      return execution.response.map(json -> gson.fromJson(json, responseType));
+    });
+  }
+
+  private <T> Mono<String> run(String key, String fingerprint, Supplier<Mono<T>> call) {
+    return blocking(() -> claim(key, fingerprint))
+        .flatMap(claimed -> {
+          if (claimed.response != null) {
+            completed.put(key, new Stored(fingerprint, claimed.response));
+            Metrics.counter("idempotency.requests", "outcome", "replayed").increment();
+            return Mono.just(claimed.response);
+          }
+          Metrics.counter("idempotency.requests", "outcome", "executed").increment();
+          return Mono.defer(call)
+              .onErrorResume(DataException.class, err -> blocking(() -> release(key))
+                  .onErrorResume(releaseErr -> {
+                    logger.warn("Releasing idempotency key {} failed", key, releaseErr);
+                    return Mono.empty();
+                  })
+                  .then(Mono.error(err)))
+              .map(gson::toJson)
+              .flatMap(json -> complete(key, fingerprint, json));
+        });
+  }
+
+  /**
+   * Claims the key for this node, or returns the stored response of a completed request.
+   * Returns a {@link Stored} without response if the key was claimed.
+   */
+  private Stored claim(String key, String fingerprint) {
+    Timestamp now = new Timestamp(System.currentTimeMillis());
+    String id = hash(key).toString();
+    try (Connection conn = db.beginTransaction()) {
+      Stored existing = find(conn, config, id, since(now));
+      if (existing == null) {
+        existing = find(conn, config, key, since(now));
+      }
+      if (existing != null) {
+        if (!existing.fingerprint.equals(fingerprint)
+            && !existing.fingerprint.equals(RECOVERED)) {
+          throw reused();
+        }
+        if (existing.response == null) {
+          throw new IdempotencyKeyInProgress(
+              "A request with this Idempotency-Key is still in progress");
+        }
+        return existing;
+      }
+      conn.createQuery(config.queries.expireIdempotencyKey)
+          .addParameter("id", id)
+          .addParameter("since", since(now))
+          .executeUpdate();
+      conn.createQuery(config.queries.claimIdempotencyKey)
+          .addParameter("id", id)
+          .addParameter("fingerprint", fingerprint)
+          .addParameter("now", now)
+          .executeUpdate();
+      conn.commit();
+      return new Stored(fingerprint, null);
+    } catch (Sql2oException e) {
+      if (e.getCause() instanceof SQLIntegrityConstraintViolationException) {
+        // claimed concurrently by another node between our lookup and insert
+        throw new IdempotencyKeyInProgress(
+            "A request with this Idempotency-Key is still in progress");
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Stores the response of a request that has been applied. The request stays applied
+   * whatever happens here, so a failure to store it is retried and then only logged: the
+   * caller still gets its response, this node still replays it, and other nodes see the key
+   * in progress until it expires.
+   */
+  private Mono<String> complete(String key, String fingerprint, String response) {
+    completed.put(key, new Stored(fingerprint, response));
+    return blocking(() -> storeResponse(key, response))
+        .retryBackoff(COMPLETE_RETRIES, COMPLETE_BACKOFF)
+        .onErrorResume(err -> {
+          logger.error("Storing the response for idempotency key {} failed", key, err);
+          return Mono.just(response);
+        });
+  }
+
+  private String storeResponse(String key, String response) {
+    try (Connection conn = db.open()) {
+      conn.createQuery(config.queries.completeIdempotencyKey)
+          .addParameter("id", hash(key).toString())
+          .addParameter("response", response)
+          .executeUpdate();
+    }
+    return response;
+  }
+
+  private Void release(String key) {
+    try (Connection conn = db.open()) {
+      conn.createQuery(config.queries.releaseIdempotencyKey)
+          .addParameter("id", hash(key).toString())
+          .executeUpdate();
+    }
+    return null;
+  }
+
+  /** Identifies a key in the {@code idempotency_keys} table and in write-ahead log records. */
+  static HashCode hash(String key) {
+    return Hashing.murmur3_128().hashString(key, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Stores the responses of the requests in {@code records} that were sent with a key within
+   * {@code ttlMs} and whose response the table does not hold, as after a crash between
+   * acknowledging a request and storing its response. A deposit or transfer response is just
+   * the balance the log recorded, so a client retrying the request gets it instead of
+   * {@link IdempotencyKeyInProgress} until the key expires. A key the table lost altogether
+   * is claimed again under the {@link #RECOVERED} fingerprint.
+   */
+  static void restoreResponses(Sql2o db, DataConfig config, List<Record> records) {
+    Timestamp since = new Timestamp(System.currentTimeMillis() - config.idempotency.ttlMs);
+    Gson gson = new Gson();
+    int restored = 0;
+    try (Connection conn = db.beginTransaction()) {
+      for (Record record : records) {
+        if (record.getIdempotencyKey() == null || record.getTimestamp() < since.getTime()) {
+          continue;
+        }
+        String id = record.getIdempotencyKey().toString();
+        Stored existing = find(conn, config, id, since);
+        if (existing != null && existing.response != null) {
+          continue;
+        }
+        if (existing == null) {
+          conn.createQuery(config.queries.expireIdempotencyKey)
+              .addParameter("id", id)
+              .addParameter("since", since)
+              .executeUpdate();
+          conn.createQuery(config.queries.claimIdempotencyKey)
+              .addParameter("id", id)
+              .addParameter("fingerprint", RECOVERED)
+              .addParameter("now", new Timestamp(record.getTimestamp()))
+              .executeUpdate();
+        }
+        Money balance = Money.ofMinor(record.getBalance());
+        conn.createQuery(config.queries.completeIdempotencyKey)
+            .addParameter("id", id)
+            .addParameter("response", gson.toJson(record.getFrom() == WriteAheadLog.NO_ACCOUNT
+                ? new CreateDepositResponse(balance)
+                : new CreateTransferResponse(balance)))
+            .executeUpdate();
+        restored++;
+      }
+      conn.commit();
+    }
+    if (restored > 0) {
+      logger.info("Restored {} idempotency responses from the write-ahead log", restored);
+    }
+  }
+
+  private static Stored find(Connection conn, DataConfig config, String id, Timestamp since) {
+    return conn.createQuery(config.queries.findIdempotencyKey)
+        .addParameter("id", id)
+        .addParameter("since", since)
+        .executeAndFetchFirst(Stored.class);
+  }
+
+  private void expire() {
+    try (Connection conn = db.open()) {
+      int expired = conn.createQuery(config.queries.expireIdempotencyKeys)
+          .addParameter("since", since(new Timestamp(System.currentTimeMillis())))
+          .executeUpdate()
+          .getResult();
+      logger.debug("Expired {} idempotency keys", expired);
+    } catch (RuntimeException e) {
+      logger.warn("Expiring idempotency keys failed", e);
+    }
+  }
+
+  private Timestamp since(Timestamp now) {
+    return new Timestamp(now.getTime() - config.idempotency.ttlMs);
+  }
+
+  private <T> Mono<T> blocking(Supplier<T> call) {
+    return Mono.fromSupplier(call)
+        .subscribeOn(scheduler)
+        .onErrorMap(RejectedExecutionException.class,
+            e -> new ServiceUnavailable("Too many pending requests"));
+  }
+
+  private String fingerprint(Object request) {
+    return Hashing.sha256()
+        .hashString(request.getClass().getName() + gson.toJson(request), StandardCharsets.UTF_8)
+        .toString();
+  }
+
+  private static IdempotencyKeyReused reused() {
+    return new IdempotencyKeyReused(
+        "Idempotency-Key was already used for a different request");
+  }
+
+  @Override
+  public void close() {
+    expiry.shutdownNow();
+  }
+
+  @NoArgsConstructor
+  @AllArgsConstructor
+  static class Stored {
+
+    String fingerprint;
+    String response;
+  }
+
+  private static class Execution {
+
+    final String fingerprint;
+    Mono<String> response;
+
+    Execution(String fingerprint) {
+      this.fingerprint = fingerprint;
+    }
+  }
+}
+
+class IdempotencyKeyReused extends DataException {
+
+  public IdempotencyKeyReused(String message) {
+    super(message);
+  }
+}
+
+class IdempotencyKeyInProgress extends DataException {
+
+  public IdempotencyKeyInProgress(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,229 @@
+package revolut;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.Context;
+import revolut.WriteAheadLog.Record;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
+
+/**
+ * Keeps the authoritative balances in memory, as {@code long} cents, and persists them
+ * behind the caller's back. Deposits and transfers are checked against memory under the
+ * account locks, appended to the {@link WriteAheadLog} and only then applied; they are
+ * acknowledged once the log's fsync policy has put them on disk, and a
+ * {@link JournalFlusher} later writes them to H2. On startup balances are loaded from the
+ * accounts table and the log records newer than the flushed checkpoint are replayed on top
+ * of them, and responses to idempotent requests that a crash kept out of the database are
+ * restored from the log.
+ *
+ * <p>Deposits and transfers wait for account locks and append to the log, so they run on the
+ * DAO scheduler rather than the event loop. Account creation is rare and needs a database
+ * id, so it goes straight to the wrapped store.
+ */
+public class InMemoryAccountDAO implements AccountDAO, AutoCloseable {
+
+  private final AccountDAO store;
+
+  private final Map<Long, Entry> accounts = new ConcurrentHashMap<>();
+
+  private final AccountLocks locks;
+
+  private final WriteAheadLog journal;
+
+  private final JournalFlusher flusher;
+
+  private final Scheduler scheduler;
+
+  public InMemoryAccountDAO(AccountDAO store, Sql2o db, DataConfig config,
+      Scheduler scheduler) {
+    this.store = store;
+    this.scheduler = scheduler;
+    this.locks = new AccountLocks(config.locks.stripes);
+
+    try (Connection conn = db.open()) {
+      conn.createQuery(config.queries.listAccounts)
+          .executeAndFetch(RowMappers.ACCOUNT)
+          .forEach(this::load);
+    }
+
+    long checkpoint = JournalFlusher.readCheckpoint(db, config);
+    this.journal = new WriteAheadLog(config.wal, this::flushed);
+    List<Record> records = journal.replay();
+    journal.advanceSeq(checkpoint);
+    this.flusher = new JournalFlusher(db, config, journal, checkpoint);
+    int replayed = 0;
+    for (Record record : records) {
+      if (record.getSeq() > checkpoint) {
+        replay(record);
+        flusher.enqueue(record);
+        replayed++;
+      }
+    }
+    if (config.idempotency.enabled) {
+      IdempotencyStore.restoreResponses(db, config, records);
+    }
+    if (replayed == 0) {
+      journal.reset();
+    }
+  }
+
+  @Override
+  public Mono<Account> createAccount(CreateAccountRequest obj) throws DataException {
+    return store.createAccount(obj)
+        .doOnNext(this::load);
+  }
+
+  @Override
+  public Mono<Account> findAccount(Long accountID) {
+    return Mono.justOrEmpty(accounts.get(accountID))
+        .map(Entry::toAccount);
+  }
+
+  @Override
+  public Mono<Money> createDeposit(CreateDepositRequest obj) throws DataException {
+    long amount = obj.getAmount().minorUnits();
+    return Mono.subscriberContext().flatMap(ctx -> blocking(() -> locks.withLocks(() -> {
+      Entry to = accounts.get(obj.getAccountID());
+      if (to == null) {
+        return Mono.error(new AccountNotFound("Account not found: " + obj.getAccountID()));
+      }
+
+      long balance = Math.addExact(to.balance, amount);
+      Record record = flusher.append(WriteAheadLog.NO_ACCOUNT, to.id, amount, balance,
+          idempotencyKey(ctx));
+      to.balance = balance;
+      return acknowledge(Money.ofMinor(balance), record);
+    }, obj.getAccountID())));
+  }
+
+  @Override
+  public Mono<Money> createTransfer(CreateTransferRequest obj) throws DataException {
+    if (obj.getFromAccount().equals(obj.getToAccount())) {
+      return Mono.error(new CannotTransferSameAccount(
+          "Cannot receive transfer on same account " + obj.getFromAccount()));
+    }
+
+    long amount = obj.getAmount().minorUnits();
+    return Mono.subscriberContext().flatMap(ctx -> blocking(() -> locks.withLocks(() -> {
+      Entry from = accounts.get(obj.getFromAccount());
+      Entry to = accounts.get(obj.getToAccount());
+      if (from == null || to == null) {
+        String message = String
+            .format("Invalid accounts: %s, %s", obj.getFromAccount(), obj.getToAccount());
+        return Mono.error(new AccountNotFound(message));
+      }
+      if (from.balance < amount) {
+        String message = String.format("Insufficient funds on account %s: %.2f",
+            from.id, Money.ofMinor(from.balance).toBigDecimal());
+        return Mono.error(new InsufficientFunds(message));
+      }
+
+      long fromBalance = Math.subtractExact(from.balance, amount);
+      long toBalance = Math.addExact(to.balance, amount);
+      Record record = flusher.append(from.id, to.id, amount, fromBalance, idempotencyKey(ctx));
+      from.balance = fromBalance;
+      to.balance = toBalance;
+      return acknowledge(Money.ofMinor(fromBalance), record);
+    }, obj.getFromAccount(), obj.getToAccount())));
+  }
+
+  /** Reads the database, so transfers still waiting in the journal are not listed yet. */
+  @Override
+  public Flux<Transaction> listTransactions(Long accountID, TransactionCursor before,
+      int limit) {
+    return store.listTransactions(accountID, before, limit);
+  }
+
+  /** The key the request was sent with, which the log records for idempotency replay. */
+  private static String idempotencyKey(Context ctx) {
+    return ctx.getOrDefault(WriteAheadLog.IDEMPOTENCY_KEY, null);
+  }
+
+  /**
+   * Completes with {@code result} once {@code record} is as durable as the fsync policy
+   * requires. The wait happens when the returned Mono is subscribed, after the account locks
+   * are released, so that with {@code group} concurrent writers share one force.
+   */
+  private <T> Mono<T> acknowledge(T result, Record record) {
+    return Mono.fromCallable(() -> {
+      journal.awaitDurable(record.getSeq());
+      return result;
+    });
+  }
+
+  /** Number of journal records not yet written to the database. */
+  int flushBacklog() {
+    return flusher.backlog();
+  }
+
+  /** Whether flushing stopped on a record the database refused; see {@link JournalFlusher}. */
+  boolean flushStopped() {
+    return flusher.stopped();
+  }
+
+  /** Whether the log segments holding records up to {@code seq} may be deleted. */
+  private boolean flushed(long seq) {
+    return flusher.flushed(seq);
+  }
+
+  @Override
+  public void close() {
+    flusher.close();
+    journal.close();
+  }
+
+  /**
+   * Runs a call on the DAO scheduler, like {@link AccountDAOImpl} does, and fails it with
+   * {@link ServiceUnavailable} once the scheduler queue is full.
+   */
+  private <T> Mono<T> blocking(Supplier<Mono<T>> call) {
+    return Mono.defer(call)
+        .subscribeOn(scheduler)
+        .onErrorMap(RejectedExecutionException.class,
+            e -> new ServiceUnavailable("Too many pending requests"));
+  }
+
+  private void load(Account account) {
+    accounts.put(account.getId(),
+        new Entry(account.getId(), account.getName(), account.getBalance().minorUnits()));
+  }
+
+  private void replay(Record record) {
+    if (record.getFrom() != WriteAheadLog.NO_ACCOUNT) {
+      accounts.get(record.getFrom()).balance -= record.getAmount();
+    }
+    accounts.get(record.getTo()).balance += record.getAmount();
+  }
+
+  private static class Entry {
+
+    final Long id;
+    final String name;
+    volatile long balance;
+
+    Entry(Long id, String name, long balance) {
+      this.id = id;
+      this.name = name;
+      this.balance = balance;
+    }
+
+    Account toAccount() {
+      return new Account(id, name, Money.ofMinor(balance));
+    }
+  }
+}
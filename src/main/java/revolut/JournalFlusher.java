@@ -0,0 +1,217 @@
+package revolut;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import revolut.WriteAheadLog.Record;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+
+/**
+ * Writes write-ahead log records behind to H2 on a background thread. Each flush applies a
+ * run of records to the accounts and transactions tables and moves the journal checkpoint in
+ * the same database transaction, so a record is either flushed and checkpointed or neither.
+ * A flush that is retried skips the records at or below the checkpoint, in case the failed
+ * attempt did commit. Log segments are deleted once the checkpoint has passed them.
+ *
+ * <p>Every record was acknowledged and applied in memory before it got here, so a record the
+ * database refuses is never dropped. Flushing stops instead, with an error logged and the
+ * {@code journal.flusher.stopped} gauge at 1; the log keeps that record and everything after
+ * it, and replays them once the database has been fixed and the service restarted.
+ */
+class JournalFlusher implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(JournalFlusher.class);
+
+  private static final long RETRY_DELAY_MS = 1000;
+
+  private final Sql2o db;
+
+  private final DataConfig config;
+
+  private final WriteAheadLog journal;
+
+  private final BlockingQueue<Record> pending = new LinkedBlockingQueue<>();
+
+  private final AtomicInteger unflushed = new AtomicInteger();
+
+  private final ExecutorService thread;
+
+  private final List<Gauge> gauges;
+
+  private volatile boolean stopped;
+
+  private volatile long flushedSeq;
+
+  /** {@code checkpoint} is the sequence number of the last record already in the database. */
+  JournalFlusher(Sql2o db, DataConfig config, WriteAheadLog journal, long checkpoint) {
+    this.db = db;
+    this.config = config;
+    this.journal = journal;
+    this.flushedSeq = checkpoint;
+    this.thread = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("journal-flusher")
+        .setDaemon(true)
+        .build());
+    thread.execute(this::run);
+    this.gauges = List.of(
+        Gauge.builder("journal.backlog", unflushed, AtomicInteger::get)
+            .description("Journal records not yet flushed to the database")
+            .register(Metrics.globalRegistry),
+        Gauge.builder("journal.flusher.stopped", this, f -> f.stopped ? 1 : 0)
+            .description("1 once flushing stopped on a record the database refused")
+            .register(Metrics.globalRegistry));
+  }
+
+  static long readCheckpoint(Sql2o db, DataConfig config) {
+    try (Connection conn = db.open()) {
+      return conn.createQuery(config.queries.readCheckpoint)
+          .executeScalar(Long.class);
+    }
+  }
+
+  /**
+   * Appends a balance change to the log and queues it for flushing. Both happen under one
+   * lock so that records reach the flusher in sequence order.
+   */
+  synchronized Record append(long from, long to, long amount, long balance,
+      String idempotencyKey) {
+    Record record = journal.append(from, to, amount, balance, idempotencyKey);
+    enqueue(record);
+    return record;
+  }
+
+  /** Queues a record replayed from the journal on startup. */
+  void enqueue(Record record) {
+    unflushed.incrementAndGet();
+    pending.add(record);
+  }
+
+  /** Number of records queued or being flushed, but not yet committed. */
+  int backlog() {
+    return unflushed.get();
+  }
+
+  boolean stopped() {
+    return stopped;
+  }
+
+  /** Whether every record up to {@code seq} is in the database. */
+  boolean flushed(long seq) {
+    return flushedSeq >= seq;
+  }
+
+  @Override
+  public void close() {
+    thread.shutdownNow();
+    gauges.forEach(Metrics.globalRegistry::remove);
+  }
+
+  private void run() {
+    List<Record> batch = new ArrayList<>(config.journal.flushBatchSize);
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        if (batch.isEmpty()) {
+          batch.add(pending.take());
+          pending.drainTo(batch, config.journal.flushBatchSize - 1);
+        }
+        flush(batch);
+        flushedSeq = Math.max(flushedSeq, batch.get(batch.size() - 1).getSeq());
+        unflushed.addAndGet(-batch.size());
+        batch.clear();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (Refused e) {
+        stopped = true;
+        logger.error("Journal flushing stopped, the database needs fixing: {}. The record and "
+            + "the {} after it stay in the write-ahead log and are replayed on restart.",
+            e.getMessage(), unflushed.get() - 1);
+        return;
+      } catch (RuntimeException e) {
+        logger.error("Failed to flush {} journal records, retrying",
+            batch.size(), e);
+        try {
+          TimeUnit.MILLISECONDS.sleep(RETRY_DELAY_MS);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  private void flush(List<Record> batch) {
+    try (Connection conn = db.beginTransaction()) {
+      var statements = new StatementCache(conn);
+      long checkpoint = conn.createQuery(config.queries.readCheckpoint)
+          .executeScalar(Long.class);
+      Query insert = conn.createQuery(config.queries.createTransaction);
+      int inserts = 0;
+      for (Record record : batch) {
+        if (record.getSeq() <= checkpoint) {
+          continue;
+        }
+        apply(statements, record);
+        insert.addParameter("from_acc", record.getFrom() == WriteAheadLog.NO_ACCOUNT
+            ? null : record.getFrom())
+            .addParameter("to_acc", record.getTo())
+            .addParameter("amount", Money.ofMinor(record.getAmount()))
+            .addToBatch();
+        inserts++;
+      }
+      if (inserts > 0) {
+        insert.executeBatch();
+      }
+      conn.createQuery(config.queries.writeCheckpoint)
+          .addParameter("seq", Math.max(checkpoint, batch.get(batch.size() - 1).getSeq()))
+          .executeUpdate();
+      conn.commit();
+    }
+  }
+
+  /**
+   * Applies the balance change of one record. Fails with {@link Refused}, rolling the whole
+   * flush back, if its debit would take the account below zero or one of its accounts is
+   * missing.
+   */
+  private void apply(StatementCache statements, Record record) {
+    Money amount = Money.ofMinor(record.getAmount());
+    if (record.getFrom() != WriteAheadLog.NO_ACCOUNT
+        && update(statements, config.queries.debitBalance, record.getFrom(), amount) == 0) {
+      throw new Refused(String.format("account %d does not hold %s for journal record %d",
+          record.getFrom(), amount, record.getSeq()));
+    }
+    if (update(statements, config.queries.creditBalance, record.getTo(), amount) == 0) {
+      throw new Refused(String.format("account %d of journal record %d does not exist",
+          record.getTo(), record.getSeq()));
+    }
+  }
+
+  private static int update(StatementCache statements, String query, long id, Money amount) {
+    return statements.query(query)
+        .addParameter("id", id)
+        .addParameter("amount", amount)
+        .executeUpdate()
+        .getResult();
+  }
+
+  /** A journal record the database will not take, however often the flush is retried. */
+  private static class Refused extends IllegalStateException {
+
+    Refused(String message) {
+      super(message);
+    }
+  }
+}
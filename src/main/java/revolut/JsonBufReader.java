@@ -0,0 +1,408 @@
+package revolut;
+
+import com.google.gson.JsonSyntaxException;
+import io.netty.buffer.ByteBuf;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import revolut.models.Money;
+
+/**
+ * Pull parser for flat JSON objects straight from a {@link ByteBuf}. Field names are matched
+ * against known ASCII names in place, and numbers are parsed from the bytes, so reading a
+ * request allocates little more than the resulting object. Nested values of unknown fields
+ * are skipped. Errors are reported as {@link JsonSyntaxException}, like Gson does.
+ */
+class JsonBufReader {
+
+  private static final int MAX_LONG_DIGITS = 18;
+
+  private static final long[] POWERS_OF_TEN = {1, 10, 100};
+
+  private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+
+  private final ByteBuf buf;
+
+  private boolean expectComma;
+
+  private int numberStart;
+
+  private int numberEnd;
+
+  private boolean numberOverflow;
+
+  private long numberUnscaled;
+
+  private int numberScale;
+
+  JsonBufReader(ByteBuf buf) {
+    this.buf = buf;
+  }
+
+  static byte[][] names(String... names) {
+    byte[][] bytes = new byte[names.length][];
+    for (int i = 0; i < names.length; i++) {
+      bytes[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+    }
+    return bytes;
+  }
+
+  void beginObject() {
+    expect('{');
+    expectComma = false;
+  }
+
+  /** Consumes the separator before the next field and tells whether there is one. */
+  boolean hasNext() {
+    if (peek() == '}') {
+      return false;
+    }
+    if (expectComma) {
+      expect(',');
+    }
+    expectComma = true;
+    return true;
+  }
+
+  void endObject() {
+    expect('}');
+  }
+
+  /** Fails unless only whitespace is left. */
+  void endDocument() {
+    skipWhitespace();
+    if (buf.isReadable()) {
+      throw syntaxError("Unexpected data after the document");
+    }
+  }
+
+  /**
+   * Reads a field name and the following colon, and returns its index in {@code names}, or -1
+   * if it is none of them.
+   */
+  int nextName(byte[][] names) {
+    expect('"');
+    int start = buf.readerIndex();
+    skipStringBody();
+    int length = buf.readerIndex() - 1 - start;
+    expect(':');
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].length == length && matches(start, names[i])) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean matches(int start, byte[] name) {
+    for (int i = 0; i < name.length; i++) {
+      if (buf.getByte(start + i) != name[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  String nextString() {
+    if (peekNull()) {
+      return null;
+    }
+    expect('"');
+    StringBuilder sb = new StringBuilder();
+    int runStart = buf.readerIndex();
+    while (true) {
+      byte b = readByte();
+      if (b == '"') {
+        appendUtf8(sb, runStart, buf.readerIndex() - 1);
+        return sb.toString();
+      }
+      if (b == '\\') {
+        appendUtf8(sb, runStart, buf.readerIndex() - 1);
+        sb.append(readEscape());
+        runStart = buf.readerIndex();
+      }
+    }
+  }
+
+  private void appendUtf8(StringBuilder sb, int from, int to) {
+    if (to > from) {
+      sb.append(buf.getCharSequence(from, to - from, StandardCharsets.UTF_8));
+    }
+  }
+
+  private char readEscape() {
+    byte b = readByte();
+    switch (b) {
+      case '"':
+      case '\\':
+      case '/':
+        return (char) b;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int c = 0;
+        for (int i = 0; i < 4; i++) {
+          int digit = Character.digit(readByte(), 16);
+          if (digit < 0) {
+            throw syntaxError("Invalid unicode escape");
+          }
+          c = (c << 4) | digit;
+        }
+        return (char) c;
+      default:
+        throw syntaxError("Invalid escape");
+    }
+  }
+
+  /** Reads an integral number, quoted or not. */
+  Long nextLong() {
+    BigDecimal value = nextDecimal();
+    if (value == null) {
+      return null;
+    }
+    try {
+      return value.longValueExact();
+    } catch (ArithmeticException e) {
+      throw syntaxError("Expected a long but was " + value);
+    }
+  }
+
+  /**
+   * Reads a decimal number, quoted or not. Up to 18 significant digits are accumulated into
+   * a long and scaled, which is exact and does not go through a string.
+   */
+  BigDecimal nextDecimal() {
+    if (!readNumber()) {
+      return null;
+    }
+    return decimal();
+  }
+
+  /**
+   * Reads an amount, quoted or not, rounded half up to minor units. Amounts with up to two
+   * decimals and 18 digits are converted without allocating a {@link BigDecimal}.
+   */
+  Money nextMoney() {
+    if (!readNumber()) {
+      return null;
+    }
+    try {
+      int shift = Money.SCALE - numberScale;
+      if (!numberOverflow && shift >= 0 && shift < POWERS_OF_TEN.length) {
+        return Money.ofMinor(Math.multiplyExact(numberUnscaled, POWERS_OF_TEN[shift]));
+      }
+      return Money.of(decimal());
+    } catch (ArithmeticException e) {
+      throw syntaxError("Amount out of range");
+    }
+  }
+
+  private BigDecimal decimal() {
+    if (numberOverflow) {
+      return new BigDecimal(buf.toString(numberStart, numberEnd - numberStart,
+          StandardCharsets.US_ASCII));
+    }
+    return BigDecimal.valueOf(numberUnscaled, numberScale);
+  }
+
+  /**
+   * Scans a number into {@link #numberUnscaled} and {@link #numberScale}, or only records
+   * where it is if it has more digits than a long holds. Returns false for null.
+   */
+  private boolean readNumber() {
+    if (peekNull()) {
+      return false;
+    }
+    boolean quoted = peek() == '"';
+    if (quoted) {
+      buf.skipBytes(1);
+    }
+    int start = buf.readerIndex();
+    boolean negative = consume('-');
+    long unscaled = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean fraction = false;
+    boolean overflow = false;
+    while (buf.isReadable()) {
+      byte b = buf.getByte(buf.readerIndex());
+      if (b >= '0' && b <= '9') {
+        if (digits > 0 || b != '0') {
+          digits++;
+        }
+        if (digits > MAX_LONG_DIGITS) {
+          overflow = true;
+        } else {
+          unscaled = unscaled * 10 + (b - '0');
+        }
+        if (fraction) {
+          scale++;
+        }
+      } else if (b == '.' && !fraction) {
+        fraction = true;
+      } else {
+        break;
+      }
+      buf.skipBytes(1);
+    }
+    int mantissaEnd = buf.readerIndex();
+    if (mantissaEnd == start + (negative ? 1 : 0)) {
+      throw syntaxError("Expected a number");
+    }
+    long exponent = 0;
+    if (consume('e') || consume('E')) {
+      boolean negativeExponent = consume('-');
+      if (!negativeExponent) {
+        consume('+');
+      }
+      int exponentStart = buf.readerIndex();
+      while (buf.isReadable() && Character.isDigit(buf.getByte(buf.readerIndex()))
+          && buf.readerIndex() - exponentStart < 10) {
+        exponent = exponent * 10 + (buf.readByte() - '0');
+      }
+      if (buf.readerIndex() == exponentStart) {
+        throw syntaxError("Expected an exponent");
+      }
+      exponent = negativeExponent ? -exponent : exponent;
+    }
+    numberStart = start;
+    numberEnd = buf.readerIndex();
+    numberOverflow = overflow;
+    numberUnscaled = negative ? -unscaled : unscaled;
+    long shiftedScale = scale - exponent;
+    if (shiftedScale != (int) shiftedScale) {
+      throw syntaxError("Exponent out of range");
+    }
+    numberScale = (int) shiftedScale;
+    if (quoted) {
+      expect('"');
+    }
+    return true;
+  }
+
+  /** Skips the next value, including nested objects and arrays. */
+  void skipValue() {
+    int depth = 0;
+    do {
+      byte b = peek();
+      switch (b) {
+        case '{':
+        case '[':
+          buf.skipBytes(1);
+          depth++;
+          break;
+        case '}':
+        case ']':
+          if (depth == 0) {
+            throw syntaxError("Expected a value");
+          }
+          buf.skipBytes(1);
+          depth--;
+          break;
+        case '"':
+          buf.skipBytes(1);
+          skipStringBody();
+          break;
+        case ',':
+        case ':':
+          if (depth == 0) {
+            throw syntaxError("Expected a value");
+          }
+          buf.skipBytes(1);
+          break;
+        default:
+          skipLiteral();
+      }
+    } while (depth > 0);
+  }
+
+  private void skipLiteral() {
+    int start = buf.readerIndex();
+    while (buf.isReadable()) {
+      byte b = buf.getByte(buf.readerIndex());
+      if (b == ',' || b == '}' || b == ']' || b == ':' || isWhitespace(b)) {
+        break;
+      }
+      buf.skipBytes(1);
+    }
+    if (buf.readerIndex() == start) {
+      throw syntaxError("Expected a value");
+    }
+  }
+
+  private void skipStringBody() {
+    while (true) {
+      byte b = readByte();
+      if (b == '"') {
+        return;
+      }
+      if (b == '\\') {
+        readByte();
+      }
+    }
+  }
+
+  private boolean peekNull() {
+    if (peek() != 'n') {
+      return false;
+    }
+    for (byte b : NULL) {
+      if (readByte() != b) {
+        throw syntaxError("Expected null");
+      }
+    }
+    return true;
+  }
+
+  private boolean consume(char c) {
+    if (buf.isReadable() && buf.getByte(buf.readerIndex()) == c) {
+      buf.skipBytes(1);
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char c) {
+    if (peek() != c) {
+      throw syntaxError("Expected '" + c + "'");
+    }
+    buf.skipBytes(1);
+  }
+
+  /** Skips whitespace and returns the next byte without consuming it. */
+  private byte peek() {
+    skipWhitespace();
+    if (!buf.isReadable()) {
+      throw syntaxError("Unexpected end of input");
+    }
+    return buf.getByte(buf.readerIndex());
+  }
+
+  private byte readByte() {
+    if (!buf.isReadable()) {
+      throw syntaxError("Unexpected end of input");
+    }
+    return buf.readByte();
+  }
+
+  private void skipWhitespace() {
+    while (buf.isReadable() && isWhitespace(buf.getByte(buf.readerIndex()))) {
+      buf.skipBytes(1);
+    }
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+  }
+
+  private JsonSyntaxException syntaxError(String message) {
+    return new JsonSyntaxException(message + " at offset " + buf.readerIndex());
+  }
+}
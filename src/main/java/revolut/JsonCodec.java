@@ -0,0 +1,298 @@
+package revolut;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.function.Function;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+
+/**
+ * Reads and writes JSON directly against Netty buffers. Request bodies are decoded from the
+ * aggregated {@link ByteBuf} and responses are encoded into a buffer from the connection's
+ * allocator, so neither side goes through an intermediate {@code String} or byte array.
+ *
+ * <p>The request types are read by hand with {@link JsonBufReader}; Gson's own reader keeps
+ * a 2 KiB char buffer per document, which dominated the allocation of small requests. Other
+ * types and all responses go through Gson's streaming reader and writer, adapted here to
+ * transcode UTF-8 on the fly.
+ */
+class JsonCodec {
+
+  private static final byte[][] ACCOUNT_FIELDS = JsonBufReader.names("name");
+
+  private static final byte[][] DEPOSIT_FIELDS = JsonBufReader.names("accountID", "amount");
+
+  private static final byte[][] TRANSFER_FIELDS =
+      JsonBufReader.names("fromAccount", "toAccount", "amount");
+
+  private static final Map<Class<?>, Function<JsonBufReader, ?>> READERS = Map.of(
+      CreateAccountRequest.class, JsonCodec::readAccount,
+      CreateDepositRequest.class, JsonCodec::readDeposit,
+      CreateTransferRequest.class, JsonCodec::readTransfer);
+
+  private final Gson gson;
+
+  JsonCodec(Gson gson) {
+    this.gson = gson;
+  }
+
+  /**
+   * Decodes one JSON document from the readable bytes of {@code buf}, or returns {@code null}
+   * if the buffer is empty. The buffer is not released.
+   */
+  <T> T decode(ByteBuf buf, Class<T> type) {
+    if (!buf.isReadable()) {
+      return null;
+    }
+    Function<JsonBufReader, ?> reader = READERS.get(type);
+    if (reader == null) {
+      return gson.fromJson(new JsonReader(new ByteBufReader(buf)), type);
+    }
+    JsonBufReader in = new JsonBufReader(buf);
+    T value = type.cast(reader.apply(in));
+    in.endDocument();
+    return value;
+  }
+
+  private static CreateAccountRequest readAccount(JsonBufReader in) {
+    var obj = new CreateAccountRequest();
+    in.beginObject();
+    while (in.hasNext()) {
+      if (in.nextName(ACCOUNT_FIELDS) == 0) {
+        obj.setName(in.nextString());
+      } else {
+        in.skipValue();
+      }
+    }
+    in.endObject();
+    return obj;
+  }
+
+  private static CreateDepositRequest readDeposit(JsonBufReader in) {
+    var obj = new CreateDepositRequest();
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName(DEPOSIT_FIELDS)) {
+        case 0:
+          obj.setAccountID(in.nextLong());
+          break;
+        case 1:
+          obj.setAmount(in.nextMoney());
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return obj;
+  }
+
+  private static CreateTransferRequest readTransfer(JsonBufReader in) {
+    var obj = new CreateTransferRequest();
+    in.beginObject();
+    while (in.hasNext()) {
+      switch (in.nextName(TRANSFER_FIELDS)) {
+        case 0:
+          obj.setFromAccount(in.nextLong());
+          break;
+        case 1:
+          obj.setToAccount(in.nextLong());
+          break;
+        case 2:
+          obj.setAmount(in.nextMoney());
+          break;
+        default:
+          in.skipValue();
+      }
+    }
+    in.endObject();
+    return obj;
+  }
+
+  /** Encodes {@code value} into a new buffer, which the caller must send or release. */
+  ByteBuf encode(ByteBufAllocator alloc, Object value) {
+    return encode(alloc, "", value);
+  }
+
+  /**
+   * Encodes {@code value} after an ASCII {@code prefix}, such as the separator before an
+   * element of a JSON array that is streamed one element per buffer.
+   */
+  ByteBuf encode(ByteBufAllocator alloc, String prefix, Object value) {
+    ByteBuf buf = alloc.buffer();
+    try {
+      buf.writeCharSequence(prefix, StandardCharsets.US_ASCII);
+      encode(buf, value);
+      return buf;
+    } catch (RuntimeException e) {
+      buf.release();
+      throw e;
+    }
+  }
+
+  /** Encodes {@code value} followed by a newline, for NDJSON streams. */
+  ByteBuf encodeLine(ByteBufAllocator alloc, Object value) {
+    ByteBuf buf = encode(alloc, value);
+    return buf.writeByte('\n');
+  }
+
+  private void encode(ByteBuf buf, Object value) {
+    ByteBufWriter out = new ByteBufWriter(buf);
+    gson.toJson(value, value.getClass(), new JsonWriter(out));
+    out.close();
+  }
+
+  /** Decodes UTF-8 from a buffer; malformed input becomes U+FFFD. */
+  static class ByteBufReader extends Reader {
+
+    private final ByteBuf buf;
+
+    private char pendingLowSurrogate;
+
+    ByteBufReader(ByteBuf buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) {
+      int n = 0;
+      if (pendingLowSurrogate != 0 && len > 0) {
+        cbuf[off + n++] = pendingLowSurrogate;
+        pendingLowSurrogate = 0;
+      }
+      while (n < len && buf.isReadable()) {
+        int b = buf.readByte();
+        if (b >= 0) {
+          cbuf[off + n++] = (char) b;
+          continue;
+        }
+        int cp = decodeMultiByte(b);
+        if (Character.isBmpCodePoint(cp)) {
+          cbuf[off + n++] = (char) cp;
+        } else {
+          cbuf[off + n++] = Character.highSurrogate(cp);
+          if (n < len) {
+            cbuf[off + n++] = Character.lowSurrogate(cp);
+          } else {
+            pendingLowSurrogate = Character.lowSurrogate(cp);
+          }
+        }
+      }
+      return n == 0 && len > 0 ? -1 : n;
+    }
+
+    private int decodeMultiByte(int lead) {
+      int extra;
+      int cp;
+      if ((lead & 0xE0) == 0xC0) {
+        extra = 1;
+        cp = lead & 0x1F;
+      } else if ((lead & 0xF0) == 0xE0) {
+        extra = 2;
+        cp = lead & 0x0F;
+      } else if ((lead & 0xF8) == 0xF0) {
+        extra = 3;
+        cp = lead & 0x07;
+      } else {
+        return 0xFFFD;
+      }
+      for (int i = 0; i < extra; i++) {
+        if (!buf.isReadable() || (buf.getByte(buf.readerIndex()) & 0xC0) != 0x80) {
+          return 0xFFFD;
+        }
+        cp = (cp << 6) | (buf.readByte() & 0x3F);
+      }
+      return Character.isValidCodePoint(cp) ? cp : 0xFFFD;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  /** Encodes characters as UTF-8 straight into a buffer; unpaired surrogates become '?'. */
+  static class ByteBufWriter extends Writer {
+
+    private final ByteBuf buf;
+
+    private char pendingHighSurrogate;
+
+    ByteBufWriter(ByteBuf buf) {
+      this.buf = buf;
+    }
+
+    @Override
+    public void write(int c) {
+      writeChar((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        writeChar(cbuf[i]);
+      }
+    }
+
+    @Override
+    public void write(String str, int off, int len) {
+      for (int i = off; i < off + len; i++) {
+        writeChar(str.charAt(i));
+      }
+    }
+
+    private void writeChar(char c) {
+      if (pendingHighSurrogate != 0) {
+        char high = pendingHighSurrogate;
+        pendingHighSurrogate = 0;
+        if (Character.isLowSurrogate(c)) {
+          writeCodePoint(Character.toCodePoint(high, c));
+          return;
+        }
+        buf.writeByte('?');
+      }
+      if (c < 0x80) {
+        buf.writeByte(c);
+      } else if (Character.isHighSurrogate(c)) {
+        pendingHighSurrogate = c;
+      } else if (Character.isLowSurrogate(c)) {
+        buf.writeByte('?');
+      } else {
+        writeCodePoint(c);
+      }
+    }
+
+    private void writeCodePoint(int cp) {
+      if (cp < 0x800) {
+        buf.writeByte(0xC0 | (cp >> 6));
+      } else if (cp < 0x10000) {
+        buf.writeByte(0xE0 | (cp >> 12));
+        buf.writeByte(0x80 | ((cp >> 6) & 0x3F));
+      } else {
+        buf.writeByte(0xF0 | (cp >> 18));
+        buf.writeByte(0x80 | ((cp >> 12) & 0x3F));
+        buf.writeByte(0x80 | ((cp >> 6) & 0x3F));
+      }
+      buf.writeByte(0x80 | (cp & 0x3F));
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+      if (pendingHighSurrogate != 0) {
+        pendingHighSurrogate = 0;
+        buf.writeByte('?');
+      }
+    }
+  }
+}
@@ -0,0 +1,335 @@
+package revolut;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.LedgerConfig;
+import revolut.models.Money;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
+
+/**
+ * {@link AccountDAO} whose source of truth is an append-only ledger. Every deposit or
+ * transfer is a {@code transactions} row plus two {@code ledger_entries}, one taking the
+ * amount from an account and one giving it to another, so the entries of the whole ledger
+ * always sum to zero. Deposits are taken from the external account {@value #EXTERNAL}.
+ * {@code accounts.balance} is never written.
+ *
+ * <p>A balance is the account's row in {@code balance_snapshots} plus the entries written
+ * after it. Accounts that collect {@code snapshotAfterEntries} new entries get a fresh
+ * snapshot every {@code snapshotIntervalMs}, which bounds the entries a read has to add up.
+ * On startup all snapshots are rebuilt from the ledger, in parallel over account ranges.
+ */
+public class LedgerAccountDAO implements AccountDAO, AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(LedgerAccountDAO.class);
+
+  /** Counterpart of deposits and opening balances; has no row in {@code accounts}. */
+  static final long EXTERNAL = 0L;
+
+  private final Sql2o db;
+
+  private final DataConfig config;
+
+  private final Scheduler scheduler;
+
+  private final AccountLocks locks;
+
+  /** Entries written per account since its last snapshot, as far as this process knows. */
+  private final Map<Long, Integer> unsnapshotted = new ConcurrentHashMap<>();
+
+  private final ScheduledExecutorService snapshots;
+
+  public LedgerAccountDAO(Sql2o db, DataConfig config, Scheduler scheduler) {
+    this.db = db;
+    this.config = config;
+    this.scheduler = scheduler;
+    this.locks = new AccountLocks(config.locks.stripes);
+    openLedger();
+    rebuildSnapshots();
+    this.snapshots = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("ledger-snapshots")
+        .setDaemon(true)
+        .build());
+    LedgerConfig ledger = config.ledger;
+    snapshots.scheduleWithFixedDelay(this::snapshotBalances, ledger.snapshotIntervalMs,
+        ledger.snapshotIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /** Stops taking snapshots; the ledger is complete without them. */
+  @Override
+  public void close() {
+    snapshots.shutdownNow();
+  }
+
+  @Override
+  public Mono<Account> createAccount(CreateAccountRequest obj) throws DataException {
+    return blocking(() -> {
+      try (Connection conn = db.beginTransaction()) {
+        Long newId = conn.createQuery(config.queries.createAccount, true)
+            .addParameter("name", obj.getName())
+            .executeUpdate()
+            .getKeys(Long.class)
+            .get(0);
+
+        conn.commit(false);
+        return Mono.justOrEmpty(fetchAccount(new StatementCache(conn), newId));
+      }
+    });
+  }
+
+  @Override
+  public Mono<Account> findAccount(Long accountID) {
+    return blocking(() -> {
+      try (Connection conn = db.beginTransaction()) {
+        var acc = fetchAccount(new StatementCache(conn), accountID);
+        conn.commit();
+        return Mono.justOrEmpty(acc);
+      }
+    });
+  }
+
+  @Override
+  public Mono<Money> createDeposit(CreateDepositRequest obj) throws DataException {
+    Long to = obj.getAccountID();
+    return blocking(() -> locks.withLocks(() -> {
+      Money amount = obj.getAmount();
+      Money newBalance;
+      try (Connection conn = db.beginTransaction()) {
+        var statements = new StatementCache(conn);
+        Account account = fetchAccount(statements, to);
+        if (account == null) {
+          return Mono.error(new AccountNotFound("Account not found: " + to));
+        }
+        newBalance = account.getBalance().plus(amount);
+        post(statements, EXTERNAL, to, amount);
+        conn.commit();
+      }
+      wrote(to);
+      return Mono.just(newBalance);
+    }, to));
+  }
+
+  @Override
+  public Mono<Money> createTransfer(CreateTransferRequest obj) throws DataException {
+    if (obj.getFromAccount().equals(obj.getToAccount())) {
+      return Mono.error(new CannotTransferSameAccount(
+          "Cannot receive transfer on same account " + obj.getFromAccount()));
+    }
+
+    Long fromID = obj.getFromAccount();
+    Long toID = obj.getToAccount();
+    return blocking(() -> locks.withLocks(() -> {
+      Money amount = obj.getAmount();
+      Money newFromBalance;
+      try (Connection conn = db.beginTransaction()) {
+        var statements = new StatementCache(conn);
+        Account from = fetchAccount(statements, fromID);
+        if (from == null || fetchAccount(statements, toID) == null) {
+          return Mono.error(invalidAccounts(obj));
+        }
+        newFromBalance = from.getBalance().minus(amount);
+        if (newFromBalance.isNegative()) {
+          return Mono.error(new InsufficientFunds(String.format(
+              "Insufficient funds on account %s: %.2f",
+              fromID, from.getBalance().toBigDecimal())));
+        }
+        post(statements, fromID, toID, amount);
+        conn.commit();
+      }
+      wrote(fromID);
+      wrote(toID);
+      return Mono.just(newFromBalance);
+    }, fromID, toID));
+  }
+
+  /**
+   * Records a transaction and its two entries. The caller holds the locks of both accounts,
+   * so the balance it checked cannot change before the entries are committed.
+   */
+  private void post(StatementCache statements, Long from, Long to, Money amount) {
+    Long txID = statements.queryWithKeys(config.queries.createTransaction)
+        .addParameter("from_acc", from == EXTERNAL ? null : from)
+        .addParameter("to_acc", to)
+        .addParameter("amount", amount)
+        .executeUpdate()
+        .getKey(Long.class);
+    createEntry(statements, txID, from, Money.ZERO.minus(amount));
+    createEntry(statements, txID, to, amount);
+  }
+
+  private void createEntry(StatementCache statements, Long txID, Long account, Money amount) {
+    statements.query(config.queries.createLedgerEntry)
+        .addParameter("tx_id", txID)
+        .addParameter("account", account)
+        .addParameter("amount", amount)
+        .executeUpdate();
+  }
+
+  private void wrote(Long accountID) {
+    unsnapshotted.merge(accountID, 1, Integer::sum);
+  }
+
+  /** Fetches the whole page before emitting it, like {@link AccountDAOImpl}. */
+  @Override
+  public Flux<Transaction> listTransactions(Long accountID, TransactionCursor before,
+      int limit) {
+    Timestamp createdAt = before == null
+        ? Timestamp.from(Instant.now().plus(1, ChronoUnit.DAYS))
+        : Timestamp.from(before.getCreatedAt());
+    long id = before == null ? Long.MAX_VALUE : before.getId();
+    return blocking(() -> {
+      try (Connection conn = db.open()) {
+        return Mono.just(conn.createQuery(config.queries.listTransactions)
+            .addParameter("account", accountID)
+            .addParameter("createdAt", createdAt)
+            .addParameter("id", id)
+            .addParameter("limit", limit)
+            .executeAndFetch(RowMappers.TRANSACTION));
+      }
+    }).flatMapIterable(page -> page);
+  }
+
+  /** Runs a blocking DAO call on the DAO scheduler, like {@link AccountDAOImpl}. */
+  private <T> Mono<T> blocking(Supplier<Mono<T>> call) {
+    return Mono.defer(call)
+        .subscribeOn(scheduler)
+        .onErrorMap(RejectedExecutionException.class,
+            e -> new ServiceUnavailable("Too many pending requests"))
+        .onErrorMap(e -> e instanceof Sql2oException
+                && e.getCause() instanceof SQLTransientConnectionException,
+            e -> new ServiceUnavailable("No database connection available"));
+  }
+
+  private Account fetchAccount(StatementCache statements, Long accountID) {
+    return statements.query(config.queries.findLedgerAccount)
+        .addParameter("id", accountID)
+        .executeAndFetchFirst(RowMappers.ACCOUNT);
+  }
+
+  /**
+   * Turns balances of accounts that have no entries yet, such as those written by the other
+   * DAOs, into opening entries.
+   */
+  private void openLedger() {
+    try (Connection conn = db.beginTransaction()) {
+      conn.createQuery(config.queries.openLedgerCounterpart).executeUpdate();
+      int opened = conn.createQuery(config.queries.openLedgerAccounts)
+          .executeUpdate()
+          .getResult();
+      conn.commit();
+      if (opened > 0) {
+        logger.info("Opened the ledger of {} accounts with their balances", opened);
+      }
+    }
+  }
+
+  /**
+   * Snapshots the accounts that have collected {@code snapshotAfterEntries} entries. Each
+   * account is locked while its snapshot is taken, so every entry up to the newest one has
+   * been committed and none can be left behind the snapshot.
+   */
+  void snapshotBalances() {
+    List<Long> due = new ArrayList<>();
+    unsnapshotted.forEach((id, entries) -> {
+      if (entries >= config.ledger.snapshotAfterEntries) {
+        due.add(id);
+      }
+    });
+    for (Long id : due) {
+      try {
+        locks.withLocks(() -> {
+          unsnapshotted.remove(id);
+          try (Connection conn = db.beginTransaction()) {
+            conn.createQuery(config.queries.snapshotBalance)
+                .addParameter("id", id)
+                .executeUpdate();
+            conn.commit();
+          }
+          return null;
+        }, id);
+      } catch (RuntimeException e) {
+        logger.warn("Snapshotting the balance of account {} failed", id, e);
+      }
+    }
+  }
+
+  /**
+   * Recomputes every snapshot from the whole ledger. The account ids are split into
+   * {@code rebuildThreads} ranges, each summed on its own connection and thread. Must not run
+   * while deposits or transfers are being written.
+   */
+  void rebuildSnapshots() {
+    long maxAccount;
+    try (Connection conn = db.open()) {
+      maxAccount = conn.createQuery(config.queries.maxLedgerAccount)
+          .executeScalar(Long.class);
+    }
+    int threads = Math.max(1, config.ledger.rebuildThreads);
+    long rangeSize = maxAccount / threads + 1;
+    ExecutorService rebuild = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+        .setNameFormat("ledger-rebuild-%d")
+        .setDaemon(true)
+        .build());
+    try {
+      List<Future<?>> ranges = new ArrayList<>();
+      for (long from = 1; from <= maxAccount; from += rangeSize) {
+        long to = Math.min(maxAccount, from + rangeSize - 1);
+        long fromID = from;
+        ranges.add(rebuild.submit(() -> {
+          try (Connection conn = db.beginTransaction()) {
+            conn.createQuery(config.queries.rebuildSnapshots)
+                .addParameter("fromId", fromID)
+                .addParameter("toId", to)
+                .executeUpdate();
+            conn.commit();
+          }
+        }));
+      }
+      for (Future<?> range : ranges) {
+        range.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while rebuilding balance snapshots", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Rebuilding balance snapshots failed", e.getCause());
+    } finally {
+      rebuild.shutdownNow();
+    }
+    unsnapshotted.clear();
+  }
+
+  private static AccountNotFound invalidAccounts(CreateTransferRequest obj) {
+    String message = String
+        .format("Invalid accounts: %s, %s", obj.getFromAccount(), obj.getToAccount());
+    return new AccountNotFound(message);
+  }
+}
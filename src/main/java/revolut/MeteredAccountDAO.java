@@ -0,0 +1,72 @@
+package revolut;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.util.function.Supplier;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.Money;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
+
+/**
+ * Times every call to another {@link AccountDAO}, tagged by method and by outcome: either
+ * {@code success} or the simple name of the exception the call failed with.
+ */
+public class MeteredAccountDAO implements AccountDAO {
+
+  private final AccountDAO delegate;
+
+  public MeteredAccountDAO(AccountDAO delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public Mono<Account> createAccount(CreateAccountRequest obj) throws DataException {
+    return timed("createAccount", () -> delegate.createAccount(obj));
+  }
+
+  @Override
+  public Mono<Account> findAccount(Long accountID) {
+    return timed("findAccount", () -> delegate.findAccount(accountID));
+  }
+
+  @Override
+  public Mono<Money> createDeposit(CreateDepositRequest obj) throws DataException {
+    return timed("createDeposit", () -> delegate.createDeposit(obj));
+  }
+
+  @Override
+  public Mono<Money> createTransfer(CreateTransferRequest obj) throws DataException {
+    return timed("createTransfer", () -> delegate.createTransfer(obj));
+  }
+
+  /** Timed until the last row was streamed. */
+  @Override
+  public Flux<Transaction> listTransactions(Long accountID, TransactionCursor before,
+      int limit) {
+    return Flux.defer(() -> {
+      Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+      return delegate.listTransactions(accountID, before, limit)
+          .doOnComplete(() -> sample.stop(timer("listTransactions", "success")))
+          .doOnError(e -> sample.stop(timer("listTransactions", e.getClass().getSimpleName())));
+    });
+  }
+
+  private static <T> Mono<T> timed(String method, Supplier<Mono<T>> call) {
+    return Mono.defer(() -> {
+      Timer.Sample sample = Timer.start(Metrics.globalRegistry);
+      return call.get()
+          .doOnSuccess(ign -> sample.stop(timer(method, "success")))
+          .doOnError(e -> sample.stop(timer(method, e.getClass().getSimpleName())));
+    });
+  }
+
+  private static Timer timer(String method, String outcome) {
+    return Metrics.timer("dao.calls", "method", method, "outcome", outcome);
+  }
+}
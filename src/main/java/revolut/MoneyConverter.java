@@ -0,0 +1,29 @@
+package revolut;
+
+import java.math.BigDecimal;
+import org.sql2o.converters.Converter;
+import org.sql2o.converters.ConverterException;
+import revolut.models.Money;
+
+/** Maps {@code DECIMAL} columns to {@link Money} and binds it back as a decimal. */
+class MoneyConverter implements Converter<Money> {
+
+  @Override
+  public Money convert(Object val) throws ConverterException {
+    if (val == null) {
+      return null;
+    }
+    if (val instanceof BigDecimal) {
+      return Money.of((BigDecimal) val);
+    }
+    if (val instanceof Number) {
+      return Money.of(new BigDecimal(val.toString()));
+    }
+    throw new ConverterException("Cannot convert " + val.getClass() + " to Money");
+  }
+
+  @Override
+  public Object toDatabaseParam(Money val) {
+    return val == null ? null : val.toBigDecimal();
+  }
+}
@@ -0,0 +1,64 @@
+package revolut;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Splits a streamed request body into lines as chunks arrive. Only the trailing incomplete
+ * line is held between chunks, so the whole body is never buffered. Lines are left as UTF-8
+ * bytes for {@link JsonCodec} to decode. Every line counts, blank ones included, except an
+ * empty one after the final newline; a trailing {@code \r} is dropped.
+ */
+final class NdjsonLines {
+
+  private NdjsonLines() {
+  }
+
+  static Flux<byte[]> split(Flux<ByteBuf> body, int maxLineBytes) {
+    return Flux.defer(() -> {
+      ByteArrayOutputStream partial = new ByteArrayOutputStream();
+      // the chunk is released once onNext returns, so it must be consumed synchronously
+      return body.map(chunk -> lines(chunk, partial, maxLineBytes))
+          .concatMapIterable(lines -> lines)
+          .concatWith(Mono.fromSupplier(() -> line(partial))
+              .filter(line -> line.length > 0));
+    });
+  }
+
+  private static List<byte[]> lines(ByteBuf chunk, ByteArrayOutputStream partial,
+      int maxLineBytes) {
+    List<byte[]> lines = new ArrayList<>();
+    int from = chunk.readerIndex();
+    int end = chunk.writerIndex();
+    while (from < end) {
+      int lf = chunk.forEachByte(from, end - from, ByteProcessor.FIND_LF);
+      int to = lf < 0 ? end : lf;
+      if (partial.size() + to - from > maxLineBytes) {
+        throw new BadInputException("Line longer than " + maxLineBytes + " bytes", null);
+      }
+      byte[] bytes = new byte[to - from];
+      chunk.getBytes(from, bytes);
+      partial.writeBytes(bytes);
+      if (lf < 0) {
+        break;
+      }
+      lines.add(line(partial));
+      from = lf + 1;
+    }
+    return lines;
+  }
+
+  private static byte[] line(ByteArrayOutputStream partial) {
+    byte[] line = partial.toByteArray();
+    partial.reset();
+    return line.length > 0 && line[line.length - 1] == '\r'
+        ? Arrays.copyOf(line, line.length - 1)
+        : line;
+  }
+}
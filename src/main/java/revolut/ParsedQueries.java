@@ -0,0 +1,73 @@
+package revolut;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.sql2o.quirks.parameterparsing.SqlParameterParsingStrategy;
+import org.sql2o.quirks.parameterparsing.impl.DefaultSqlParameterParsingStrategy;
+import revolut.models.DaoConfigQueries;
+
+/**
+ * Named-parameter parsing for sql2o that is done once per configured query. sql2o rewrites
+ * the SQL of every {@code Query} it creates into positional form; the queries from data.toml
+ * are rewritten here at startup, and creating a query from one of them only copies the
+ * parameter positions. Any other SQL is parsed as usual.
+ */
+class ParsedQueries implements SqlParameterParsingStrategy {
+
+  private final SqlParameterParsingStrategy parser = new DefaultSqlParameterParsingStrategy();
+
+  private final Map<String, Parsed> parsed = new HashMap<>();
+
+  ParsedQueries(DaoConfigQueries queries) {
+    for (Field field : DaoConfigQueries.class.getFields()) {
+      if (field.getType() != String.class) {
+        continue;
+      }
+      try {
+        String sql = (String) field.get(queries);
+        if (sql != null) {
+          parsed.put(sql, parse(sql));
+        }
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+  }
+
+  private Parsed parse(String sql) {
+    Map<String, List<Integer>> positions = new HashMap<>();
+    String positional = parser.parseSql(sql, positions);
+    Map<String, List<Integer>> frozen = new HashMap<>();
+    positions.forEach((name, indexes) -> frozen.put(name, List.copyOf(indexes)));
+    return new Parsed(positional, frozen);
+  }
+
+  /** Returns the positional form of {@code statement}, parsing it if it is not configured. */
+  Parsed parsed(String statement) {
+    Parsed query = parsed.get(statement);
+    return query != null ? query : parse(statement);
+  }
+
+  @Override
+  public String parseSql(String statement, Map<String, List<Integer>> mapToFill) {
+    Parsed query = parsed.get(statement);
+    if (query == null) {
+      return parser.parseSql(statement, mapToFill);
+    }
+    mapToFill.putAll(query.positions);
+    return query.sql;
+  }
+
+  static class Parsed {
+
+    final String sql;
+    final Map<String, List<Integer>> positions;
+
+    Parsed(String sql, Map<String, List<Integer>> positions) {
+      this.sql = sql;
+      this.positions = positions;
+    }
+  }
+}
@@ -0,0 +1,253 @@
+package revolut;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.sql.SQLTransientConnectionException;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import revolut.models.Account;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.PartitionConfig;
+import revolut.models.PartitionCredit;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
+
+/**
+ * This node's share of the accounts, and the way to the others. Node {@code i} of
+ * {@code nodes} owns the account ids {@code i * rangeSize + 1} to {@code (i + 1) * rangeSize}
+ * and creates its accounts there.
+ *
+ * <p>A transfer from an account of this node to one of another node is committed in two
+ * phases. The amount is first reserved here, which takes it from the sender, and the other
+ * node prepares the credit, which checks the receiver. If either fails, the reservation is
+ * given back. Otherwise the reservation is committed here, which decides the transfer, and
+ * then on the other node. A commit the other node did not confirm is retried every
+ * {@code recoveryIntervalMs} until it does; the other node applies every credit once.
+ * Reservations still undecided when the node stopped are given back on startup.
+ *
+ * <p>The {@code /partition} routes move money without an account to debit on this node, so
+ * only requests carrying the shared {@code secret} are {@link #authorized}.
+ */
+class Partition implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(Partition.class);
+
+  private final PartitionConfig config;
+
+  private final PartitionStore store;
+
+  private final PartitionClient client;
+
+  private final Scheduler scheduler;
+
+  private final ScheduledExecutorService recovery;
+
+  private final Counter retried = Counter.builder("partition.commits.retried")
+      .description("Commits of transfers to other nodes that had to be retried")
+      .register(Metrics.globalRegistry);
+
+  private volatile Consumer<Long> onChange = id -> {
+  };
+
+  Partition(Sql2o db, DataConfig config, Scheduler scheduler) {
+    this.config = config.partitioning;
+    if (this.config.nodes == null || this.config.self < 0
+        || this.config.self >= this.config.nodes.size()) {
+      throw new IllegalArgumentException("[partitioning] self must be an index of nodes");
+    }
+    if (this.config.rangeSize < 1) {
+      throw new IllegalArgumentException("[partitioning] rangeSize must be positive");
+    }
+    if (this.config.secret == null || this.config.secret.isEmpty()) {
+      throw new IllegalArgumentException("[partitioning] secret must be set");
+    }
+    this.store = new PartitionStore(db, config);
+    this.client = new PartitionClient(this.config);
+    this.scheduler = scheduler;
+
+    long first = this.config.self * this.config.rangeSize + 1;
+    store.reserveAccountIds(first, first + this.config.rangeSize - 1);
+    for (PartitionCredit credit : store.reservations(PartitionStore.RESERVED)) {
+      logger.info("Giving back transfer {} left undecided", credit.getId());
+      store.abortReservation(credit);
+    }
+
+    recovery = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("partition-recovery")
+        .setDaemon(true)
+        .build());
+    recovery.scheduleWithFixedDelay(this::recover, this.config.recoveryIntervalMs,
+        this.config.recoveryIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /** Port this node listens on, taken from its own entry in {@code nodes}. */
+  int port() {
+    URI self = URI.create(config.nodes.get(config.self));
+    return self.getPort() == -1 ? 80 : self.getPort();
+  }
+
+  /** Called with every local account whose balance changed without going through the DAO. */
+  void onChange(Consumer<Long> listener) {
+    this.onChange = listener;
+  }
+
+  /** Whether {@code secret}, sent with a {@code /partition} request, is the shared one. */
+  boolean authorized(String secret) {
+    return secret != null && MessageDigest.isEqual(
+        secret.getBytes(StandardCharsets.UTF_8),
+        config.secret.getBytes(StandardCharsets.UTF_8));
+  }
+
+  boolean isLocal(Long accountID) {
+    return owner(accountID) == config.self;
+  }
+
+  private int owner(Long accountID) {
+    long owner = (accountID - 1) / config.rangeSize;
+    return owner < 0 || owner >= config.nodes.size() ? -1 : (int) owner;
+  }
+
+  Mono<Account> findAccount(Long accountID) {
+    int node = owner(accountID);
+    return node == -1 ? Mono.empty() : client.findAccount(node, accountID);
+  }
+
+  Mono<Money> createDeposit(CreateDepositRequest obj) {
+    return remote(obj.getAccountID()).flatMap(node -> client.createDeposit(node, obj));
+  }
+
+  /** Hands a transfer from another node's account to that node. */
+  Mono<Money> forward(CreateTransferRequest obj) {
+    return remote(obj.getFromAccount()).flatMap(node -> client.createTransfer(node, obj));
+  }
+
+  Flux<Transaction> listTransactions(Long accountID, TransactionCursor before, int limit) {
+    return remote(accountID)
+        .flatMapMany(node -> client.listTransactions(node, accountID, before, limit));
+  }
+
+  /**
+   * Transfers from an account of this node to one of another node and returns the new
+   * balance of the sender once the transfer is decided, whether or not the other node has
+   * confirmed it yet.
+   */
+  Mono<Money> transfer(CreateTransferRequest obj) {
+    var credit = new PartitionCredit(UUID.randomUUID().toString(), obj.getFromAccount(),
+        obj.getToAccount(), obj.getAmount());
+    return remote(credit.getToAccount()).flatMap(node -> blocking(() -> store.reserve(credit))
+        .doOnNext(balance -> onChange.accept(credit.getFromAccount()))
+        .flatMap(balance -> client.prepare(node, credit)
+            .onErrorResume(err -> blocking(() -> {
+              store.abortReservation(credit);
+              onChange.accept(credit.getFromAccount());
+              return credit;
+            })
+                .then(client.abort(node, credit).onErrorResume(ignored -> Mono.empty()))
+                .then(Mono.<PartitionCredit>error(err)))
+            .then(blocking(() -> {
+              store.commitReservation(credit);
+              return balance;
+            }))
+            .flatMap(decided -> complete(node, credit)
+                .onErrorResume(err -> {
+                  logger.warn("Transfer {} to node {} is committed, will retry confirming it",
+                      credit.getId(), node, err);
+                  return Mono.empty();
+                })
+                .thenReturn(decided))));
+  }
+
+  /** The other side of {@link #transfer}: checks the receiving account is here. */
+  Mono<PartitionCredit> prepare(PartitionCredit credit) {
+    return local(credit.getToAccount()).then(blocking(() -> {
+      store.prepareCredit(credit);
+      return credit;
+    }));
+  }
+
+  Mono<PartitionCredit> commit(PartitionCredit credit) {
+    return local(credit.getToAccount()).then(blocking(() -> {
+      if (store.commitCredit(credit)) {
+        onChange.accept(credit.getToAccount());
+      }
+      return credit;
+    }));
+  }
+
+  Mono<PartitionCredit> abort(PartitionCredit credit) {
+    return blocking(() -> {
+      store.abortCredit(credit.getId());
+      return credit;
+    });
+  }
+
+  private Mono<PartitionCredit> complete(int node, PartitionCredit credit) {
+    return client.commit(node, credit)
+        .then(blocking(() -> {
+          store.finishReservation(credit.getId());
+          return credit;
+        }));
+  }
+
+  /** Retries confirming the transfers that were committed here but not on the other node. */
+  private void recover() {
+    try {
+      for (PartitionCredit credit : store.reservations(PartitionStore.COMMITTED)) {
+        int node = owner(credit.getToAccount());
+        retried.increment();
+        complete(node, credit).block();
+      }
+    } catch (RuntimeException e) {
+      logger.debug("Confirming committed transfers failed, retrying later", e);
+    }
+  }
+
+  private Mono<Integer> remote(Long accountID) {
+    int node = owner(accountID);
+    if (node == -1 || node == config.self) {
+      return Mono.error(new AccountNotFound("Account not found: " + accountID));
+    }
+    return Mono.just(node);
+  }
+
+  private Mono<Void> local(Long accountID) {
+    return isLocal(accountID)
+        ? Mono.empty()
+        : Mono.error(new AccountNotFound("Account not found: " + accountID));
+  }
+
+  /** Runs a blocking store call on the DAO scheduler, like {@link AccountDAOImpl} does. */
+  private <T> Mono<T> blocking(Callable<T> call) {
+    return Mono.fromCallable(call)
+        .subscribeOn(scheduler)
+        .onErrorMap(RejectedExecutionException.class,
+            e -> new ServiceUnavailable("Too many pending requests"))
+        .onErrorMap(e -> e instanceof Sql2oException
+                && e.getCause() instanceof SQLTransientConnectionException,
+            e -> new ServiceUnavailable("No database connection available"));
+  }
+
+  @Override
+  public void close() {
+    recovery.shutdownNow();
+  }
+}
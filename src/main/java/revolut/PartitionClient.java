@@ -0,0 +1,168 @@
+package revolut;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+import revolut.models.Account;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateDepositResponse;
+import revolut.models.CreateTransferRequest;
+import revolut.models.CreateTransferResponse;
+import revolut.models.Money;
+import revolut.models.PartitionConfig;
+import revolut.models.PartitionCredit;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
+
+/**
+ * Calls the public and {@code /partition} routes of the other nodes, sending the shared
+ * secret in {@value #SECRET_HEADER} with every POST. A call that gets no
+ * answer within {@code timeoutMs}, or a {@code 5xx}, fails with {@link ServiceUnavailable};
+ * {@code 404} fails with {@link AccountNotFound} and any other rejection is passed on as
+ * {@link PartitionRejected} with the other node's status and message.
+ */
+class PartitionClient {
+
+  static final String SECRET_HEADER = "Partition-Secret";
+
+  private final Gson gson = new Gson();
+
+  private final List<HttpClient> nodes;
+
+  private final Duration timeout;
+
+  private final String secret;
+
+  PartitionClient(PartitionConfig config) {
+    var connections = ConnectionProvider.elastic("partition");
+    this.nodes = config.nodes.stream()
+        .map(url -> HttpClient.create(connections).baseUrl(url))
+        .collect(Collectors.toList());
+    this.timeout = Duration.ofMillis(config.timeoutMs);
+    this.secret = config.secret;
+  }
+
+  Mono<Account> findAccount(int node, Long accountID) {
+    return get(node, "/accounts/" + accountID, Account.class)
+        .onErrorResume(AccountNotFound.class, err -> Mono.empty());
+  }
+
+  Mono<Money> createDeposit(int node, CreateDepositRequest obj) {
+    return post(node, String.format("/accounts/%d/deposits", obj.getAccountID()), obj,
+        CreateDepositResponse.class)
+        .map(CreateDepositResponse::getBalance);
+  }
+
+  Mono<Money> createTransfer(int node, CreateTransferRequest obj) {
+    return post(node, String.format("/accounts/%d/transfers", obj.getFromAccount()), obj,
+        CreateTransferResponse.class)
+        .map(CreateTransferResponse::getBalance);
+  }
+
+  Flux<Transaction> listTransactions(int node, Long accountID, TransactionCursor before,
+      int limit) {
+    String uri = String.format("/accounts/%d/transactions?limit=%d", accountID, limit)
+        + (before == null ? "" : "&cursor=" + App.cursor(before));
+    return get(node, uri, TransactionList.class)
+        .flatMapIterable(page -> page.transactions);
+  }
+
+  Mono<PartitionCredit> prepare(int node, PartitionCredit credit) {
+    return post(node, "/partition/credits", credit, PartitionCredit.class);
+  }
+
+  Mono<PartitionCredit> commit(int node, PartitionCredit credit) {
+    return post(node, String.format("/partition/credits/%s/commit", credit.getId()), credit,
+        PartitionCredit.class);
+  }
+
+  Mono<PartitionCredit> abort(int node, PartitionCredit credit) {
+    return post(node, String.format("/partition/credits/%s/abort", credit.getId()), credit,
+        PartitionCredit.class);
+  }
+
+  private <T> Mono<T> get(int node, String uri, Class<T> type) {
+    return Mono.defer(() -> nodes.get(node).get()
+        .uri(uri)
+        .responseSingle((resp, body) -> body.asString()
+            .defaultIfEmpty("")
+            .map(json -> decode(node, resp.status(), json, type))))
+        .timeout(timeout)
+        .onErrorMap(err -> !(err instanceof DataException),
+            err -> new ServiceUnavailable("Node " + node + " is unavailable"));
+  }
+
+  /** Passes the idempotency key of the request, if any, on to the other node. */
+  private <T> Mono<T> post(int node, String uri, Object obj, Class<T> type) {
+    return Mono.subscriberContext().flatMap(ctx -> nodes.get(node)
+        .headers(headers -> {
+          headers.set(SECRET_HEADER, secret);
+          ctx.<String>getOrEmpty(WriteAheadLog.IDEMPOTENCY_KEY)
+              .ifPresent(key -> headers.set(App.IDEMPOTENCY_KEY, key));
+        })
+        .post()
+        .uri(uri)
+        .send(ByteBufFlux.fromString(Mono.just(gson.toJson(obj))))
+        .responseSingle((resp, body) -> body.asString()
+            .defaultIfEmpty("")
+            .map(json -> decode(node, resp.status(), json, type))))
+        .timeout(timeout)
+        .onErrorMap(err -> !(err instanceof DataException),
+            err -> new ServiceUnavailable("Node " + node + " is unavailable"));
+  }
+
+  private <T> T decode(int node, HttpResponseStatus status, String json, Class<T> type) {
+    int code = status.code();
+    if (code >= 200 && code < 300) {
+      return gson.fromJson(json, type);
+    }
+    if (code >= 500) {
+      throw new ServiceUnavailable("Node " + node + " answered " + status);
+    }
+    String message = message(json, status);
+    if (code == HttpResponseStatus.NOT_FOUND.code()) {
+      throw new AccountNotFound(message);
+    }
+    throw new PartitionRejected(status, message);
+  }
+
+  private String message(String json, HttpResponseStatus status) {
+    try {
+      APIError error = gson.fromJson(json, APIError.class);
+      if (error != null && error.getMessage() != null) {
+        return error.getMessage();
+      }
+    } catch (JsonSyntaxException e) {
+      // not an error body of ours, fall back to the status
+    }
+    return status.reasonPhrase();
+  }
+
+  /** The part of a history page that is needed here; the cursor is rebuilt by the caller. */
+  private static class TransactionList {
+
+    List<Transaction> transactions = List.of();
+  }
+}
+
+/**
+ * A partition request that was turned down, by another node or by this one, answered with
+ * its status and message.
+ */
+class PartitionRejected extends DataException {
+
+  final HttpResponseStatus status;
+
+  public PartitionRejected(HttpResponseStatus status, String message) {
+    super(message);
+    this.status = status;
+  }
+}
@@ -0,0 +1,233 @@
+package revolut;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2o;
+import revolut.models.Account;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.PartitionCredit;
+
+/**
+ * Both sides of transfers between accounts on different nodes, in this node's database.
+ * Balances are changed with the same guarded deltas as {@link AccountDAOImpl}, so they stay
+ * correct without its account locks.
+ */
+class PartitionStore {
+
+  static final String RESERVED = "reserved";
+
+  static final String COMMITTED = "committed";
+
+  private final Sql2o db;
+
+  private final DataConfig config;
+
+  PartitionStore(Sql2o db, DataConfig config) {
+    this.db = db;
+    this.config = config;
+  }
+
+  /**
+   * Makes the ids of accounts created from now on start at {@code first}, unless the table
+   * already holds ids from there on. Fails if it holds ids past {@code last}.
+   */
+  void reserveAccountIds(long first, long last) {
+    try (Connection conn = db.open()) {
+      long max = conn.createQuery(config.queries.maxAccountId).executeScalar(Long.class);
+      if (max > last) {
+        throw new IllegalStateException(String.format(
+            "Account %d is outside this node's ids %d to %d", max, first, last));
+      }
+      if (max < first) {
+        conn.createQuery(String.format(config.queries.restartAccountIds, first))
+            .executeUpdate();
+      }
+    }
+  }
+
+  /**
+   * Takes the amount from the sending account and records the transfer as reserved. Returns
+   * the new balance of the sending account.
+   */
+  Money reserve(PartitionCredit credit) {
+    try (Connection conn = db.beginTransaction()) {
+      var statements = new StatementCache(conn);
+      int debited = statements.query(config.queries.debitBalance)
+          .addParameter("id", credit.getFromAccount())
+          .addParameter("amount", credit.getAmount())
+          .executeUpdate()
+          .getResult();
+      if (debited == 0) {
+        Account from = statements.query(config.queries.findAccount)
+            .addParameter("id", credit.getFromAccount())
+            .executeAndFetchFirst(RowMappers.ACCOUNT);
+        if (from == null) {
+          throw new AccountNotFound("Account not found: " + credit.getFromAccount());
+        }
+        throw new InsufficientFunds(String.format("Insufficient funds on account %s: %.2f",
+            from.getId(), from.getBalance().toBigDecimal()));
+      }
+      Money balance = statements.query(config.queries.lastBalance)
+          .executeAndFetchFirst(Money.class);
+      bind(statements.query(config.queries.createReservation), credit).executeUpdate();
+      conn.commit();
+      return balance;
+    }
+  }
+
+  /**
+   * Decides a reserved transfer and adds it to the sender's history. Fails if it was
+   * aborted meanwhile.
+   */
+  void commitReservation(PartitionCredit credit) {
+    try (Connection conn = db.beginTransaction()) {
+      var statements = new StatementCache(conn);
+      int committed = statements.query(config.queries.commitReservation)
+          .addParameter("id", credit.getId())
+          .executeUpdate()
+          .getResult();
+      if (committed == 0) {
+        throw new IllegalStateException("Transfer " + credit.getId() + " is not reserved");
+      }
+      statements.query(config.queries.createTransaction)
+          .addParameter("from_acc", credit.getFromAccount())
+          .addParameter("to_acc", credit.getToAccount())
+          .addParameter("amount", credit.getAmount())
+          .executeUpdate();
+      conn.commit();
+    }
+  }
+
+  /** Gives a transfer that is still only reserved back to the sending account. */
+  void abortReservation(PartitionCredit credit) {
+    try (Connection conn = db.beginTransaction()) {
+      var statements = new StatementCache(conn);
+      int aborted = statements.query(config.queries.abortReservation)
+          .addParameter("id", credit.getId())
+          .executeUpdate()
+          .getResult();
+      if (aborted > 0) {
+        statements.query(config.queries.creditBalance)
+            .addParameter("id", credit.getFromAccount())
+            .addParameter("amount", credit.getAmount())
+            .executeUpdate();
+      }
+      conn.commit();
+    }
+  }
+
+  /** Forgets a committed transfer once the receiving node has applied it. */
+  void finishReservation(String id) {
+    try (Connection conn = db.open()) {
+      conn.createQuery(config.queries.finishReservation)
+          .addParameter("id", id)
+          .executeUpdate();
+    }
+  }
+
+  List<PartitionCredit> reservations(String state) {
+    try (Connection conn = db.open()) {
+      return conn.createQuery(config.queries.listReservations)
+          .addParameter("state", state)
+          .executeAndFetch(PartitionStore::credit);
+    }
+  }
+
+  /**
+   * Checks that the receiving account exists and remembers the credit. Preparing the same
+   * credit again changes nothing; preparing a different one under its id fails.
+   */
+  void prepareCredit(PartitionCredit credit) {
+    try (Connection conn = db.beginTransaction()) {
+      var statements = new StatementCache(conn);
+      Account to = statements.query(config.queries.findAccount)
+          .addParameter("id", credit.getToAccount())
+          .executeAndFetchFirst(RowMappers.ACCOUNT);
+      if (to == null) {
+        throw new AccountNotFound("Account not found: " + credit.getToAccount());
+      }
+      PartitionCredit stored = find(statements, credit.getId());
+      if (stored == null) {
+        bind(statements.query(config.queries.prepareCredit), credit).executeUpdate();
+      } else if (!stored.equals(credit)) {
+        throw mismatch(credit);
+      }
+      conn.commit();
+    }
+  }
+
+  /**
+   * Applies a credit prepared here before, unless it was applied already. Returns whether it
+   * changed the balance. Only the prepared row is applied: a credit that was never prepared,
+   * or that differs from the prepared one, fails with {@link PartitionRejected}.
+   */
+  boolean commitCredit(PartitionCredit credit) {
+    try (Connection conn = db.beginTransaction()) {
+      var statements = new StatementCache(conn);
+      PartitionCredit stored = find(statements, credit.getId());
+      if (stored == null) {
+        throw new PartitionRejected(HttpResponseStatus.CONFLICT,
+            "Credit " + credit.getId() + " was not prepared");
+      }
+      if (!stored.equals(credit)) {
+        throw mismatch(credit);
+      }
+      int committed = statements.query(config.queries.commitCredit)
+          .addParameter("id", stored.getId())
+          .executeUpdate()
+          .getResult();
+      if (committed > 0) {
+        statements.query(config.queries.creditBalance)
+            .addParameter("id", stored.getToAccount())
+            .addParameter("amount", stored.getAmount())
+            .executeUpdate();
+        statements.query(config.queries.createTransaction)
+            .addParameter("from_acc", stored.getFromAccount())
+            .addParameter("to_acc", stored.getToAccount())
+            .addParameter("amount", stored.getAmount())
+            .executeUpdate();
+      }
+      conn.commit();
+      return committed > 0;
+    }
+  }
+
+  void abortCredit(String id) {
+    try (Connection conn = db.open()) {
+      conn.createQuery(config.queries.abortCredit)
+          .addParameter("id", id)
+          .executeUpdate();
+    }
+  }
+
+  private PartitionCredit find(StatementCache statements, String id) {
+    return statements.query(config.queries.findCredit)
+        .addParameter("id", id)
+        .executeAndFetchFirst(PartitionStore::credit);
+  }
+
+  private static PartitionRejected mismatch(PartitionCredit credit) {
+    return new PartitionRejected(HttpResponseStatus.CONFLICT,
+        "Credit " + credit.getId() + " does not match the prepared one");
+  }
+
+  private static PartitionCredit credit(ResultSet rs) throws SQLException {
+    return new PartitionCredit(
+        rs.getString("id"),
+        rs.getLong("from_acc"),
+        rs.getLong("to_acc"),
+        Money.of(rs.getBigDecimal("amount")));
+  }
+
+  private static Query bind(Query query, PartitionCredit credit) {
+    return query.addParameter("id", credit.getId())
+        .addParameter("from_acc", credit.getFromAccount())
+        .addParameter("to_acc", credit.getToAccount())
+        .addParameter("amount", credit.getAmount());
+  }
+}
@@ -0,0 +1,66 @@
+package revolut;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.Money;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
+
+/**
+ * Serves the accounts of this node from {@code delegate} and sends everything about the
+ * accounts of other nodes to their owner. A transfer is applied by the owner of its sending
+ * account; one that crosses nodes goes through {@link Partition#transfer}. New accounts are
+ * always created here.
+ */
+class PartitionedAccountDAO implements AccountDAO {
+
+  private final AccountDAO delegate;
+
+  private final Partition partition;
+
+  PartitionedAccountDAO(AccountDAO delegate, Partition partition) {
+    this.delegate = delegate;
+    this.partition = partition;
+  }
+
+  @Override
+  public Mono<Account> createAccount(CreateAccountRequest obj) throws DataException {
+    return delegate.createAccount(obj);
+  }
+
+  @Override
+  public Mono<Account> findAccount(Long accountID) {
+    return partition.isLocal(accountID)
+        ? delegate.findAccount(accountID)
+        : partition.findAccount(accountID);
+  }
+
+  @Override
+  public Mono<Money> createDeposit(CreateDepositRequest obj) throws DataException {
+    return partition.isLocal(obj.getAccountID())
+        ? delegate.createDeposit(obj)
+        : partition.createDeposit(obj);
+  }
+
+  @Override
+  public Mono<Money> createTransfer(CreateTransferRequest obj) throws DataException {
+    if (!partition.isLocal(obj.getFromAccount())) {
+      return partition.forward(obj);
+    }
+    return partition.isLocal(obj.getToAccount())
+        ? delegate.createTransfer(obj)
+        : partition.transfer(obj);
+  }
+
+  @Override
+  public Flux<Transaction> listTransactions(Long accountID, TransactionCursor before,
+      int limit) {
+    return partition.isLocal(accountID)
+        ? delegate.listTransactions(accountID, before, limit)
+        : partition.listTransactions(accountID, before, limit);
+  }
+}
@@ -0,0 +1,227 @@
+package revolut;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.R2dbcTransientResourceException;
+import io.r2dbc.spi.Row;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
+
+/**
+ * {@link AccountDAO} on the R2DBC H2 driver. Connections come from a reactive pool and
+ * transactions are composed from the driver's publishers, so no call holds a thread while
+ * it waits for a connection or for the lock on an account. H2 runs embedded and executes a
+ * statement on the thread that subscribes to it, usually the event loop that received the
+ * request; there is no network round trip to wait for.
+ *
+ * <p>Balances are updated with the same guarded statements as {@link AccountDAOImpl}. The
+ * accounts of a deposit or transfer are locked with {@link ReactiveLocks}, so statements
+ * never wait for a row lock inside H2, which would block the thread. Transfers are not
+ * batched, and {@code [hotAccounts]} is not supported.
+ */
+public class R2dbcAccountDAO implements AccountDAO, AutoCloseable {
+
+  private final ConnectionPool pool;
+
+  private final DataConfig config;
+
+  private final ParsedQueries queries;
+
+  private final ReactiveLocks locks;
+
+  public R2dbcAccountDAO(ConnectionPool pool, DataConfig config) {
+    this.pool = pool;
+    this.config = config;
+    this.queries = new ParsedQueries(config.queries);
+    this.locks = new ReactiveLocks(config.locks.stripes, Schedulers.parallel());
+  }
+
+  @Override
+  public Mono<Account> createAccount(CreateAccountRequest obj) throws DataException {
+    return inTransaction(conn -> query(conn, config.queries.createAccount)
+        .addParameter("name", obj.getName())
+        .returnGeneratedValues("id")
+        .executeAndFetchFirst(row -> row.get(0, Long.class))
+        .flatMap(id -> fetchAccount(conn, id)));
+  }
+
+  @Override
+  public Mono<Account> findAccount(Long accountID) {
+    return inTransaction(conn -> fetchAccount(conn, accountID));
+  }
+
+  @Override
+  public Mono<Money> createDeposit(CreateDepositRequest obj) throws DataException {
+    return locks.withLocks(() -> inTransaction(conn -> deposit(conn, obj)),
+        obj.getAccountID());
+  }
+
+  private Mono<Money> deposit(Connection conn, CreateDepositRequest obj) {
+    Long to = obj.getAccountID();
+    Money amount = obj.getAmount();
+    return update(conn, config.queries.creditBalance, to, amount)
+        .flatMap(updated -> updated == 0
+            ? Mono.error(new AccountNotFound("Account not found: " + to))
+            : lastBalance(conn))
+        .flatMap(newBalance -> createAccTransaction(conn, null, to, amount)
+            .thenReturn(newBalance));
+  }
+
+  @Override
+  public Mono<Money> createTransfer(CreateTransferRequest obj) throws DataException {
+    if (obj.getFromAccount().equals(obj.getToAccount())) {
+      return Mono.error(new CannotTransferSameAccount(
+          "Cannot receive transfer on same account " + obj.getFromAccount()));
+    }
+    return locks.withLocks(() -> inTransaction(conn -> transfer(conn, obj)),
+        obj.getFromAccount(), obj.getToAccount());
+  }
+
+  /**
+   * Moves the money between the two accounts and returns the new balance of the source
+   * account. A missing account or insufficient funds fail the transaction, which is then
+   * rolled back.
+   */
+  private Mono<Money> transfer(Connection conn, CreateTransferRequest obj) {
+    Long from = obj.getFromAccount();
+    Long to = obj.getToAccount();
+    Money amount = obj.getAmount();
+    return update(conn, config.queries.debitBalance, from, amount)
+        .flatMap(updated -> updated == 0 ? shortOrMissing(conn, obj) : lastBalance(conn))
+        .flatMap(newFromBalance -> update(conn, config.queries.creditBalance, to, amount)
+            .flatMap(updated -> updated == 0
+                ? Mono.error(invalidAccounts(obj))
+                : createAccTransaction(conn, from, to, amount).thenReturn(newFromBalance)));
+  }
+
+  /** Tells a missing source account from one short of funds, after the debit failed. */
+  private Mono<Money> shortOrMissing(Connection conn, CreateTransferRequest obj) {
+    return fetchAccount(conn, obj.getFromAccount())
+        .flatMap(from -> Mono.<Money>error(new InsufficientFunds(String.format(
+            "Insufficient funds on account %s: %.2f",
+            from.getId(), from.getBalance().toBigDecimal()))))
+        .switchIfEmpty(Mono.error(invalidAccounts(obj)));
+  }
+
+  /** Collects the page before emitting it, like {@link AccountDAOImpl}. */
+  @Override
+  public Flux<Transaction> listTransactions(Long accountID, TransactionCursor before,
+      int limit) {
+    Instant createdAt = before == null
+        ? Instant.now().plus(1, ChronoUnit.DAYS)
+        : before.getCreatedAt();
+    LocalDateTime createdAtLocal = LocalDateTime.ofInstant(createdAt, ZoneId.systemDefault());
+    long id = before == null ? Long.MAX_VALUE : before.getId();
+    return Flux.usingWhen(connection(),
+        conn -> query(conn, config.queries.listTransactions)
+            .addParameter("account", accountID)
+            .addParameter("createdAt", createdAtLocal)
+            .addParameter("id", id)
+            .addParameter("limit", limit)
+            .executeAndFetch(R2dbcAccountDAO::toTransaction)
+            .collectList(),
+        Connection::close)
+        .flatMapIterable(page -> page);
+  }
+
+  /**
+   * Runs {@code work} in a transaction on a pooled connection, committing if it succeeds and
+   * rolling back if it fails or is cancelled. Fails fast with {@link ServiceUnavailable} if
+   * no connection frees up within the acquire timeout.
+   */
+  private <T> Mono<T> inTransaction(Function<Connection, Mono<T>> work) {
+    return Mono.usingWhen(connection(),
+        conn -> Mono.usingWhen(Mono.from(conn.beginTransaction()).thenReturn(conn), work,
+            Connection::commitTransaction,
+            (c, err) -> c.rollbackTransaction(),
+            Connection::rollbackTransaction),
+        Connection::close);
+  }
+
+  private Mono<Connection> connection() {
+    return pool.create()
+        .onErrorMap(e -> e instanceof TimeoutException
+                || e instanceof R2dbcTransientResourceException,
+            e -> new ServiceUnavailable("No database connection available"));
+  }
+
+  private R2dbcQuery query(Connection conn, String sql) {
+    return new R2dbcQuery(conn, queries, sql);
+  }
+
+  private Mono<Account> fetchAccount(Connection conn, Long accountID) {
+    return query(conn, config.queries.findAccount)
+        .addParameter("id", accountID)
+        .executeAndFetchFirst(R2dbcAccountDAO::toAccount);
+  }
+
+  private Mono<Integer> update(Connection conn, String sql, Long id, Money amount) {
+    return query(conn, sql)
+        .addParameter("id", id)
+        .addParameter("amount", amount)
+        .executeUpdate();
+  }
+
+  /** Reads the balance the last debit or credit left in the session variable. */
+  private Mono<Money> lastBalance(Connection conn) {
+    return query(conn, config.queries.lastBalance)
+        .executeAndFetchFirst(row -> Money.of(row.get(0, BigDecimal.class)));
+  }
+
+  private Mono<Integer> createAccTransaction(Connection conn, Long from, Long to,
+      Money amount) {
+    R2dbcQuery insert = query(conn, config.queries.createTransaction);
+    if (from == null) {
+      insert.addNullParameter("from_acc", Long.class);
+    } else {
+      insert.addParameter("from_acc", from);
+    }
+    return insert.addParameter("to_acc", to)
+        .addParameter("amount", amount)
+        .executeUpdate();
+  }
+
+  private static Account toAccount(Row row) {
+    return new Account(
+        row.get("id", Long.class),
+        row.get("name", String.class),
+        Money.of(row.get("balance", BigDecimal.class)));
+  }
+
+  private static Transaction toTransaction(Row row) {
+    return new Transaction(
+        row.get("id", Long.class),
+        row.get("from_acc", Long.class),
+        row.get("to_acc", Long.class),
+        Money.of(row.get("amount", BigDecimal.class)),
+        row.get("created_at", LocalDateTime.class)
+            .atZone(ZoneId.systemDefault()).toInstant().toString());
+  }
+
+  private static AccountNotFound invalidAccounts(CreateTransferRequest obj) {
+    String message = String
+        .format("Invalid accounts: %s, %s", obj.getFromAccount(), obj.getToAccount());
+    return new AccountNotFound(message);
+  }
+
+  @Override
+  public void close() {
+    pool.dispose();
+  }
+}
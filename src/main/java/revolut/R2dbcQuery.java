@@ -0,0 +1,78 @@
+package revolut;
+
+import io.r2dbc.spi.Connection;
+import io.r2dbc.spi.Result;
+import io.r2dbc.spi.Row;
+import io.r2dbc.spi.Statement;
+import java.util.List;
+import java.util.function.Function;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import revolut.models.Money;
+
+/**
+ * An R2DBC statement for one of the data.toml queries, bound by parameter name like a sql2o
+ * {@code Query}. The named parameters are resolved to positions by {@link ParsedQueries},
+ * and {@link Money} is bound as a decimal.
+ */
+class R2dbcQuery {
+
+  private final Statement statement;
+
+  private final ParsedQueries.Parsed parsed;
+
+  R2dbcQuery(Connection conn, ParsedQueries queries, String sql) {
+    this.parsed = queries.parsed(sql);
+    this.statement = conn.createStatement(withoutTerminator(parsed.sql));
+  }
+
+  /** H2 prepares "a; " as a list of commands, whose parameters the driver cannot bind. */
+  private static String withoutTerminator(String sql) {
+    String stripped = sql.strip();
+    return stripped.endsWith(";") ? stripped.substring(0, stripped.length() - 1) : stripped;
+  }
+
+  R2dbcQuery addParameter(String name, Object value) {
+    Object bound = value instanceof Money ? ((Money) value).toBigDecimal() : value;
+    for (int position : positions(name)) {
+      statement.bind(position - 1, bound);
+    }
+    return this;
+  }
+
+  R2dbcQuery addNullParameter(String name, Class<?> type) {
+    for (int position : positions(name)) {
+      statement.bindNull(position - 1, type);
+    }
+    return this;
+  }
+
+  private List<Integer> positions(String name) {
+    List<Integer> positions = parsed.positions.get(name);
+    if (positions == null) {
+      throw new IllegalArgumentException("Unknown parameter: " + name);
+    }
+    return positions;
+  }
+
+  R2dbcQuery returnGeneratedValues(String... columns) {
+    statement.returnGeneratedValues(columns);
+    return this;
+  }
+
+  /** Returns the number of rows updated. */
+  Mono<Integer> executeUpdate() {
+    return Flux.from(statement.execute())
+        .flatMap(Result::getRowsUpdated)
+        .reduce(0, Integer::sum);
+  }
+
+  <T> Flux<T> executeAndFetch(Function<Row, T> mapper) {
+    return Flux.from(statement.execute())
+        .flatMap(result -> result.map((row, metadata) -> mapper.apply(row)));
+  }
+
+  <T> Mono<T> executeAndFetchFirst(Function<Row, T> mapper) {
+    return executeAndFetch(mapper).next();
+  }
+}
@@ -0,0 +1,94 @@
+package revolut;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.function.Supplier;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+/**
+ * Serializes balance changes per account like {@link AccountLocks}, but an operation waiting
+ * for a lock holds no thread: it is queued on the lock stripe and resumed on
+ * {@code scheduler} once the stripe is released. Stripes are taken in stripe order, so two
+ * transfers in opposite directions cannot deadlock.
+ */
+class ReactiveLocks {
+
+  private final Stripe[] stripes;
+
+  private final Scheduler scheduler;
+
+  ReactiveLocks(int stripes, Scheduler scheduler) {
+    this.stripes = new Stripe[stripes];
+    for (int i = 0; i < stripes; i++) {
+      this.stripes[i] = new Stripe();
+    }
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Runs {@code action} while holding the stripes of the given accounts. Once subscribed it
+   * runs to completion even if the subscriber cancels, so the stripes are always released.
+   */
+  <T> Mono<T> withLocks(Supplier<Mono<T>> action, Long... accountIDs) {
+    return Mono.defer(() -> {
+      int[] held = Arrays.stream(accountIDs)
+          .mapToInt(id -> Math.floorMod(Long.hashCode(id), stripes.length))
+          .distinct()
+          .sorted()
+          .toArray();
+      Mono<T> locked = Mono.<Void>create(sink -> lock(held, 0, sink::success))
+          .then(Mono.defer(action))
+          .doFinally(signal -> unlock(held))
+          .cache();
+      locked.subscribe(ok -> { }, err -> { });
+      return locked;
+    });
+  }
+
+  private void lock(int[] held, int from, Runnable then) {
+    for (int i = from; i < held.length; i++) {
+      int next = i + 1;
+      if (!stripes[held[i]].lock(() -> lock(held, next, then))) {
+        return;
+      }
+    }
+    then.run();
+  }
+
+  private void unlock(int[] held) {
+    for (int i = held.length - 1; i >= 0; i--) {
+      Runnable waiter = stripes[held[i]].unlock();
+      if (waiter != null) {
+        scheduler.schedule(waiter);
+      }
+    }
+  }
+
+  private static class Stripe {
+
+    private final Queue<Runnable> waiters = new ArrayDeque<>();
+
+    private boolean locked;
+
+    /** Takes the stripe and returns true, or queues {@code waiter} to run once it is free. */
+    synchronized boolean lock(Runnable waiter) {
+      if (!locked) {
+        locked = true;
+        return true;
+      }
+      waiters.add(waiter);
+      return false;
+    }
+
+    /** Hands the stripe over to the next waiter and returns it, or frees the stripe. */
+    synchronized Runnable unlock() {
+      Runnable next = waiters.poll();
+      if (next == null) {
+        locked = false;
+      }
+      return next;
+    }
+  }
+}
@@ -0,0 +1,206 @@
+package revolut;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import revolut.models.Account;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.ReadModelConfig;
+
+/**
+ * In-memory projection of the accounts, kept apart from the database so that account lookups
+ * do not compete with writes for connections. It is loaded from the {@code accounts} table
+ * once, before any write, and then follows the writes that committed: new accounts, and
+ * balance deltas for deposits and transfers. Deltas commute, so writes may be published in
+ * any order. A single thread applies them in the background.
+ *
+ * <p>Every published change gets the next version. A lookup is only answered here while the
+ * oldest change not applied yet is at most {@code maxStalenessMs} old and, if the caller
+ * asks for one, once the version it saw after its own write has been applied. Otherwise,
+ * and for accounts not in the projection, the caller goes to the database.
+ */
+class ReadModel implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(ReadModel.class);
+
+  /** Subscriber context key under which callers pass the version they must see. */
+  static final String MIN_VERSION = "readModel.minVersion";
+
+  private final ReadModelConfig config;
+
+  private final ConcurrentHashMap<Long, Account> accounts = new ConcurrentHashMap<>();
+
+  private final BlockingQueue<Change> changes = new LinkedBlockingQueue<>();
+
+  private final ExecutorService projector;
+
+  private final Counter projected = Counter.builder("readmodel.reads")
+      .tag("source", "projection")
+      .register(Metrics.globalRegistry);
+
+  private final Counter fallbacks = Counter.builder("readmodel.reads")
+      .tag("source", "database")
+      .register(Metrics.globalRegistry);
+
+  /** Deltas for accounts not created in the projection yet; projector thread only. */
+  private final Map<Long, Money> early = new HashMap<>();
+
+  /** Accounts dropped by {@link #lost}; projector thread only. */
+  private final Set<Long> lost = new HashSet<>();
+
+  /** Version of the last change published; guarded by {@code this}. */
+  private long published;
+
+  private volatile long applied;
+
+  ReadModel(ReadModelConfig config) {
+    this.config = config;
+    projector = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("read-model")
+        .setDaemon(true)
+        .build());
+    Gauge.builder("readmodel.lag", this, ReadModel::lagMillis)
+        .description("Age in milliseconds of the oldest change not projected yet")
+        .register(Metrics.globalRegistry);
+  }
+
+  /** Loads every account; must run before the first write is published. */
+  void load(Sql2o db, DataConfig dataConfig) {
+    try (Connection conn = db.open()) {
+      conn.createQuery(dataConfig.queries.listAccounts)
+          .executeAndFetchLazy(RowMappers.ACCOUNT)
+          .forEach(acc -> accounts.put(acc.getId(), acc));
+    }
+    logger.info("Loaded {} accounts into the read model", accounts.size());
+    projector.execute(this::project);
+  }
+
+  synchronized long version() {
+    return published;
+  }
+
+  /**
+   * The account as projected, or null if the caller has to read it from the database.
+   */
+  Account find(Long accountID, long minVersion) {
+    Account acc = null;
+    if (applied >= minVersion && lagMillis() <= config.maxStalenessMs) {
+      acc = accounts.get(accountID);
+    }
+    (acc == null ? fallbacks : projected).increment();
+    return acc;
+  }
+
+  void created(Account account) {
+    publish(() -> {
+      Money overtaken = early.remove(account.getId());
+      accounts.put(account.getId(), overtaken == null
+          ? account
+          : new Account(account.getId(), account.getName(),
+              account.getBalance().plus(overtaken)));
+    });
+  }
+
+  void moved(Long from, Long to, Money amount) {
+    publish(() -> {
+      if (from != null) {
+        add(from, Money.ZERO.minus(amount));
+      }
+      add(to, amount);
+    });
+  }
+
+  /**
+   * Stops serving accounts a write may or may not have changed; their lookups go to the
+   * database from then on.
+   */
+  void lost(Long... accountIDs) {
+    publish(() -> {
+      for (Long id : accountIDs) {
+        accounts.remove(id);
+        early.remove(id);
+        lost.add(id);
+      }
+    });
+  }
+
+  /**
+   * A delta can overtake the creation of its account when someone writes to a new account
+   * before its creator was answered; it is kept until the account shows up.
+   */
+  private void add(Long accountID, Money delta) {
+    if (lost.contains(accountID)) {
+      return;
+    }
+    Account updated = accounts.computeIfPresent(accountID,
+        (id, acc) -> new Account(acc.getId(), acc.getName(), acc.getBalance().plus(delta)));
+    if (updated == null) {
+      early.merge(accountID, delta, Money::plus);
+    }
+  }
+
+  /** Versions are handed out under the lock so that the queue is in version order. */
+  private synchronized void publish(Runnable apply) {
+    changes.add(new Change(++published, System.nanoTime(), apply));
+  }
+
+  private void project() {
+    List<Change> batch = new ArrayList<>();
+    try {
+      while (!Thread.currentThread().isInterrupted()) {
+        batch.add(changes.take());
+        changes.drainTo(batch);
+        for (Change change : batch) {
+          change.apply.run();
+          applied = change.version;
+        }
+        batch.clear();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private long lagMillis() {
+    Change oldest = changes.peek();
+    return oldest == null
+        ? 0
+        : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest.publishedNanos);
+  }
+
+  @Override
+  public void close() {
+    projector.shutdownNow();
+  }
+
+  private static class Change {
+
+    final long version;
+    final long publishedNanos;
+    final Runnable apply;
+
+    Change(long version, long publishedNanos, Runnable apply) {
+      this.version = version;
+      this.publishedNanos = publishedNanos;
+      this.apply = apply;
+    }
+  }
+}
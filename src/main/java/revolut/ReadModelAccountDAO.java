@@ -0,0 +1,84 @@
+package revolut;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.Money;
+import revolut.models.Transaction;
+import revolut.models.TransactionCursor;
+
+/**
+ * Answers account lookups from a {@link ReadModel} when it is fresh enough, and publishes
+ * every write of {@code delegate} to it once the write has committed. A write that ends
+ * without a result or a {@link DataException}, and so may or may not have changed its
+ * accounts, takes them out of the read model.
+ */
+class ReadModelAccountDAO implements AccountDAO {
+
+  private final AccountDAO delegate;
+
+  private final ReadModel readModel;
+
+  ReadModelAccountDAO(AccountDAO delegate, ReadModel readModel) {
+    this.delegate = delegate;
+    this.readModel = readModel;
+  }
+
+  @Override
+  public Mono<Account> createAccount(CreateAccountRequest obj) throws DataException {
+    return delegate.createAccount(obj)
+        .doOnNext(readModel::created);
+  }
+
+  /** Reads the version passed under {@link ReadModel#MIN_VERSION}, if any. */
+  @Override
+  public Mono<Account> findAccount(Long accountID) {
+    return Mono.subscriberContext().flatMap(ctx -> {
+      Account acc = readModel.find(accountID, ctx.getOrDefault(ReadModel.MIN_VERSION, 0L));
+      return acc != null ? Mono.just(acc) : delegate.findAccount(accountID);
+    });
+  }
+
+  @Override
+  public Mono<Money> createDeposit(CreateDepositRequest obj) throws DataException {
+    return write(() -> delegate.createDeposit(obj),
+        () -> readModel.moved(null, obj.getAccountID(), obj.getAmount()),
+        obj.getAccountID());
+  }
+
+  @Override
+  public Mono<Money> createTransfer(CreateTransferRequest obj) throws DataException {
+    return write(() -> delegate.createTransfer(obj),
+        () -> readModel.moved(obj.getFromAccount(), obj.getToAccount(), obj.getAmount()),
+        obj.getFromAccount(), obj.getToAccount());
+  }
+
+  @Override
+  public Flux<Transaction> listTransactions(Long accountID, TransactionCursor before,
+      int limit) {
+    return delegate.listTransactions(accountID, before, limit);
+  }
+
+  private Mono<Money> write(Supplier<Mono<Money>> call, Runnable committed,
+      Long... accountIDs) {
+    return Mono.defer(() -> {
+      var known = new AtomicBoolean();
+      return call.get()
+          .doOnNext(balance -> {
+            known.set(true);
+            committed.run();
+          })
+          .doOnError(DataException.class, err -> known.set(true))
+          .doFinally(signal -> {
+            if (!known.get()) {
+              readModel.lost(accountIDs);
+            }
+          });
+    });
+  }
+}
@@ -0,0 +1,30 @@
+package revolut;
+
+import org.sql2o.ResultSetHandler;
+import revolut.models.Account;
+import revolut.models.Money;
+import revolut.models.Transaction;
+
+/**
+ * Maps rows to models by reading the columns the queries select, instead of letting sql2o
+ * match columns to properties by reflection. The queries must select these columns.
+ */
+final class RowMappers {
+
+  /** {@code id, name, balance} from {@code accounts}. */
+  static final ResultSetHandler<Account> ACCOUNT = rs -> new Account(
+      rs.getLong("id"),
+      rs.getString("name"),
+      Money.of(rs.getBigDecimal("balance")));
+
+  /** {@code id, from_acc, to_acc, amount, created_at} from {@code transactions}. */
+  static final ResultSetHandler<Transaction> TRANSACTION = rs -> new Transaction(
+      rs.getLong("id"),
+      rs.getObject("from_acc", Long.class),
+      rs.getObject("to_acc", Long.class),
+      Money.of(rs.getBigDecimal("amount")),
+      rs.getTimestamp("created_at").toInstant().toString());
+
+  private RowMappers() {
+  }
+}
@@ -0,0 +1,35 @@
+package revolut;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.sql2o.Connection;
+import org.sql2o.Query;
+
+/**
+ * Queries created on one connection checkout, reused by their SQL. sql2o keeps the statement
+ * of a {@link Query} open until the connection is closed, so running the same query again,
+ * as the batched paths do once per item, only binds new parameters instead of preparing it
+ * again. Every use must bind all of the query's parameters, and must not run it with
+ * {@code executeScalar}, which closes the statement.
+ */
+class StatementCache {
+
+  private final Connection conn;
+
+  private final Map<String, Query> queries = new HashMap<>();
+
+  private final Map<String, Query> keyedQueries = new HashMap<>();
+
+  StatementCache(Connection conn) {
+    this.conn = conn;
+  }
+
+  Query query(String sql) {
+    return queries.computeIfAbsent(sql, conn::createQuery);
+  }
+
+  /** Like {@link #query}, for an INSERT whose generated keys are read with getKeys. */
+  Query queryWithKeys(String sql) {
+    return keyedQueries.computeIfAbsent(sql, s -> conn.createQuery(s, true));
+  }
+}
@@ -0,0 +1,184 @@
+package revolut;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import revolut.models.BatchConfig;
+import revolut.models.CreateTransferRequest;
+import revolut.models.Money;
+
+/**
+ * Group commit for transfers. Submitted transfers are collected until {@code maxSize} of them
+ * are waiting or {@code lingerMicros} have passed since the first one arrived, and each batch
+ * is then handed to the apply function on a single batching thread. The apply function
+ * completes every {@link PendingTransfer} of the batch on its own, so one failed transfer
+ * does not fail the others. If it throws, the transfers it has not completed yet fail.
+ */
+class TransferBatcher implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(TransferBatcher.class);
+
+  private final BatchConfig config;
+
+  private final Consumer<List<PendingTransfer>> apply;
+
+  private final BlockingQueue<PendingTransfer> queue;
+
+  private final ExecutorService executor;
+
+  /** Registered per batcher and removed on close, so that the next batcher can take over. */
+  private final List<Gauge> gauges;
+
+  private final LongAdder batches = new LongAdder();
+
+  private final LongAdder transfers = new LongAdder();
+
+  private final AtomicLong largestBatch = new AtomicLong();
+
+  private final DistributionSummary batchSize = DistributionSummary.builder("transfers.batch.size")
+      .publishPercentileHistogram()
+      .register(Metrics.globalRegistry);
+
+  private final Timer batchWait = Timer.builder("transfers.batch.wait")
+      .description("Time a transfer waits in the queue before its batch is applied")
+      .publishPercentileHistogram()
+      .register(Metrics.globalRegistry);
+
+  TransferBatcher(BatchConfig config, Consumer<List<PendingTransfer>> apply) {
+    this.config = config;
+    this.apply = apply;
+    this.queue = new ArrayBlockingQueue<>(config.queueSize);
+
+    this.gauges = List.of(
+        Gauge.builder("transfers.batch.queued", queue, BlockingQueue::size)
+            .register(Metrics.globalRegistry),
+        Gauge.builder("transfers.batch.max.size", config, c -> c.maxSize)
+            .register(Metrics.globalRegistry),
+        Gauge.builder("transfers.batch.linger", config, c -> c.lingerMicros)
+            .baseUnit("microseconds")
+            .register(Metrics.globalRegistry));
+
+    this.executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("transfer-batcher")
+        .setDaemon(true)
+        .build());
+    executor.execute(this::run);
+  }
+
+  /**
+   * Stops the batching thread; transfers still queued fail with {@link ServiceUnavailable}.
+   * Its gauges are removed, since a gauge registered again under the same name would keep
+   * reporting this batcher's queue.
+   */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+    gauges.forEach(Metrics.globalRegistry::remove);
+  }
+
+  Mono<Money> submit(CreateTransferRequest request) {
+    return Mono.create(sink -> {
+      if (executor.isShutdown()) {
+        sink.error(new ServiceUnavailable("Transfer batching stopped"));
+      } else if (!queue.offer(new PendingTransfer(request, sink, System.nanoTime()))) {
+        sink.error(new ServiceUnavailable("Too many pending transfers"));
+      }
+    });
+  }
+
+  long batchCount() {
+    return batches.sum();
+  }
+
+  long transferCount() {
+    return transfers.sum();
+  }
+
+  long largestBatch() {
+    return largestBatch.get();
+  }
+
+  private void run() {
+    long linger = TimeUnit.MICROSECONDS.toNanos(config.lingerMicros);
+    while (!Thread.currentThread().isInterrupted()) {
+      List<PendingTransfer> batch = new ArrayList<>(config.maxSize);
+      try {
+        batch.add(queue.take());
+        long deadline = System.nanoTime() + linger;
+        while (batch.size() < config.maxSize) {
+          PendingTransfer next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      if (!batch.isEmpty()) {
+        applyBatch(batch);
+      }
+    }
+    List<PendingTransfer> left = new ArrayList<>();
+    queue.drainTo(left);
+    left.forEach(it -> it.fail(new ServiceUnavailable("Transfer batching stopped")));
+  }
+
+  private void applyBatch(List<PendingTransfer> batch) {
+    batches.increment();
+    transfers.add(batch.size());
+    largestBatch.accumulateAndGet(batch.size(), Math::max);
+    batchSize.record(batch.size());
+    long now = System.nanoTime();
+    batch.forEach(it -> batchWait.record(now - it.submittedAt, TimeUnit.NANOSECONDS));
+    try {
+      apply.accept(batch);
+    } catch (RuntimeException e) {
+      logger.error("Transfer batch of {} failed", batch.size(), e);
+      batch.forEach(it -> it.fail(e));
+    }
+  }
+
+  /** A transfer waiting for its batch; only the batching thread completes it, at most once. */
+  @Getter
+  @RequiredArgsConstructor
+  static class PendingTransfer {
+
+    private final CreateTransferRequest request;
+    private final MonoSink<Money> result;
+    private final long submittedAt;
+    private boolean done;
+
+    void complete(Money newBalance) {
+      if (!done) {
+        done = true;
+        result.success(newBalance);
+      }
+    }
+
+    void fail(Throwable error) {
+      if (!done) {
+        done = true;
+        result.error(error);
+      }
+    }
+  }
+}
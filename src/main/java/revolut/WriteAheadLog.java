@@ -0,0 +1,393 @@
+package revolut;
+
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import lombok.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import revolut.models.WalConfig;
+
+/**
+ * Append-only log of balance changes in memory-mapped segment files of {@code segmentSize}
+ * bytes. Records have a fixed size and a checksum, and segments are zero-filled when they
+ * are created, so a replay reads each segment front to back until it reaches a zero or torn
+ * record. A full segment is forced to disk and a new one started.
+ *
+ * <p>When an appended record is on disk depends on the fsync policy: {@code record} forces
+ * every record as it is appended, {@code group} forces when a caller waits in
+ * {@link #awaitDurable}, once for every record appended up to then, and {@code interval}
+ * forces on a background thread every {@code fsyncIntervalMs} without making callers wait.
+ *
+ * <p>Every record gets the next sequence number as it is appended, and the numbers keep
+ * increasing across restarts so that they can be compared with the checkpoint of the
+ * records written to the database. A full segment is deleted once {@code flushed} confirms
+ * that its last record, and so every record before it, is in the database; until then it
+ * is kept, and released together with a later segment.
+ */
+class WriteAheadLog implements AutoCloseable {
+
+  private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+  /** Subscriber context key under which callers pass the request's idempotency key. */
+  static final String IDEMPOTENCY_KEY = "wal.idempotencyKey";
+
+  /** seq, from, to, amount, balance, timestamp and key hash, then a CRC32 of them and padding. */
+  static final int RECORD_SIZE = 72;
+
+  private static final int CHECKSUMMED = 6 * Long.BYTES + 16;
+
+  /** Account id stored for the missing side of a deposit. */
+  static final long NO_ACCOUNT = 0;
+
+  private static final String SEGMENT_PREFIX = "wal-";
+
+  private static final String SEGMENT_SUFFIX = ".seg";
+
+  enum Fsync {
+    RECORD, GROUP, INTERVAL
+  }
+
+  private final Path dir;
+
+  private final long segmentSize;
+
+  private final Fsync fsync;
+
+  /** Serializes forces, so that in group mode one force covers everyone waiting on it. */
+  private final ReentrantLock forceLock = new ReentrantLock();
+
+  private final ScheduledExecutorService intervalSync;
+
+  private final LongPredicate flushed;
+
+  private final ExecutorService cleaner;
+
+  private final Timer forces = Timer.builder("wal.fsync")
+      .description("Time spent forcing write-ahead log segments to disk")
+      .publishPercentileHistogram()
+      .register(Metrics.globalRegistry);
+
+  private final Counter appends = Counter.builder("wal.appends")
+      .register(Metrics.globalRegistry);
+
+  private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+  private final CRC32 crc = new CRC32();
+
+  private long segmentIndex;
+
+  private MappedByteBuffer segment;
+
+  /** Sequence number of the last record appended or replayed. */
+  private long lastSeq;
+
+  /** Sequence number up to which records are on disk. */
+  private volatile long durable;
+
+  /**
+   * {@code flushed} tells whether every record up to a sequence number has been written to
+   * the database, so that the segments holding them may be deleted.
+   */
+  WriteAheadLog(WalConfig config, LongPredicate flushed) {
+    this.flushed = flushed;
+    this.dir = Paths.get(config.dir);
+    this.segmentSize = config.segmentSize - config.segmentSize % RECORD_SIZE;
+    if (segmentSize < RECORD_SIZE) {
+      throw new IllegalArgumentException("segmentSize must hold at least one record");
+    }
+    this.fsync = Fsync.valueOf(config.fsync.toUpperCase());
+    try {
+      Files.createDirectories(dir);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    List<Path> segments = segments();
+    segmentIndex = segments.isEmpty() ? 0 : index(segments.get(segments.size() - 1));
+    if (fsync == Fsync.INTERVAL) {
+      intervalSync = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+          .setNameFormat("wal-fsync")
+          .setDaemon(true)
+          .build());
+      intervalSync.scheduleWithFixedDelay(this::forceAppended, config.fsyncIntervalMs,
+          config.fsyncIntervalMs, TimeUnit.MILLISECONDS);
+    } else {
+      intervalSync = null;
+    }
+    cleaner = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+        .setNameFormat("wal-cleaner")
+        .setDaemon(true)
+        .build());
+  }
+
+  /**
+   * Reads every record of the existing segments in the order they were appended. Must be
+   * called before the first append; records appended after it are not seen.
+   */
+  List<Record> replay() {
+    List<Record> records = new ArrayList<>();
+    for (Path path : segments()) {
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        long size = channel.size() - channel.size() % RECORD_SIZE;
+        MappedByteBuffer read = channel.map(MapMode.READ_ONLY, 0, size);
+        while (read.hasRemaining()) {
+          Record next = decode(read, path);
+          if (next == null) {
+            break;
+          }
+          records.add(next);
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    advanceSeq(records.stream().mapToLong(Record::getSeq).max().orElse(0));
+    return records;
+  }
+
+  /**
+   * Deletes every segment once its records are safe elsewhere; the next append starts a new one.
+   */
+  synchronized void reset() {
+    for (Path path : segments()) {
+      try {
+        Files.delete(path);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    segment = null;
+  }
+
+  /** Makes sure sequence numbers handed out from now on are greater than {@code last}. */
+  synchronized void advanceSeq(long last) {
+    lastSeq = Math.max(lastSeq, last);
+  }
+
+  /**
+   * Writes a record to the current segment under the next sequence number, to be passed to
+   * {@link #awaitDurable}. In {@code record} mode the record is on disk when this returns.
+   */
+  Record append(long from, long to, long amount, long balance, String idempotencyKey) {
+    HashCode key = idempotencyKey == null ? null : IdempotencyStore.hash(idempotencyKey);
+    long timestamp = System.currentTimeMillis();
+    Record appended;
+    synchronized (this) {
+      if (segment == null || !segment.hasRemaining()) {
+        roll();
+      }
+      appended = new Record(lastSeq + 1, from, to, amount, balance, timestamp, key);
+      record.clear();
+      record.putLong(appended.getSeq()).putLong(from).putLong(to).putLong(amount).putLong(balance)
+          .putLong(timestamp);
+      if (key == null) {
+        record.putLong(0).putLong(0);
+      } else {
+        record.put(key.asBytes());
+      }
+      crc.reset();
+      crc.update(record.array(), 0, CHECKSUMMED);
+      record.putInt((int) crc.getValue()).putInt(0).flip();
+      segment.put(record);
+      lastSeq = appended.getSeq();
+      if (fsync == Fsync.RECORD) {
+        force(segment);
+        durable = lastSeq;
+      }
+    }
+    appends.increment();
+    return appended;
+  }
+
+  /**
+   * Returns once the record with sequence number {@code seq} is on disk. In {@code group}
+   * mode the first caller to find it missing forces everything appended so far, and callers
+   * that queued behind that force usually find their record already covered by it.
+   */
+  void awaitDurable(long seq) {
+    if (fsync != Fsync.GROUP || durable >= seq) {
+      return;
+    }
+    forceLock.lock();
+    try {
+      if (durable < seq) {
+        forceAppended();
+      }
+    } finally {
+      forceLock.unlock();
+    }
+  }
+
+  private void forceAppended() {
+    MappedByteBuffer current;
+    long upTo;
+    synchronized (this) {
+      current = segment;
+      upTo = lastSeq;
+    }
+    if (current == null || durable >= upTo) {
+      return;
+    }
+    forceLock.lock();
+    try {
+      force(current);
+      durable = Math.max(durable, upTo);
+    } finally {
+      forceLock.unlock();
+    }
+  }
+
+  private void force(MappedByteBuffer buffer) {
+    forces.record(() -> {
+      buffer.force();
+    });
+  }
+
+  /**
+   * Forces the full segment, so that its records are durable whatever the policy, and hands
+   * it to the cleaner.
+   */
+  private void roll() {
+    if (segment != null) {
+      force(segment);
+      durable = lastSeq;
+      long sealed = segmentIndex;
+      long sealedSeq = lastSeq;
+      cleaner.execute(() -> release(sealed, sealedSeq));
+    }
+    Path path = dir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, ++segmentIndex,
+        SEGMENT_SUFFIX));
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+        StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      // the mapping outlives the channel and grows the file to its full, zero-filled size
+      segment = channel.map(MapMode.READ_WRITE, 0, segmentSize);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    logger.debug("Started write-ahead log segment {}", path);
+  }
+
+  /**
+   * Deletes the segments up to {@code last}, whose records end at {@code lastSeq}, if the
+   * database holds all of them; otherwise a later segment's release deletes them.
+   */
+  private void release(long last, long lastSeq) {
+    try {
+      if (!flushed.test(lastSeq)) {
+        logger.debug("Keeping write-ahead log segments up to {} until record {} is flushed",
+            last, lastSeq);
+        return;
+      }
+      for (Path path : segments()) {
+        if (index(path) <= last) {
+          Files.delete(path);
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      logger.warn("Releasing write-ahead log segments up to {} failed, keeping them", last, e);
+    }
+  }
+
+  private Record decode(ByteBuffer read, Path path) {
+    int start = read.position();
+    CRC32 crc = new CRC32();
+    ByteBuffer checksummed = read.duplicate();
+    checksummed.limit(start + CHECKSUMMED);
+    crc.update(checksummed);
+    long seq = read.getLong();
+    long from = read.getLong();
+    long to = read.getLong();
+    long amount = read.getLong();
+    long balance = read.getLong();
+    long timestamp = read.getLong();
+    byte[] key = new byte[16];
+    read.get(key);
+    int checksum = read.getInt();
+    read.getInt();
+    if (seq == 0) {
+      return null;
+    }
+    if (checksum != (int) crc.getValue()) {
+      logger.warn("Ignoring torn record in {} at offset {} and everything after it", path,
+          start);
+      return null;
+    }
+    boolean keyed = false;
+    for (byte b : key) {
+      keyed |= b != 0;
+    }
+    return new Record(seq, from, to, amount, balance, timestamp,
+        keyed ? HashCode.fromBytes(key) : null);
+  }
+
+  private List<Path> segments() {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files
+          .filter(path -> {
+            String name = path.getFileName().toString();
+            return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+          })
+          .sorted()
+          .collect(Collectors.toList());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static long index(Path segment) {
+    String name = segment.getFileName().toString();
+    return Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+        name.length() - SEGMENT_SUFFIX.length()));
+  }
+
+  /** Forces what has been appended; the segments stay for the next replay. */
+  @Override
+  public void close() {
+    if (intervalSync != null) {
+      intervalSync.shutdownNow();
+    }
+    cleaner.shutdownNow();
+    forceAppended();
+  }
+
+  /**
+   * One balance change: {@code amount} minor units moved from {@code from} to {@code to} at
+   * {@code timestamp}, in epoch milliseconds. {@code balance} is the balance the request was
+   * answered with: the sender's after a transfer, the receiver's after a deposit.
+   * {@code idempotencyKey} is a hash of the key the request was sent with, or null.
+   */
+  @Value
+  static class Record {
+
+    long seq;
+    long from;
+    long to;
+    long amount;
+    long balance;
+    long timestamp;
+    HashCode idempotencyKey;
+  }
+}
@@ -0,0 +1,12 @@
+package revolut.models;
+
+import lombok.Data;
+
+@Data
+public class BatchConfig {
+
+  public boolean enabled;
+  public int maxSize;
+  public long lingerMicros;
+  public int queueSize;
+}
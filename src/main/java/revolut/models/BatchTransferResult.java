@@ -0,0 +1,19 @@
+package revolut.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Outcome of one line of a bulk transfer request. {@code index} is the zero-based position of
+ * the item in the request body; either {@code balance} or {@code error} is set.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class BatchTransferResult {
+  private long index;
+  private Money balance;
+  private String error;
+  private String message;
+}
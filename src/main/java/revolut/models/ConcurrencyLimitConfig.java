@@ -0,0 +1,15 @@
+package revolut.models;
+
+import lombok.Data;
+
+@Data
+public class ConcurrencyLimitConfig {
+
+  public boolean enabled;
+  public int initialLimit;
+  public int minLimit;
+  public int maxLimit;
+  public long latencyThresholdMs;
+  public double backoffRatio;
+  public long retryAfterSeconds;
+}
@@ -8,4 +8,10 @@ public class ConnectionConfig {
   public String url;
   public String user;
   public String password;
+  public int maxPoolSize;
+  public int minIdle;
+  public long maxLifetimeMs;
+  public long acquireTimeoutMs;
+  public long leakDetectionMs;
+  public int statementCacheSize;
 }
@@ -1,6 +1,5 @@
 package revolut.models;
 
-import java.math.BigDecimal;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -12,6 +11,6 @@ import lombok.NoArgsConstructor;
 @EqualsAndHashCode
 public class CreateDepositRequest {
   private Long accountID;
-  private BigDecimal amount;
+  private Money amount;
 
 }
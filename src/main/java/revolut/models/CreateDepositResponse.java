@@ -1,6 +1,5 @@
 package revolut.models;
 
-import java.math.BigDecimal;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -9,5 +8,5 @@ import lombok.NoArgsConstructor;
 @NoArgsConstructor
 @AllArgsConstructor
 public class CreateDepositResponse {
-  private BigDecimal balance;
+  private Money balance;
 }
@@ -1,6 +1,5 @@
 package revolut.models;
 
-import java.math.BigDecimal;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.EqualsAndHashCode;
@@ -13,5 +12,5 @@ import lombok.NoArgsConstructor;
 public class CreateTransferRequest {
   Long fromAccount;
   Long toAccount;
-  BigDecimal amount;
+  Money amount;
 }
@@ -1,15 +1,25 @@
 package revolut.models;
 
-import java.math.BigDecimal;
 import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
+import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
 
+/**
+ * {@code version} is set when a read model serves account lookups: passing it back as
+ * {@code Min-Version} makes a lookup see this transfer.
+ */
 @AllArgsConstructor
 @NoArgsConstructor
 @EqualsAndHashCode
+@Getter
 @ToString
 public class CreateTransferResponse {
-  private BigDecimal balance;
+  private Money balance;
+  private Long version;
+
+  public CreateTransferResponse(Money balance) {
+    this(balance, null);
+  }
 }
@@ -0,0 +1,9 @@
+package revolut.models;
+
+import lombok.Data;
+
+@Data
+public class DaoConfig {
+
+  public String impl;
+}
@@ -7,6 +7,44 @@ public class DaoConfigQueries {
 
   public String createAccount;
   public String findAccount;
+  public String findHotAccount;
   public String createTransaction;
-  public String updateBalance;
+  public String debitBalance;
+  public String debitReturningBalance;
+  public String creditBalance;
+  public String debitHotBalance;
+  public String creditShard;
+  public String drainShard;
+  public String createShard;
+  public String mergeShards;
+  public String deleteShards;
+  public String lastBalance;
+  public String findLedgerAccount;
+  public String createLedgerEntry;
+  public String openLedgerAccounts;
+  public String openLedgerCounterpart;
+  public String snapshotBalance;
+  public String rebuildSnapshots;
+  public String maxLedgerAccount;
+  public String listAccounts;
+  public String listTransactions;
+  public String maxAccountId;
+  public String restartAccountIds;
+  public String createReservation;
+  public String commitReservation;
+  public String abortReservation;
+  public String finishReservation;
+  public String listReservations;
+  public String prepareCredit;
+  public String findCredit;
+  public String commitCredit;
+  public String abortCredit;
+  public String readCheckpoint;
+  public String writeCheckpoint;
+  public String findIdempotencyKey;
+  public String claimIdempotencyKey;
+  public String completeIdempotencyKey;
+  public String releaseIdempotencyKey;
+  public String expireIdempotencyKey;
+  public String expireIdempotencyKeys;
 }
@@ -5,7 +5,22 @@ import lombok.Data;
 @Data
 public class DataConfig {
 
+  public ServerConfig server;
   public ConnectionConfig connection;
   public DaoConfigQueries queries;
+  public SchedulerConfig scheduler;
+  public LockConfig locks;
+  public BatchConfig batching;
+  public DaoConfig dao;
+  public JournalConfig journal;
+  public CacheConfig cache;
+  public HotAccountConfig hotAccounts;
+  public IdempotencyConfig idempotency;
+  public ConcurrencyLimitConfig concurrency;
+  public RateLimitConfig rateLimit;
+  public LedgerConfig ledger;
+  public WalConfig wal;
+  public PartitionConfig partitioning;
+  public ReadModelConfig readModel;
 }
 
@@ -0,0 +1,13 @@
+package revolut.models;
+
+import java.util.List;
+import lombok.Data;
+
+@Data
+public class HotAccountConfig {
+
+  public boolean enabled;
+  public List<Long> ids;
+  public int shards;
+  public long compactIntervalMs;
+}
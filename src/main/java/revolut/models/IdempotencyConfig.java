@@ -0,0 +1,11 @@
+package revolut.models;
+
+import lombok.Data;
+
+@Data
+public class IdempotencyConfig {
+
+  public boolean enabled;
+  public long maxSize;
+  public long ttlMs;
+}
@@ -0,0 +1,9 @@
+package revolut.models;
+
+import lombok.Data;
+
+@Data
+public class JournalConfig {
+
+  public int flushBatchSize;
+}
@@ -0,0 +1,11 @@
+package revolut.models;
+
+import lombok.Data;
+
+@Data
+public class LedgerConfig {
+
+  public long snapshotIntervalMs;
+  public int snapshotAfterEntries;
+  public int rebuildThreads;
+}
@@ -0,0 +1,107 @@
+package revolut.models;
+
+import com.google.gson.annotations.JsonAdapter;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An amount of money as a {@code long} count of minor units, matching the
+ * {@code DECIMAL(20,2)} columns it is stored in. Arithmetic is exact and fails with
+ * {@link ArithmeticException} on overflow instead of wrapping; {@link BigDecimal} is only used
+ * to convert at the JSON and database boundaries.
+ */
+@JsonAdapter(MoneyAdapter.class)
+public final class Money implements Comparable<Money> {
+
+  public static final int SCALE = 2;
+
+  private static final long UNIT = 100;
+
+  /** More integer digits than any amount that fits in a {@code long} of minor units. */
+  private static final int MAX_INTEGER_DIGITS = 19;
+
+  public static final Money ZERO = new Money(0);
+
+  private final long minorUnits;
+
+  private Money(long minorUnits) {
+    this.minorUnits = minorUnits;
+  }
+
+  public static Money ofMinor(long minorUnits) {
+    return minorUnits == 0 ? ZERO : new Money(minorUnits);
+  }
+
+  /**
+   * Rounds half up to whole minor units, like the database does on insert. The magnitude is
+   * checked before rescaling, since rescaling {@code 1e9999999} alone takes seconds.
+   */
+  public static Money of(BigDecimal amount) {
+    int integerDigits = amount.precision() - amount.scale();
+    if (amount.signum() == 0 || integerDigits < -SCALE) {
+      // below a tenth of a minor unit
+      return ZERO;
+    }
+    if (integerDigits > MAX_INTEGER_DIGITS) {
+      throw new ArithmeticException("Amount out of range");
+    }
+    return ofMinor(amount.setScale(SCALE, RoundingMode.HALF_UP)
+        .unscaledValue()
+        .longValueExact());
+  }
+
+  public static Money parse(String amount) {
+    return of(new BigDecimal(amount));
+  }
+
+  public long minorUnits() {
+    return minorUnits;
+  }
+
+  public Money plus(Money other) {
+    return ofMinor(Math.addExact(minorUnits, other.minorUnits));
+  }
+
+  public Money minus(Money other) {
+    return ofMinor(Math.subtractExact(minorUnits, other.minorUnits));
+  }
+
+  public boolean isNegative() {
+    return minorUnits < 0;
+  }
+
+  public BigDecimal toBigDecimal() {
+    return BigDecimal.valueOf(minorUnits, SCALE);
+  }
+
+  @Override
+  public int compareTo(Money other) {
+    return Long.compare(minorUnits, other.minorUnits);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof Money && ((Money) o).minorUnits == minorUnits;
+  }
+
+  @Override
+  public int hashCode() {
+    return Long.hashCode(minorUnits);
+  }
+
+  /** Plain decimal with exactly two fraction digits, as {@link #toBigDecimal()} prints. */
+  @Override
+  public String toString() {
+    long units = minorUnits / UNIT;
+    long fraction = Math.abs(minorUnits % UNIT);
+    StringBuilder sb = new StringBuilder(24);
+    if (minorUnits < 0 && units == 0) {
+      sb.append('-');
+    }
+    sb.append(units).append('.');
+    if (fraction < 10) {
+      sb.append('0');
+    }
+    return sb.append(fraction).toString();
+  }
+}
@@ -0,0 +1,38 @@
+package revolut.models;
+
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+
+/**
+ * Writes {@link Money} as a bare JSON number with two decimals and reads it from a number or
+ * a numeric string, the same forms that were accepted for {@code BigDecimal}.
+ */
+public class MoneyAdapter extends TypeAdapter<Money> {
+
+  @Override
+  public void write(JsonWriter out, Money value) throws IOException {
+    if (value == null) {
+      out.nullValue();
+    } else {
+      out.jsonValue(value.toString());
+    }
+  }
+
+  @Override
+  public Money read(JsonReader in) throws IOException {
+    if (in.peek() == JsonToken.NULL) {
+      in.nextNull();
+      return null;
+    }
+    String amount = in.nextString();
+    try {
+      return Money.parse(amount);
+    } catch (ArithmeticException | NumberFormatException e) {
+      throw new JsonSyntaxException("Invalid amount: " + amount, e);
+    }
+  }
+}
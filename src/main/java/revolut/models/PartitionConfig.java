@@ -0,0 +1,16 @@
+package revolut.models;
+
+import java.util.List;
+import lombok.Data;
+
+@Data
+public class PartitionConfig {
+
+  public boolean enabled;
+  public List<String> nodes;
+  public int self;
+  public long rangeSize;
+  public long timeoutMs;
+  public long recoveryIntervalMs;
+  public String secret;
+}
@@ -0,0 +1,19 @@
+package revolut.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The receiving half of a transfer between accounts on different nodes, identified by the
+ * id the sending node gave the transfer.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PartitionCredit {
+  private String id;
+  private Long fromAccount;
+  private Long toAccount;
+  private Money amount;
+}
@@ -0,0 +1,13 @@
+package revolut.models;
+
+import lombok.Data;
+
+@Data
+public class RateLimitConfig {
+
+  public boolean enabled;
+  public double requestsPerSecond;
+  public double burst;
+  public long maxClients;
+  public String clientHeader;
+}
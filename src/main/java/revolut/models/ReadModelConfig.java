@@ -0,0 +1,10 @@
+package revolut.models;
+
+import lombok.Data;
+
+@Data
+public class ReadModelConfig {
+
+  public boolean enabled;
+  public long maxStalenessMs;
+}
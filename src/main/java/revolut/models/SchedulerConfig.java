@@ -0,0 +1,10 @@
+package revolut.models;
+
+import lombok.Data;
+
+@Data
+public class SchedulerConfig {
+
+  public int threads;
+  public int queueSize;
+}
@@ -0,0 +1,19 @@
+package revolut.models;
+
+import java.util.List;
+import lombok.Data;
+
+@Data
+public class ServerConfig {
+
+  public int port;
+  public List<String> protocols;
+  public long idleTimeoutMs;
+  public int backlog;
+  public int maxInitialLineBytes;
+  public int maxHeaderBytes;
+  public int maxBodyBytes;
+  public int selectThreads;
+  public int workerThreads;
+  public boolean nativeTransport;
+}
@@ -0,0 +1,20 @@
+package revolut.models;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A row of an account's history. {@code fromAccount} is null for deposits; {@code createdAt}
+ * is an ISO-8601 instant.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Transaction {
+  private Long id;
+  private Long fromAccount;
+  private Long toAccount;
+  private Money amount;
+  private String createdAt;
+}
@@ -0,0 +1,13 @@
+package revolut.models;
+
+import java.time.Instant;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/** Position in an account's history; a page holds the transactions strictly before it. */
+@Data
+@AllArgsConstructor
+public class TransactionCursor {
+  private Instant createdAt;
+  private long id;
+}
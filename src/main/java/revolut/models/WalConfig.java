@@ -0,0 +1,12 @@
+package revolut.models;
+
+import lombok.Data;
+
+@Data
+public class WalConfig {
+
+  public String dir;
+  public long segmentSize;
+  public String fsync;
+  public long fsyncIntervalMs;
+}
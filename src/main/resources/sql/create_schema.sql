@@ -7,10 +7,68 @@ CREATE TABLE IF NOT EXISTS accounts(
   balance DECIMAL(20,2) NOT NULL
 );
 
+CREATE TABLE IF NOT EXISTS account_shards(
+  account_id BIGINT NOT NULL,
+  shard INT NOT NULL,
+  balance DECIMAL(20,2) NOT NULL,
+  PRIMARY KEY (account_id, shard)
+);
+
 CREATE TABLE IF NOT EXISTS transactions(
   id BIGINT IDENTITY,
   from_acc BIGINT,
   to_acc BIGINT,
   amount DECIMAL(20,2) NOT NULL,
   created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
-);
\ No newline at end of file
+);
+
+CREATE INDEX IF NOT EXISTS transactions_from_acc ON transactions(from_acc, created_at DESC, id DESC);
+
+CREATE INDEX IF NOT EXISTS transactions_to_acc ON transactions(to_acc, created_at DESC, id DESC);
+
+CREATE TABLE IF NOT EXISTS ledger_entries(
+  id BIGINT IDENTITY,
+  tx_id BIGINT,
+  account_id BIGINT NOT NULL,
+  amount DECIMAL(20,2) NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS ledger_entries_account ON ledger_entries(account_id, id);
+
+CREATE TABLE IF NOT EXISTS balance_snapshots(
+  account_id BIGINT PRIMARY KEY,
+  entry_id BIGINT NOT NULL,
+  balance DECIMAL(20,2) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS partition_reservations(
+  id VARCHAR(36) PRIMARY KEY,
+  from_acc BIGINT NOT NULL,
+  to_acc BIGINT NOT NULL,
+  amount DECIMAL(20,2) NOT NULL,
+  state VARCHAR(16) NOT NULL,
+  created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS partition_credits(
+  id VARCHAR(36) PRIMARY KEY,
+  from_acc BIGINT NOT NULL,
+  to_acc BIGINT NOT NULL,
+  amount DECIMAL(20,2) NOT NULL,
+  state VARCHAR(16) NOT NULL,
+  created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS journal_checkpoint(
+  id INT PRIMARY KEY,
+  seq BIGINT NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS idempotency_keys(
+  id VARCHAR(255) PRIMARY KEY,
+  fingerprint VARCHAR(64) NOT NULL,
+  response VARCHAR,
+  created_at TIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idempotency_keys_created_at ON idempotency_keys(created_at);
\ No newline at end of file
@@ -4,7 +4,6 @@ import static org.junit.Assert.*;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
-import java.math.BigDecimal;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Answers;
@@ -17,6 +16,7 @@ import revolut.models.CreateDepositRequest;
 import revolut.models.CreateDepositResponse;
 import revolut.models.CreateTransferRequest;
 import revolut.models.CreateTransferResponse;
+import revolut.models.Money;
 
 public class AccountControllerTest {
 
@@ -35,30 +35,30 @@ public class AccountControllerTest {
     var req = new CreateAccountRequest("TEST");
 
     when(accountDAO.createAccount(req))
-        .thenReturn(Mono.just(new Account(99L, "TEST", BigDecimal.ZERO)));
+        .thenReturn(Mono.just(new Account(99L, "TEST", Money.ZERO)));
 
     var resp = controller.createAccount(req);
     StepVerifier.create(resp)
-        .expectNext(new CreateAccountResponse(new Account(99L, "TEST", BigDecimal.ZERO)))
+        .expectNext(new CreateAccountResponse(new Account(99L, "TEST", Money.ZERO)))
         .expectComplete()
         .verify();
   }
 
   @Test
   public void createDepositSuccess() {
-    var req = new CreateDepositRequest(99L, BigDecimal.TEN);
+    var req = new CreateDepositRequest(99L, Money.parse("10.00"));
     when(accountDAO.createDeposit(req))
-        .thenReturn(Mono.just(new BigDecimal("25.00")));
+        .thenReturn(Mono.just(Money.parse("25.00")));
 
     StepVerifier.create(controller.createDeposit(req))
-        .expectNext(new CreateDepositResponse(new BigDecimal("25.00")))
+        .expectNext(new CreateDepositResponse(Money.parse("25.00")))
         .expectComplete()
         .verify();
   }
 
   @Test
   public void createDepositAccountNotFound() {
-    var req = new CreateDepositRequest(99L, BigDecimal.TEN);
+    var req = new CreateDepositRequest(99L, Money.parse("10.00"));
     when(accountDAO.createDeposit(req))
         .thenReturn(Mono.error(new AccountNotFound("Account not found")));
 
@@ -69,20 +69,20 @@ public class AccountControllerTest {
 
   @Test
   public void createTransferSuccess() {
-    var req = new CreateTransferRequest(10L, 99L, new BigDecimal("100.00"));
+    var req = new CreateTransferRequest(10L, 99L, Money.parse("100.00"));
 
     when(accountDAO.createTransfer(req))
-        .thenReturn(Mono.just(new BigDecimal("900.00")));
+        .thenReturn(Mono.just(Money.parse("900.00")));
 
     StepVerifier.create(controller.createTransfer(req))
-        .expectNext(new CreateTransferResponse(new BigDecimal("900.00")))
+        .expectNext(new CreateTransferResponse(Money.parse("900.00")))
         .expectComplete()
         .verify();
   }
 
   @Test
   public void createTransferNoFunds() {
-    var req = new CreateTransferRequest(10L, 99L, new BigDecimal("100.00"));
+    var req = new CreateTransferRequest(10L, 99L, Money.parse("100.00"));
 
     when(accountDAO.createTransfer(req))
         .thenReturn(Mono.error(new InsufficientFunds("insufficient funds for transaction")));
@@ -94,7 +94,7 @@ public class AccountControllerTest {
 
   @Test
   public void createTransferAccountNotFound() {
-    var req = new CreateTransferRequest(10L, 99L, new BigDecimal("100.00"));
+    var req = new CreateTransferRequest(10L, 99L, Money.parse("100.00"));
 
     when(accountDAO.createTransfer(req))
         .thenReturn(Mono.error(new AccountNotFound("Account not found")));
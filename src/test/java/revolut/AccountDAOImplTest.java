@@ -0,0 +1,270 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.Before;
+import org.junit.Test;
+import org.sql2o.Sql2o;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.test.StepVerifier;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.SchedulerConfig;
+
+public class AccountDAOImplTest {
+
+  private DataConfig config;
+  private Sql2o db;
+
+  @Before
+  public void setUp() throws Exception {
+    config = App.createDataConfig();
+    db = App.createDB(config);
+  }
+
+  @Test
+  public void rejectsCallsWhenSchedulerIsSaturated() throws Exception {
+    var schedulerConfig = new SchedulerConfig();
+    schedulerConfig.threads = 1;
+    schedulerConfig.queueSize = 1;
+    Scheduler scheduler = App.createScheduler(schedulerConfig);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      var dao = new AccountDAOImpl(db, config, scheduler);
+
+      // occupy the only DAO thread, then fill the single queue slot
+      scheduler.schedule(() -> {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      });
+      var queued = dao.findAccount(1L).subscribe();
+
+      StepVerifier.create(dao.findAccount(1L))
+          .expectError(ServiceUnavailable.class)
+          .verify(Duration.ofSeconds(1));
+
+      queued.dispose();
+    } finally {
+      release.countDown();
+      scheduler.dispose();
+    }
+  }
+
+  @Test
+  public void concurrentTransfersOnHotAccountsConserveBalance() throws Exception {
+    assertHotAccountsConserveBalance();
+  }
+
+  @Test
+  public void concurrentBatchedTransfersOnHotAccountsConserveBalance() throws Exception {
+    config.batching.enabled = true;
+    assertHotAccountsConserveBalance();
+  }
+
+  @Test
+  public void failedTransferDoesNotFailItsBatch() {
+    config.batching.enabled = true;
+    config.batching.lingerMicros = 200_000;
+    Scheduler scheduler = App.createScheduler(config.scheduler);
+    try (var dao = new AccountDAOImpl(db, config, scheduler)) {
+      Long a = createAccount(dao, "BATCH A", "10.00");
+      Long b = createAccount(dao, "BATCH B", "0.00");
+
+      var tooMuch = dao.createTransfer(new CreateTransferRequest(a, b, Money.parse("50.00")));
+      var missing = dao.createTransfer(new CreateTransferRequest(a, -1L, Money.parse("1.00")));
+      var ok = dao.createTransfer(new CreateTransferRequest(a, b, Money.parse("4.00")));
+
+      StepVerifier.create(Mono.zip(
+          tooMuch.map(Object::toString).onErrorResume(InsufficientFunds.class,
+              e -> Mono.just("insufficient")),
+          missing.map(Object::toString).onErrorResume(AccountNotFound.class,
+              e -> Mono.just("not found")),
+          ok.map(Object::toString)))
+          .assertNext(results -> {
+            assertEquals("insufficient", results.getT1());
+            assertEquals("not found", results.getT2());
+            assertEquals("6.00", results.getT3());
+          })
+          .verifyComplete();
+
+      assertEquals(1, dao.getBatcher().batchCount());
+      assertEquals(Money.parse("6.00"), dao.findAccount(a).block().getBalance());
+      assertEquals(Money.parse("4.00"), dao.findAccount(b).block().getBalance());
+    } finally {
+      scheduler.dispose();
+    }
+  }
+
+  @Test
+  public void closedBatcherRejectsTransfers() {
+    config.batching.enabled = true;
+    Scheduler scheduler = App.createScheduler(config.scheduler);
+    try {
+      var dao = new AccountDAOImpl(db, config, scheduler);
+      Long a = createAccount(dao, "CLOSED A", "10.00");
+      Long b = createAccount(dao, "CLOSED B", "0.00");
+      dao.close();
+
+      StepVerifier.create(dao.createTransfer(
+          new CreateTransferRequest(a, b, Money.parse("1.00"))))
+          .expectError(ServiceUnavailable.class)
+          .verify(Duration.ofSeconds(1));
+      assertEquals(Money.parse("10.00"), dao.findAccount(a).block().getBalance());
+    } finally {
+      scheduler.dispose();
+    }
+  }
+
+  @Test
+  public void splitAccountSpendsAcrossSubBalances() {
+    Scheduler scheduler = App.createScheduler(config.scheduler);
+    try {
+      var plain = new AccountDAOImpl(db, config, scheduler);
+      Long payer = createAccount(plain, "PAYER", "100.00");
+      Long merchant = createAccount(plain, "MERCHANT", "1.00");
+      splitAccounts(List.of(merchant), 3_600_000);
+
+      try (var dao = new AccountDAOImpl(db, config, scheduler)) {
+        for (int i = 0; i < 8; i++) {
+          dao.createTransfer(new CreateTransferRequest(payer, merchant, Money.parse("10.00")))
+              .block();
+        }
+        assertEquals(Money.parse("91.00"),
+            dao.createDeposit(new CreateDepositRequest(merchant, Money.parse("10.00"))).block());
+        assertEquals(Money.parse("91.00"), dao.findAccount(merchant).block().getBalance());
+
+        // the account row holds only 1.00, the rest is spread over sub-balances
+        assertEquals(Money.parse("1.00"),
+            dao.createTransfer(new CreateTransferRequest(merchant, payer, Money.parse("90.00")))
+                .block());
+        StepVerifier.create(
+            dao.createTransfer(new CreateTransferRequest(merchant, payer, Money.parse("1.01"))))
+            .expectError(InsufficientFunds.class)
+            .verify();
+
+        dao.compactShards();
+        assertEquals(Money.parse("1.00"), dao.findAccount(merchant).block().getBalance());
+        assertEquals(Money.parse("1.00"), plain.findAccount(merchant).block().getBalance());
+        assertEquals(Money.parse("110.00"), dao.findAccount(payer).block().getBalance());
+      }
+    } finally {
+      scheduler.dispose();
+    }
+  }
+
+  @Test
+  public void concurrentTransfersOnSplitAccountsConserveBalance() throws Exception {
+    Scheduler scheduler = App.createScheduler(config.scheduler);
+    ExecutorService clients = Executors.newFixedThreadPool(16);
+    try {
+      var plain = new AccountDAOImpl(db, config, scheduler);
+      List<Long> ids = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        ids.add(createAccount(plain, "SPLIT " + i, "1000.00"));
+      }
+      splitAccounts(ids.subList(0, 2), 1);
+
+      try (var dao = new AccountDAOImpl(db, config, scheduler)) {
+        List<Future<?>> running = new ArrayList<>();
+        for (int t = 0; t < 16; t++) {
+          running.add(clients.submit(() -> {
+            var random = ThreadLocalRandom.current();
+            for (int i = 0; i < 100; i++) {
+              Long from = ids.get(random.nextInt(ids.size()));
+              Long to = ids.get(random.nextInt(ids.size()));
+              if (from.equals(to)) {
+                continue;
+              }
+              var amount = Money.ofMinor(random.nextInt(1, 5000));
+              dao.createTransfer(new CreateTransferRequest(from, to, amount))
+                  .onErrorResume(InsufficientFunds.class, e -> Mono.empty())
+                  .block();
+            }
+          }));
+        }
+        for (Future<?> f : running) {
+          f.get();
+        }
+
+        Money total = ids.stream()
+            .map(id -> dao.findAccount(id).block())
+            .map(Account::getBalance)
+            .reduce(Money.ZERO, Money::plus);
+        assertEquals(Money.parse("4000.00"), total);
+      }
+    } finally {
+      clients.shutdownNow();
+      scheduler.dispose();
+    }
+  }
+
+  private void splitAccounts(List<Long> ids, long compactIntervalMs) {
+    config.hotAccounts.enabled = true;
+    config.hotAccounts.ids = ids;
+    config.hotAccounts.shards = 4;
+    config.hotAccounts.compactIntervalMs = compactIntervalMs;
+  }
+
+  private void assertHotAccountsConserveBalance() throws Exception {
+    Scheduler scheduler = App.createScheduler(config.scheduler);
+    ExecutorService clients = Executors.newFixedThreadPool(16);
+    try (var dao = new AccountDAOImpl(db, config, scheduler)) {
+      List<Long> ids = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        ids.add(createAccount(dao, "HOT " + i, "1000.00"));
+      }
+
+      List<Future<?>> running = new ArrayList<>();
+      for (int t = 0; t < 16; t++) {
+        running.add(clients.submit(() -> {
+          var random = ThreadLocalRandom.current();
+          for (int i = 0; i < 100; i++) {
+            Long from = ids.get(random.nextInt(ids.size()));
+            Long to = ids.get(random.nextInt(ids.size()));
+            if (from.equals(to)) {
+              continue;
+            }
+            var amount = Money.ofMinor(random.nextInt(1, 5000));
+            dao.createTransfer(new CreateTransferRequest(from, to, amount))
+                .onErrorResume(InsufficientFunds.class, e -> Mono.empty())
+                .block();
+          }
+        }));
+      }
+      for (Future<?> f : running) {
+        f.get();
+      }
+
+      Money total = ids.stream()
+          .map(id -> dao.findAccount(id).block())
+          .map(Account::getBalance)
+          .reduce(Money.ZERO, Money::plus);
+      assertEquals(Money.parse("4000.00"), total);
+    } finally {
+      clients.shutdownNow();
+      scheduler.dispose();
+    }
+  }
+
+  private Long createAccount(AccountDAO dao, String name, String balance) {
+    Long id = dao.createAccount(new CreateAccountRequest(name)).block().getId();
+    dao.createDeposit(new CreateDepositRequest(id, Money.parse(balance))).block();
+    return id;
+  }
+}
@@ -0,0 +1,111 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Answers;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import revolut.models.Account;
+import revolut.models.CacheConfig;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.Money;
+
+public class CachingAccountDAOTest {
+
+  private AccountDAO delegate;
+  private CachingAccountDAO dao;
+
+  @Before
+  public void setUp() throws Exception {
+    delegate = mock(AccountDAO.class, Answers.RETURNS_SMART_NULLS);
+    var config = new CacheConfig();
+    config.maxSize = 100;
+    config.ttlMs = 60_000;
+    dao = new CachingAccountDAO(delegate, config);
+  }
+
+  @Test
+  public void findAccountIsReadThrough() {
+    when(delegate.findAccount(10L))
+        .thenReturn(Mono.just(new Account(10L, "TEST", Money.parse("10.00"))));
+
+    dao.findAccount(10L).block();
+    StepVerifier.create(dao.findAccount(10L))
+        .expectNext(new Account(10L, "TEST", Money.parse("10.00")))
+        .verifyComplete();
+
+    verify(delegate, times(1)).findAccount(10L);
+    assertEquals(1, dao.stats().hitCount());
+    assertEquals(1, dao.stats().missCount());
+  }
+
+  @Test
+  public void missingAccountIsNotCached() {
+    when(delegate.findAccount(10L)).thenReturn(Mono.empty());
+
+    dao.findAccount(10L).block();
+    dao.findAccount(10L).block();
+
+    verify(delegate, times(2)).findAccount(10L);
+  }
+
+  @Test
+  public void depositUpdatesCachedBalance() {
+    when(delegate.findAccount(10L))
+        .thenReturn(Mono.just(new Account(10L, "TEST", Money.parse("10.00"))));
+    var req = new CreateDepositRequest(10L, Money.parse("1.00"));
+    when(delegate.createDeposit(req)).thenReturn(Mono.just(Money.parse("11")));
+
+    dao.findAccount(10L).block();
+    dao.createDeposit(req).block();
+
+    StepVerifier.create(dao.findAccount(10L))
+        .expectNext(new Account(10L, "TEST", Money.parse("11")))
+        .verifyComplete();
+    verify(delegate, times(1)).findAccount(10L);
+  }
+
+  @Test
+  public void transferUpdatesSourceAndDropsTarget() {
+    when(delegate.findAccount(10L))
+        .thenReturn(Mono.just(new Account(10L, "FROM", Money.parse("10.00"))));
+    when(delegate.findAccount(99L))
+        .thenReturn(Mono.just(new Account(99L, "TO", Money.ZERO)),
+            Mono.just(new Account(99L, "TO", Money.parse("1.00"))));
+    var req = new CreateTransferRequest(10L, 99L, Money.parse("1.00"));
+    when(delegate.createTransfer(req)).thenReturn(Mono.just(Money.parse("9")));
+
+    dao.findAccount(10L).block();
+    dao.findAccount(99L).block();
+    dao.createTransfer(req).block();
+
+    assertEquals(Money.parse("9"), dao.findAccount(10L).block().getBalance());
+    assertEquals(Money.parse("1.00"), dao.findAccount(99L).block().getBalance());
+    verify(delegate, times(1)).findAccount(10L);
+    verify(delegate, times(2)).findAccount(99L);
+  }
+
+  @Test
+  public void failedTransferDropsBothAccounts() {
+    when(delegate.findAccount(10L))
+        .thenReturn(Mono.just(new Account(10L, "FROM", Money.parse("10.00"))));
+    var req = new CreateTransferRequest(10L, 99L, Money.parse("1.00"));
+    when(delegate.createTransfer(req))
+        .thenReturn(Mono.error(new AccountNotFound("Account not found")));
+
+    dao.findAccount(10L).block();
+    StepVerifier.create(dao.createTransfer(req))
+        .expectError(AccountNotFound.class)
+        .verify();
+    dao.findAccount(10L).block();
+
+    verify(delegate, times(2)).findAccount(10L);
+  }
+}
@@ -0,0 +1,57 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import revolut.models.RateLimitConfig;
+
+public class ClientRateLimiterTest {
+
+  private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+  private static ClientRateLimiter limiter() {
+    var config = new RateLimitConfig();
+    config.enabled = true;
+    config.requestsPerSecond = 2;
+    config.burst = 3;
+    config.maxClients = 100;
+    return new ClientRateLimiter(config);
+  }
+
+  @Test
+  public void allowsBurstThenRate() {
+    var limiter = limiter();
+    long now = 0;
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.tryAcquire("a", now));
+    }
+    assertEquals(SECOND / 2, limiter.tryAcquire("a", now));
+    assertEquals(SECOND / 4, limiter.tryAcquire("a", now + SECOND / 4));
+
+    assertEquals(0, limiter.tryAcquire("a", now + SECOND / 2));
+    assertEquals(SECOND / 2, limiter.tryAcquire("a", now + SECOND / 2));
+  }
+
+  @Test
+  public void refillsUpToBurst() {
+    var limiter = limiter();
+    for (int i = 0; i < 3; i++) {
+      limiter.tryAcquire("a", 0);
+    }
+    long later = 10 * SECOND;
+    for (int i = 0; i < 3; i++) {
+      assertEquals(0, limiter.tryAcquire("a", later));
+    }
+    assertEquals(SECOND / 2, limiter.tryAcquire("a", later));
+  }
+
+  @Test
+  public void limitsClientsSeparately() {
+    var limiter = limiter();
+    for (int i = 0; i < 3; i++) {
+      limiter.tryAcquire("a", 0);
+    }
+    assertEquals(0, limiter.tryAcquire("b", 0));
+  }
+}
@@ -0,0 +1,116 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import revolut.models.ConcurrencyLimitConfig;
+
+public class ConcurrencyLimiterTest {
+
+  private static final long FAST = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final long SLOW = TimeUnit.SECONDS.toNanos(1);
+
+  private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private static ConcurrencyLimiter limiter(int initial) {
+    var config = new ConcurrencyLimitConfig();
+    config.enabled = true;
+    config.initialLimit = initial;
+    config.minLimit = 2;
+    config.maxLimit = 8;
+    config.latencyThresholdMs = 100;
+    config.backoffRatio = 0.5;
+    config.retryAfterSeconds = 1;
+    return new ConcurrencyLimiter(config, new SimpleMeterRegistry());
+  }
+
+  @Test
+  public void rejectsOverLimit() {
+    var limiter = limiter(2);
+    assertTrue(limiter.tryAcquire());
+    assertTrue(limiter.tryAcquire());
+    assertFalse(limiter.tryAcquire());
+
+    limiter.cancel();
+    assertTrue(limiter.tryAcquire());
+    assertEquals(2, limiter.inFlight());
+  }
+
+  @Test
+  public void growsWhileFastAndBusy() {
+    var limiter = limiter(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(limiter.tryAcquire());
+    }
+    limiter.release(FAST, false);
+    assertEquals(4.25, limiter.limit(), 1e-9);
+
+    for (int i = 0; i < 30; i++) {
+      limiter.tryAcquire();
+      limiter.release(FAST, false);
+    }
+    assertEquals(8, limiter.limit(), 0);
+  }
+
+  @Test
+  public void growsByAboutOnePerRoundTrip() {
+    var limiter = limiter(4);
+    for (int i = 0; i < 4; i++) {
+      assertTrue(limiter.tryAcquire());
+    }
+    for (int i = 0; i < 4; i++) {
+      limiter.release(FAST, false);
+      limiter.tryAcquire();
+    }
+    assertTrue(limiter.limit() > 4.9);
+    assertTrue(limiter.limit() < 5);
+  }
+
+  @Test
+  public void doesNotGrowWhenIdle() {
+    var limiter = limiter(4);
+    assertTrue(limiter.tryAcquire());
+    limiter.release(FAST, false);
+    assertEquals(4, limiter.limit(), 0);
+  }
+
+  @Test
+  public void backsOffWhenSlowOrDropped() {
+    var limiter = limiter(8);
+    long now = System.nanoTime();
+    limiter.tryAcquire();
+    limiter.release(SLOW, false, now);
+    assertEquals(4, limiter.limit(), 0);
+
+    limiter.tryAcquire();
+    limiter.release(FAST, true, now + WINDOW);
+    assertEquals(2, limiter.limit(), 0);
+
+    limiter.tryAcquire();
+    limiter.release(SLOW, false, now + 2 * WINDOW);
+    assertEquals(2, limiter.limit(), 0);
+    assertEquals(0, limiter.inFlight());
+  }
+
+  @Test
+  public void backsOffOncePerWindow() {
+    var limiter = limiter(8);
+    long now = System.nanoTime();
+    for (int i = 0; i < 8; i++) {
+      assertTrue(limiter.tryAcquire());
+    }
+    for (int i = 0; i < 8; i++) {
+      limiter.release(SLOW, false, now + i);
+    }
+    assertEquals(4, limiter.limit(), 0);
+
+    limiter.tryAcquire();
+    limiter.release(SLOW, false, now + WINDOW);
+    assertEquals(2, limiter.limit(), 0);
+  }
+}
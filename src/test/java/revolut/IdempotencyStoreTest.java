@@ -0,0 +1,200 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoProcessor;
+import reactor.core.scheduler.Scheduler;
+import reactor.test.StepVerifier;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateDepositResponse;
+import revolut.models.CreateTransferRequest;
+import revolut.models.CreateTransferResponse;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+
+public class IdempotencyStoreTest {
+
+  private DataConfig config;
+  private Sql2o db;
+  private Scheduler scheduler;
+  private IdempotencyStore store;
+  private String key;
+  private AtomicInteger calls;
+
+  @Before
+  public void setUp() throws Exception {
+    config = App.createDataConfig();
+    db = App.createDB(config);
+    scheduler = App.createScheduler(config.scheduler);
+    store = new IdempotencyStore(db, config, scheduler);
+    key = UUID.randomUUID().toString();
+    calls = new AtomicInteger();
+  }
+
+  @After
+  public void tearDown() {
+    store.close();
+    scheduler.dispose();
+  }
+
+  @Test
+  public void replaysTheOriginalResponse() {
+    var request = new CreateDepositRequest(1L, Money.parse("10.00"));
+
+    StepVerifier.create(store.execute(key, request, CreateDepositResponse.class,
+        () -> deposit("10.00")))
+        .expectNext(new CreateDepositResponse(Money.parse("10.00")))
+        .verifyComplete();
+    StepVerifier.create(store.execute(key, request, CreateDepositResponse.class,
+        () -> deposit("20.00")))
+        .expectNext(new CreateDepositResponse(Money.parse("10.00")))
+        .verifyComplete();
+    assertEquals(1, calls.get());
+
+    // a fresh store only has the persisted response
+    try (var restarted = new IdempotencyStore(db, config, scheduler)) {
+      StepVerifier.create(restarted.execute(key, request, CreateDepositResponse.class,
+          () -> deposit("30.00")))
+          .expectNext(new CreateDepositResponse(Money.parse("10.00")))
+          .verifyComplete();
+    }
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void coalescesConcurrentDuplicates() {
+    var request = new CreateDepositRequest(1L, Money.parse("10.00"));
+    MonoProcessor<CreateDepositResponse> result = MonoProcessor.create();
+
+    Mono<CreateDepositResponse> first = store.execute(key, request, CreateDepositResponse.class,
+        () -> {
+          calls.incrementAndGet();
+          return result;
+        });
+    Mono<CreateDepositResponse> second = store.execute(key, request,
+        CreateDepositResponse.class, () -> deposit("20.00"));
+
+    StepVerifier.create(Mono.zip(first, second))
+        .then(() -> result.onNext(new CreateDepositResponse(Money.parse("10.00"))))
+        .assertNext(both -> {
+          assertEquals(both.getT1(), both.getT2());
+          assertEquals(Money.parse("10.00"), both.getT1().getBalance());
+        })
+        .expectComplete()
+        .verify(Duration.ofSeconds(5));
+    assertEquals(1, calls.get());
+  }
+
+  @Test
+  public void rejectsKeyReusedForAnotherRequest() {
+    store.execute(key, new CreateDepositRequest(1L, Money.parse("10.00")),
+        CreateDepositResponse.class, () -> deposit("10.00"))
+        .block();
+
+    StepVerifier.create(store.execute(key, new CreateDepositRequest(1L, Money.parse("1.00")),
+        CreateDepositResponse.class, () -> deposit("1.00")))
+        .expectError(IdempotencyKeyReused.class)
+        .verify();
+  }
+
+  @Test
+  public void failedRequestsCanBeRetried() {
+    var request = new CreateDepositRequest(1L, Money.parse("10.00"));
+
+    StepVerifier.create(store.execute(key, request, CreateDepositResponse.class,
+        () -> Mono.error(new AccountNotFound("Account not found: 1"))))
+        .expectError(AccountNotFound.class)
+        .verify();
+    StepVerifier.create(store.execute(key, request, CreateDepositResponse.class,
+        () -> deposit("10.00")))
+        .expectNext(new CreateDepositResponse(Money.parse("10.00")))
+        .verifyComplete();
+  }
+
+  @Test
+  public void keyStaysClaimedWhenTheOutcomeIsUnknown() {
+    var request = new CreateDepositRequest(1L, Money.parse("10.00"));
+
+    // e.g. the write-ahead log failed after the database had committed
+    StepVerifier.create(store.execute(key, request, CreateDepositResponse.class,
+        () -> Mono.error(new UncheckedIOException(new IOException("force failed")))))
+        .expectError(UncheckedIOException.class)
+        .verify();
+    StepVerifier.create(store.execute(key, request, CreateDepositResponse.class,
+        () -> deposit("20.00")))
+        .expectError(IdempotencyKeyInProgress.class)
+        .verify();
+    assertEquals(0, calls.get());
+  }
+
+  @Test
+  public void restoresResponsesFromLoggedRecords() {
+    var request = new CreateDepositRequest(1L, Money.parse("10.00"));
+    // applied and logged, but the response was lost with the process
+    store.execute(key, request, CreateDepositResponse.class,
+        () -> Mono.error(new IllegalStateException("crashed")))
+        .onErrorResume(e -> Mono.empty())
+        .block();
+    String lost = UUID.randomUUID().toString();
+
+    long now = System.currentTimeMillis();
+    IdempotencyStore.restoreResponses(db, config, List.of(
+        new WriteAheadLog.Record(1, WriteAheadLog.NO_ACCOUNT, 1, 1000, 1000, now,
+            IdempotencyStore.hash(key)),
+        new WriteAheadLog.Record(2, 1, 2, 300, 700, now, IdempotencyStore.hash(lost))));
+
+    StepVerifier.create(store.execute(key, request, CreateDepositResponse.class,
+        () -> deposit("20.00")))
+        .expectNext(new CreateDepositResponse(Money.parse("10.00")))
+        .verifyComplete();
+    StepVerifier.create(store.execute(lost,
+        new CreateTransferRequest(1L, 2L, Money.parse("3.00")), CreateTransferResponse.class,
+        () -> Mono.error(new AssertionError("applied twice"))))
+        .expectNext(new CreateTransferResponse(Money.parse("7.00")))
+        .verifyComplete();
+    assertEquals(0, calls.get());
+  }
+
+  @Test
+  public void findsRowsStoredUnderTheRawKey() {
+    try (Connection conn = db.open()) {
+      conn.createQuery(config.queries.claimIdempotencyKey)
+          .addParameter("id", key)
+          .addParameter("fingerprint", IdempotencyStore.RECOVERED)
+          .addParameter("now", new Timestamp(System.currentTimeMillis()))
+          .executeUpdate();
+      conn.createQuery(config.queries.completeIdempotencyKey)
+          .addParameter("id", key)
+          .addParameter("response",
+              new Gson().toJson(new CreateDepositResponse(Money.parse("10.00"))))
+          .executeUpdate();
+    }
+
+    StepVerifier.create(store.execute(key, new CreateDepositRequest(1L, Money.parse("10.00")),
+        CreateDepositResponse.class, () -> deposit("20.00")))
+        .expectNext(new CreateDepositResponse(Money.parse("10.00")))
+        .verifyComplete();
+    assertEquals(0, calls.get());
+  }
+
+  private Mono<CreateDepositResponse> deposit(String balance) {
+    return Mono.fromSupplier(() -> {
+      calls.incrementAndGet();
+      return new CreateDepositResponse(Money.parse(balance));
+    });
+  }
+}
@@ -0,0 +1,126 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.file.Files;
+import java.time.Duration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sql2o.Sql2o;
+import reactor.core.scheduler.Scheduler;
+import reactor.test.StepVerifier;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+
+public class InMemoryAccountDAOTest {
+
+  private DataConfig config;
+  private Sql2o db;
+  private Scheduler scheduler;
+  private AccountDAOImpl store;
+
+  @Before
+  public void setUp() throws Exception {
+    config = App.createDataConfig();
+    config.wal.dir = Files.createTempDirectory("wal").toString();
+    db = App.createDB(config);
+    scheduler = App.createScheduler(config.scheduler);
+    store = new AccountDAOImpl(db, config, scheduler);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.dispose();
+  }
+
+  @Test
+  public void appliesTransfersInMemoryAndFlushesThemBehind() throws Exception {
+    try (var dao = new InMemoryAccountDAO(store, db, config, scheduler)) {
+      Long a = dao.createAccount(new CreateAccountRequest("MEM A")).block().getId();
+      Long b = dao.createAccount(new CreateAccountRequest("MEM B")).block().getId();
+
+      StepVerifier.create(dao.createDeposit(new CreateDepositRequest(a, Money.parse("20.00"))))
+          .expectNext(Money.parse("20.00"))
+          .verifyComplete();
+      StepVerifier.create(dao.createTransfer(new CreateTransferRequest(a, b, Money.parse("7.50"))))
+          .expectNext(Money.parse("12.50"))
+          .verifyComplete();
+      StepVerifier.create(dao.createTransfer(new CreateTransferRequest(a, b, Money.parse("99"))))
+          .expectError(InsufficientFunds.class)
+          .verify();
+
+      assertEquals(Money.parse("7.50"), dao.findAccount(b).block().getBalance());
+
+      awaitFlushed(dao);
+      assertEquals(Money.parse("12.50"), store.findAccount(a).block().getBalance());
+      assertEquals(Money.parse("7.50"), store.findAccount(b).block().getBalance());
+    }
+  }
+
+  @Test
+  public void rebuildsFromAccountsTableAndJournalTail() throws Exception {
+    Long a = store.createAccount(new CreateAccountRequest("MEM A")).block().getId();
+    Long b = store.createAccount(new CreateAccountRequest("MEM B")).block().getId();
+    store.createDeposit(new CreateDepositRequest(a, Money.parse("10.00"))).block();
+
+    // records appended after the last flush, as left behind by a crash
+    long checkpoint = JournalFlusher.readCheckpoint(db, config);
+    try (var log = new WriteAheadLog(config.wal, seq -> false)) {
+      log.advanceSeq(checkpoint);
+      log.append(WriteAheadLog.NO_ACCOUNT, a, 500, 1500, null);
+      log.append(a, b, 1200, 300, null);
+    }
+
+    try (var dao = new InMemoryAccountDAO(store, db, config, scheduler)) {
+      assertEquals(Money.parse("3.00"), dao.findAccount(a).block().getBalance());
+      assertEquals(Money.parse("12.00"), dao.findAccount(b).block().getBalance());
+
+      awaitFlushed(dao);
+      assertEquals(Money.parse("3.00"), store.findAccount(a).block().getBalance());
+      assertEquals(Money.parse("12.00"), store.findAccount(b).block().getBalance());
+    }
+  }
+
+  @Test
+  public void recordTheDatabaseRefusesStopsFlushing() throws Exception {
+    Long a = store.createAccount(new CreateAccountRequest("MEM A")).block().getId();
+    Long b = store.createAccount(new CreateAccountRequest("MEM B")).block().getId();
+    store.createDeposit(new CreateDepositRequest(a, Money.parse("10.00"))).block();
+
+    long checkpoint = JournalFlusher.readCheckpoint(db, config);
+    try (var log = new WriteAheadLog(config.wal, seq -> false)) {
+      log.advanceSeq(checkpoint);
+      log.append(a, b, 5000, -4000, null);
+      log.append(a, b, 400, -4400, null);
+    }
+
+    try (var dao = new InMemoryAccountDAO(store, db, config, scheduler)) {
+      long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+      while (!dao.flushStopped() && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertTrue("flushing did not stop", dao.flushStopped());
+
+      // nothing is dropped: both records wait in the log for the database to be fixed
+      assertEquals(2, dao.flushBacklog());
+      assertEquals(Money.parse("10.00"), store.findAccount(a).block().getBalance());
+      assertEquals(Money.ZERO, store.findAccount(b).block().getBalance());
+    }
+    try (var log = new WriteAheadLog(config.wal, seq -> false)) {
+      assertEquals(2, log.replay().size());
+    }
+  }
+
+  private static void awaitFlushed(InMemoryAccountDAO dao) throws InterruptedException {
+    long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (dao.flushBacklog() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertTrue("journal was not flushed in time", dao.flushBacklog() == 0);
+  }
+}
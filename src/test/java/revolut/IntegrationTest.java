@@ -4,11 +4,15 @@ import static org.junit.Assert.*;
 
 import com.google.gson.Gson;
 import io.netty.buffer.ByteBuf;
+import io.netty.handler.codec.http.HttpHeaderNames;
 import io.netty.handler.codec.http.HttpResponseStatus;
-import java.math.BigDecimal;
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -16,6 +20,7 @@ import org.reactivestreams.Publisher;
 import org.sql2o.Sql2o;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 import reactor.netty.ByteBufFlux;
 import reactor.netty.DisposableServer;
 import reactor.netty.NettyOutbound;
@@ -24,6 +29,7 @@ import reactor.netty.http.client.HttpClientRequest;
 import reactor.netty.http.client.HttpClientResponse;
 import reactor.test.StepVerifier;
 import revolut.models.Account;
+import revolut.models.BatchTransferResult;
 import revolut.models.ConnectionConfig;
 import revolut.models.CreateAccountRequest;
 import revolut.models.CreateAccountResponse;
@@ -32,6 +38,8 @@ import revolut.models.CreateDepositResponse;
 import revolut.models.CreateTransferRequest;
 import revolut.models.CreateTransferResponse;
 import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.Transaction;
 
 
 public class IntegrationTest {
@@ -44,9 +52,12 @@ public class IntegrationTest {
   @BeforeClass
   public static void setUp() throws Exception {
     DataConfig config = App.createDataConfig();
-    Sql2o db = App.createDB(config.connection);
+    Sql2o db = App.createDB(config);
 
-    app = new App(new AccountController(new AccountDAOImpl(db, config)));
+    Scheduler scheduler = App.createScheduler(config.scheduler);
+
+    app = new App(new AccountController(new AccountDAOImpl(db, config, scheduler),
+        new IdempotencyStore(db, config, scheduler)));
     server = app.bindNow();
 
     urlPrefix = String.format("http://%s:%d", server.host(), server.port());
@@ -76,10 +87,10 @@ public class IntegrationTest {
           Long id = acc.getAccount().getId();
           System.out.println("Depositing to acc " + id);
           return post(String.format("/accounts/%d/deposits", id),
-              new CreateDepositRequest(id, new BigDecimal("99.99")),
+              new CreateDepositRequest(id, Money.parse("99.99")),
               CreateDepositResponse.class);
         }))
-        .expectNext(new CreateDepositResponse(new BigDecimal("99.99")))
+        .expectNext(new CreateDepositResponse(Money.parse("99.99")))
         .expectComplete()
         .verify(Duration.ofSeconds(1));
   }
@@ -118,25 +129,25 @@ public class IntegrationTest {
 
     var transfer = post(
             String.format("/accounts/%d/deposits", accA.getId()),
-            new CreateDepositRequest(accA.getId(), new BigDecimal("99.99")),
+            new CreateDepositRequest(accA.getId(), Money.parse("99.99")),
             CreateDepositResponse.class)
         .flatMap(ign ->
             post(String.format("/accounts/%d/transfers", accA.getId()),
-                new CreateTransferRequest(accA.getId(), accB.getId(), new BigDecimal("94.99")),
+                new CreateTransferRequest(accA.getId(), accB.getId(), Money.parse("94.99")),
                 CreateTransferResponse.class)
         );
 
     StepVerifier.create(transfer)
-        .expectNext(new CreateTransferResponse(new BigDecimal("5.00")))
+        .expectNext(new CreateTransferResponse(Money.parse("5.00")))
         .expectComplete()
         .verify(Duration.ofSeconds(1));
 
     StepVerifier.create(get("/accounts/" + accA.getId(), Account.class))
-        .expectNext(new Account(accA.getId(), "TEST ACC A", new BigDecimal("5.00")))
+        .expectNext(new Account(accA.getId(), "TEST ACC A", Money.parse("5.00")))
         .verifyComplete();
 
     StepVerifier.create(get("/accounts/" + accB.getId(), Account.class))
-        .expectNext(new Account(accB.getId(), "TEST ACC B", new BigDecimal("94.99")))
+        .expectNext(new Account(accB.getId(), "TEST ACC B", Money.parse("94.99")))
         .verifyComplete();
 
   }
@@ -156,11 +167,11 @@ public class IntegrationTest {
 
     var transfer = post(
         String.format("/accounts/%d/deposits", accA.getId()),
-        new CreateDepositRequest(accA.getId(), new BigDecimal("90.99")),
+        new CreateDepositRequest(accA.getId(), Money.parse("90.99")),
         CreateDepositResponse.class)
         .flatMap(ign ->
             post(String.format("/accounts/%d/transfers", accA.getId()),
-                new CreateTransferRequest(accA.getId(), accB.getId(), new BigDecimal("94.99")),
+                new CreateTransferRequest(accA.getId(), accB.getId(), Money.parse("94.99")),
                 APIError.class)
         );
 
@@ -170,13 +181,225 @@ public class IntegrationTest {
         .verify(Duration.ofSeconds(1));
 
     StepVerifier.create(get("/accounts/" + accA.getId(), Account.class))
-        .expectNext(new Account(accA.getId(), "TEST ACC A", new BigDecimal("90.99")))
+        .expectNext(new Account(accA.getId(), "TEST ACC A", Money.parse("90.99")))
         .verifyComplete();
 
     StepVerifier.create(get("/accounts/" + accB.getId(), Account.class))
-        .expectNext(new Account(accB.getId(), "TEST ACC B", new BigDecimal("0.00")))
+        .expectNext(new Account(accB.getId(), "TEST ACC B", Money.parse("0.00")))
+        .verifyComplete();
+
+  }
+
+  @Test
+  public void getAccountNotModified() {
+    var acc = post("/accounts",
+        new CreateAccountRequest("TEST ACC"),
+        CreateAccountResponse.class)
+        .map(CreateAccountResponse::getAccount)
+        .blockFirst();
+    String uri = urlPrefix + "/accounts/" + acc.getId();
+
+    String etag = HttpClient.create()
+        .get()
+        .uri(uri)
+        .response()
+        .map(resp -> resp.responseHeaders().get(HttpHeaderNames.ETAG))
+        .block();
+    assertNotNull(etag);
+
+    StepVerifier.create(HttpClient.create()
+        .headers(h -> h.set(HttpHeaderNames.IF_NONE_MATCH, etag))
+        .get()
+        .uri(uri)
+        .response()
+        .map(resp -> resp.status()))
+        .expectNext(HttpResponseStatus.NOT_MODIFIED)
+        .verifyComplete();
+
+    post(String.format("/accounts/%d/deposits", acc.getId()),
+        new CreateDepositRequest(acc.getId(), Money.parse("1.00")),
+        CreateDepositResponse.class)
+        .blockFirst();
+
+    StepVerifier.create(HttpClient.create()
+        .headers(h -> h.set(HttpHeaderNames.IF_NONE_MATCH, etag))
+        .get()
+        .uri(uri)
+        .response()
+        .map(resp -> resp.status()))
+        .expectNext(HttpResponseStatus.OK)
+        .verifyComplete();
+  }
+
+  @Test
+  public void createDepositIdempotent() {
+    var acc = post("/accounts",
+        new CreateAccountRequest("TEST ACC"),
+        CreateAccountResponse.class)
+        .map(CreateAccountResponse::getAccount)
+        .blockFirst();
+    String key = UUID.randomUUID().toString();
+    Function<Money, Mono<String>> deposit = amount -> HttpClient.create()
+        .headers(h -> h.set(App.IDEMPOTENCY_KEY, key))
+        .post()
+        .uri(urlPrefix + String.format("/accounts/%d/deposits", acc.getId()))
+        .send(toJson(new CreateDepositRequest(acc.getId(), amount)))
+        .responseSingle((resp, body) -> body.asString()
+            .map(str -> resp.status().code() + " " + str));
+
+    StepVerifier.create(Flux.merge(
+        deposit.apply(Money.parse("5.00")), deposit.apply(Money.parse("5.00"))))
+        .expectNext("200 {\"balance\":5.00}", "200 {\"balance\":5.00}")
+        .verifyComplete();
+    StepVerifier.create(deposit.apply(Money.parse("5.00")))
+        .expectNext("200 {\"balance\":5.00}")
+        .verifyComplete();
+    StepVerifier.create(deposit.apply(Money.parse("6.00")))
+        .assertNext(str -> assertTrue(str.startsWith("422 ")))
+        .verifyComplete();
+
+    StepVerifier.create(get("/accounts/" + acc.getId(), Account.class))
+        .expectNext(new Account(acc.getId(), "TEST ACC", Money.parse("5.00")))
+        .verifyComplete();
+  }
+
+  @Test
+  public void createTransfersBatch() {
+    var accA = post("/accounts",
+        new CreateAccountRequest("TEST ACC A"),
+        CreateAccountResponse.class)
+        .map(CreateAccountResponse::getAccount)
+        .blockFirst();
+    var accB = post("/accounts",
+        new CreateAccountRequest("TEST ACC B"),
+        CreateAccountResponse.class)
+        .map(CreateAccountResponse::getAccount)
+        .blockFirst();
+    post(String.format("/accounts/%d/deposits", accA.getId()),
+        new CreateDepositRequest(accA.getId(), Money.parse("10.00")),
+        CreateDepositResponse.class)
+        .blockFirst();
+
+    Flux<String> lines = Flux.just(
+        gson.toJson(new CreateTransferRequest(accA.getId(), accB.getId(), Money.parse("4.00"))),
+        gson.toJson(new CreateTransferRequest(accA.getId(), accB.getId(), Money.parse("7.00"))),
+        "{not json",
+        "",
+        String.format("{\"toAccount\": %d, \"amount\": \"1.00\"}", accB.getId()),
+        gson.toJson(new CreateTransferRequest(accA.getId(), accB.getId(), Money.parse("6.00"))))
+        .map(line -> line + "\n");
+
+    Flux<BatchTransferResult> results = HttpClient.create()
+        .post()
+        .uri(urlPrefix + "/transfers:batch")
+        .send(ByteBufFlux.fromString(lines))
+        .response((resp, body) -> body.asString())
+        .flatMapIterable(chunk -> Arrays.asList(chunk.split("\n")))
+        .map(line -> gson.fromJson(line, BatchTransferResult.class));
+
+    StepVerifier.create(results)
+        .expectNext(new BatchTransferResult(0, Money.parse("6.00"), null, null))
+        .assertNext(result -> assertEquals("InsufficientFunds", result.getError()))
+        .assertNext(result -> assertEquals("BadInputException", result.getError()))
+        .assertNext(result -> {
+          assertEquals(3, result.getIndex());
+          assertEquals("BadInputException", result.getError());
+        })
+        .assertNext(result -> assertEquals("BadInputException", result.getError()))
+        .expectNext(new BatchTransferResult(5, Money.parse("0.00"), null, null))
+        .expectComplete()
+        .verify(Duration.ofSeconds(5));
+  }
+
+  @Test
+  public void listTransactionsPaged() {
+    var accA = post("/accounts",
+        new CreateAccountRequest("TEST ACC A"),
+        CreateAccountResponse.class)
+        .map(CreateAccountResponse::getAccount)
+        .blockFirst();
+    var accB = post("/accounts",
+        new CreateAccountRequest("TEST ACC B"),
+        CreateAccountResponse.class)
+        .map(CreateAccountResponse::getAccount)
+        .blockFirst();
+    post(String.format("/accounts/%d/deposits", accA.getId()),
+        new CreateDepositRequest(accA.getId(), Money.parse("10.00")),
+        CreateDepositResponse.class)
+        .blockFirst();
+    for (int i = 0; i < 3; i++) {
+      post(String.format("/accounts/%d/transfers", accA.getId()),
+          new CreateTransferRequest(accA.getId(), accB.getId(), Money.parse("1.00")),
+          CreateTransferResponse.class)
+          .blockFirst();
+    }
+
+    String uri = String.format("/accounts/%d/transactions?limit=3", accA.getId());
+    History first = get(uri, History.class).blockFirst();
+    assertEquals(3, first.transactions.size());
+    assertNotNull(first.next);
+    History second = get(uri + "&cursor=" + first.next, History.class).blockFirst();
+    assertEquals(1, second.transactions.size());
+    assertNull(second.next);
+
+    Transaction deposit = second.transactions.get(0);
+    assertNull(deposit.getFromAccount());
+    assertEquals(Money.parse("10.00"), deposit.getAmount());
+    long previous = Long.MAX_VALUE;
+    for (Transaction tx : first.transactions) {
+      assertEquals(accB.getId(), tx.getToAccount());
+      assertTrue(tx.getId() < previous);
+      previous = tx.getId();
+    }
+    assertTrue(deposit.getId() < previous);
+
+    History received = get(String.format("/accounts/%d/transactions", accB.getId()),
+        History.class).blockFirst();
+    assertEquals(3, received.transactions.size());
+    assertNull(received.next);
+  }
+
+  @Test
+  public void listTransactionsErrors() {
+    Function<String, Mono<Integer>> status = uri -> HttpClient.create()
+        .get()
+        .uri(urlPrefix + uri)
+        .responseSingle((resp, body) -> body.then(Mono.just(resp.status().code())));
+
+    StepVerifier.create(status.apply("/accounts/" + Long.MAX_VALUE + "/transactions"))
+        .expectNext(404)
         .verifyComplete();
+    var acc = post("/accounts",
+        new CreateAccountRequest("TEST ACC"),
+        CreateAccountResponse.class)
+        .map(CreateAccountResponse::getAccount)
+        .blockFirst();
+    StepVerifier.create(status.apply(
+        String.format("/accounts/%d/transactions?cursor=bogus", acc.getId())))
+        .expectNext(422)
+        .verifyComplete();
+    StepVerifier.create(status.apply(
+        String.format("/accounts/%d/transactions?limit=0", acc.getId())))
+        .expectNext(422)
+        .verifyComplete();
+  }
+
+  @Test
+  public void metricsAreExposed() {
+    post("/accounts", new CreateAccountRequest("TEST ACC"), CreateAccountResponse.class)
+        .blockFirst();
 
+    String metrics = HttpClient.create()
+        .get()
+        .uri(urlPrefix + "/metrics")
+        .responseContent()
+        .aggregate()
+        .asString()
+        .block();
+
+    assertTrue(metrics.contains(
+        "http_server_requests_seconds_count{route=\"createAccount\",status=\"201\",}"));
+    assertTrue(metrics.contains("reactor_netty_eventloop_pending_tasks"));
   }
 
   private <T> Flux<T> get(String uri, Class<T> respClass) {
@@ -216,6 +439,12 @@ public class IntegrationTest {
         });
   }
 
+  private static class History {
+
+    List<Transaction> transactions;
+    String next;
+  }
+
   private Publisher<ByteBuf> toJson(Object obj) {
     String data = gson.toJson(obj);
     return ByteBufFlux.fromString(Mono.just(data));
@@ -0,0 +1,109 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateAccountResponse;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateDepositResponse;
+import revolut.models.CreateTransferRequest;
+import revolut.models.Money;
+
+public class JsonCodecTest {
+
+  private final Gson gson = new Gson();
+  private final JsonCodec codec = new JsonCodec(gson);
+
+  @Test
+  public void decodesTransferRequest() {
+    assertEquals(new CreateTransferRequest(null, 99L, Money.parse("41.99")),
+        decode("{\"amount\": \"41.99\", \"toAccount\": 99}", CreateTransferRequest.class));
+    assertEquals(new CreateTransferRequest(1L, 2L, Money.parse("1E+3")),
+        decode(" {\"fromAccount\":\"1\",\"toAccount\":2,\"amount\":1e3} ",
+            CreateTransferRequest.class));
+  }
+
+  @Test
+  public void decodesAmountsLikeGson() {
+    String[] amounts = {"0.10", "-5", "19.00", "1.5E-2", "0.125", "\"7.1\"",
+        "92233720368547758.07", "1234567890123456789.0e-2"};
+    for (String amount : amounts) {
+      String json = "{\"accountID\": 7, \"amount\": " + amount + "}";
+      assertEquals(gson.fromJson(json, CreateDepositRequest.class),
+          decode(json, CreateDepositRequest.class));
+    }
+  }
+
+  @Test(expected = JsonSyntaxException.class)
+  public void rejectsAmountOutOfRange() {
+    decode("{\"accountID\": 7, \"amount\": 92233720368547758.08}",
+        CreateDepositRequest.class);
+  }
+
+  @Test(expected = JsonSyntaxException.class)
+  public void rejectsExponentOutOfRange() {
+    decode("{\"accountID\": 7, \"amount\": 1e-9999999999}", CreateDepositRequest.class);
+  }
+
+  @Test(timeout = 1000, expected = JsonSyntaxException.class)
+  public void rejectsHugeAmountsQuickly() {
+    decode("{\"accountID\": 7, \"amount\": 1e9999999}", CreateDepositRequest.class);
+  }
+
+  @Test
+  public void skipsUnknownFields() {
+    assertEquals(new CreateAccountRequest("A \"quoted\" \u00e7\u00e3o \uD83D\uDE00"),
+        decode("{\"extra\": {\"a\": [1, \"}\", null]}, "
+                + "\"name\": \"A \\\"quoted\\\" \u00e7\u00e3o \\uD83D\\uDE00\", \"flag\": true}",
+            CreateAccountRequest.class));
+  }
+
+  @Test
+  public void emptyBodyDecodesToNull() {
+    assertNull(decode("", CreateAccountRequest.class));
+  }
+
+  @Test(expected = JsonSyntaxException.class)
+  public void rejectsTruncatedInput() {
+    decode("{\"amount\": \"41.99\"", CreateTransferRequest.class);
+  }
+
+  @Test(expected = JsonSyntaxException.class)
+  public void rejectsTrailingData() {
+    decode("{\"name\": \"A\"} {}", CreateAccountRequest.class);
+  }
+
+  @Test
+  public void encodesLikeGson() {
+    var response = new CreateAccountResponse(
+        new Account(1L, "\u00e7\u00e3o \uD83D\uDE00 <b>", Money.parse("10.50")));
+    ByteBuf buf = codec.encode(ByteBufAllocator.DEFAULT, response);
+    try {
+      assertEquals(gson.toJson(response), buf.toString(StandardCharsets.UTF_8));
+    } finally {
+      buf.release();
+    }
+  }
+
+  @Test
+  public void encodesMoneyWithTwoDecimals() {
+    assertEquals("{\"balance\":0.00}", gson.toJson(new CreateDepositResponse(Money.ZERO)));
+    assertEquals("{\"balance\":-0.05}",
+        gson.toJson(new CreateDepositResponse(Money.ofMinor(-5))));
+    assertEquals("{\"balance\":1234.50}",
+        gson.toJson(new CreateDepositResponse(Money.parse("1234.5"))));
+  }
+
+  private <T> T decode(String json, Class<T> type) {
+    return codec.decode(Unpooled.copiedBuffer(json, StandardCharsets.UTF_8), type);
+  }
+}
@@ -0,0 +1,195 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.test.StepVerifier;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+
+public class LedgerAccountDAOTest {
+
+  private DataConfig config;
+  private Sql2o db;
+  private Scheduler scheduler;
+
+  @Before
+  public void setUp() throws Exception {
+    config = App.createDataConfig();
+    config.ledger.snapshotIntervalMs = 3_600_000;
+    db = App.createDB(config);
+    scheduler = App.createScheduler(config.scheduler);
+  }
+
+  @After
+  public void tearDown() {
+    scheduler.dispose();
+  }
+
+  @Test
+  public void transfersAreRecordedAsBalancedEntries() {
+    try (var dao = new LedgerAccountDAO(db, config, scheduler)) {
+      Long a = createAccount(dao, "LEDGER A", "100.00");
+      Long b = createAccount(dao, "LEDGER B", "0.00");
+
+      assertEquals(Money.parse("70.00"),
+          dao.createTransfer(new CreateTransferRequest(a, b, Money.parse("30.00"))).block());
+      StepVerifier.create(
+          dao.createTransfer(new CreateTransferRequest(a, b, Money.parse("70.01"))))
+          .expectError(InsufficientFunds.class)
+          .verify();
+      StepVerifier.create(
+          dao.createTransfer(new CreateTransferRequest(a, -1L, Money.parse("1.00"))))
+          .expectError(AccountNotFound.class)
+          .verify();
+
+      assertEquals(Money.parse("70.00"), dao.findAccount(a).block().getBalance());
+      assertEquals(Money.parse("30.00"), dao.findAccount(b).block().getBalance());
+      assertEquals(2, dao.listTransactions(b, null, 10).count().block().intValue());
+      try (Connection conn = db.open()) {
+        BigDecimal sum = conn.createQuery("SELECT SUM(amount) FROM ledger_entries "
+            + "WHERE tx_id IN (SELECT id FROM transactions WHERE from_acc = :a)")
+            .addParameter("a", a)
+            .executeScalar(BigDecimal.class);
+        assertEquals(0, sum.signum());
+      }
+    }
+  }
+
+  @Test
+  public void snapshotsKeepBalances() {
+    config.ledger.snapshotAfterEntries = 2;
+    try (var dao = new LedgerAccountDAO(db, config, scheduler)) {
+      Long a = createAccount(dao, "SNAPSHOT A", "50.00");
+      Long b = createAccount(dao, "SNAPSHOT B", "0.00");
+      dao.snapshotBalances();
+      // a has only its deposit entry, not enough for a snapshot yet
+      assertNull(snapshotEntry(a));
+
+      dao.createTransfer(new CreateTransferRequest(a, b, Money.parse("20.00"))).block();
+      dao.snapshotBalances();
+      assertEquals(lastEntry(a), snapshotEntry(a));
+
+      dao.createTransfer(new CreateTransferRequest(b, a, Money.parse("5.00"))).block();
+      assertEquals(Money.parse("35.00"), dao.findAccount(a).block().getBalance());
+      assertEquals(Money.parse("15.00"), dao.findAccount(b).block().getBalance());
+    }
+  }
+
+  @Test
+  public void rebuildMatchesIncrementalSnapshots() {
+    config.ledger.snapshotAfterEntries = 1;
+    try (var dao = new LedgerAccountDAO(db, config, scheduler)) {
+      Long a = createAccount(dao, "REBUILD A", "10.00");
+      Long b = createAccount(dao, "REBUILD B", "10.00");
+      for (int i = 0; i < 5; i++) {
+        dao.createTransfer(new CreateTransferRequest(a, b, Money.parse("1.00"))).block();
+        dao.snapshotBalances();
+      }
+      dao.createTransfer(new CreateTransferRequest(b, a, Money.parse("2.50"))).block();
+
+      dao.rebuildSnapshots();
+      assertEquals(lastEntry(a), snapshotEntry(a));
+      assertEquals(Money.parse("7.50"), dao.findAccount(a).block().getBalance());
+      assertEquals(Money.parse("12.50"), dao.findAccount(b).block().getBalance());
+    }
+  }
+
+  @Test
+  public void opensLedgerWithExistingBalances() {
+    var plain = new AccountDAOImpl(db, config, scheduler);
+    Long a = createAccount(plain, "OPENING", "42.00");
+
+    try (var dao = new LedgerAccountDAO(db, config, scheduler)) {
+      assertEquals(Money.parse("42.00"), dao.findAccount(a).block().getBalance());
+    }
+    try (var dao = new LedgerAccountDAO(db, config, scheduler)) {
+      assertEquals(Money.parse("42.00"), dao.findAccount(a).block().getBalance());
+    }
+  }
+
+  @Test
+  public void concurrentTransfersConserveBalance() throws Exception {
+    config.ledger.snapshotIntervalMs = 1;
+    config.ledger.snapshotAfterEntries = 4;
+    ExecutorService clients = Executors.newFixedThreadPool(16);
+    try (var dao = new LedgerAccountDAO(db, config, scheduler)) {
+      List<Long> ids = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        ids.add(createAccount(dao, "LEDGER HOT " + i, "1000.00"));
+      }
+
+      List<Future<?>> running = new ArrayList<>();
+      for (int t = 0; t < 16; t++) {
+        running.add(clients.submit(() -> {
+          var random = ThreadLocalRandom.current();
+          for (int i = 0; i < 100; i++) {
+            Long from = ids.get(random.nextInt(ids.size()));
+            Long to = ids.get(random.nextInt(ids.size()));
+            if (from.equals(to)) {
+              continue;
+            }
+            var amount = Money.ofMinor(random.nextInt(1, 5000));
+            dao.createTransfer(new CreateTransferRequest(from, to, amount))
+                .onErrorResume(InsufficientFunds.class, e -> Mono.empty())
+                .block();
+          }
+        }));
+      }
+      for (Future<?> f : running) {
+        f.get();
+      }
+
+      Money total = ids.stream()
+          .map(id -> dao.findAccount(id).block())
+          .map(Account::getBalance)
+          .reduce(Money.ZERO, Money::plus);
+      assertEquals(Money.parse("4000.00"), total);
+      for (Long id : ids) {
+        assertEquals(false, dao.findAccount(id).block().getBalance().isNegative());
+      }
+    } finally {
+      clients.shutdownNow();
+    }
+  }
+
+  private Long snapshotEntry(Long account) {
+    try (Connection conn = db.open()) {
+      return conn.createQuery("SELECT entry_id FROM balance_snapshots WHERE account_id = :id")
+          .addParameter("id", account)
+          .executeScalar(Long.class);
+    }
+  }
+
+  private Long lastEntry(Long account) {
+    try (Connection conn = db.open()) {
+      return conn.createQuery("SELECT MAX(id) FROM ledger_entries WHERE account_id = :id")
+          .addParameter("id", account)
+          .executeScalar(Long.class);
+    }
+  }
+
+  private Long createAccount(AccountDAO dao, String name, String balance) {
+    Long id = dao.createAccount(new CreateAccountRequest(name)).block().getId();
+    dao.createDeposit(new CreateDepositRequest(id, Money.parse(balance))).block();
+    return id;
+  }
+}
@@ -0,0 +1,59 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import org.junit.Test;
+import revolut.models.Money;
+
+public class MoneyTest {
+
+  @Test
+  public void roundsHalfUpToMinorUnits() {
+    assertEquals(1999, Money.parse("19.99").minorUnits());
+    assertEquals(13, Money.parse("0.125").minorUnits());
+    assertEquals(-13, Money.parse("-0.125").minorUnits());
+    assertEquals(100000, Money.parse("1E+3").minorUnits());
+  }
+
+  @Test
+  public void printsLikeScaledBigDecimal() {
+    long[] values = {0, 5, -5, 99, 100, -100, 123456, Long.MAX_VALUE, Long.MIN_VALUE};
+    for (long value : values) {
+      assertEquals(BigDecimal.valueOf(value, 2).toPlainString(),
+          Money.ofMinor(value).toString());
+    }
+  }
+
+  @Test
+  public void comparesByValue() {
+    assertEquals(Money.parse("1.5"), Money.parse("1.50"));
+    assertTrue(Money.parse("1.00").compareTo(Money.parse("0.99")) > 0);
+    assertEquals(Money.parse("0.01"), Money.parse("1.00").minus(Money.parse("0.99")));
+    assertEquals(Money.parse("1.99"), Money.parse("1.00").plus(Money.parse("0.99")));
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void plusFailsOnOverflow() {
+    Money.ofMinor(Long.MAX_VALUE).plus(Money.ofMinor(1));
+  }
+
+  @Test(expected = ArithmeticException.class)
+  public void parseFailsOutOfRange() {
+    Money.parse("92233720368547758.08");
+  }
+
+  @Test(timeout = 1000, expected = ArithmeticException.class)
+  public void parseRejectsHugeExponentsQuickly() {
+    Money.parse("1e9999999");
+  }
+
+  @Test(timeout = 1000)
+  public void parseRoundsTinyAmountsToZeroQuickly() {
+    assertEquals(Money.ZERO, Money.parse("1e-9999999"));
+    assertEquals(Money.ZERO, Money.parse("0e9999999"));
+    assertEquals(Money.ZERO, Money.parse("0.0049"));
+    assertEquals(1, Money.parse("0.005").minorUnits());
+  }
+}
@@ -0,0 +1,50 @@
+package revolut;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+public class NdjsonLinesTest {
+
+  @Test
+  public void splitsLinesAcrossChunks() {
+    byte[] body = "{\"a\":1}\r\n\n{\"b\":\"\u00e7\u00e3o\"}\n{\"c\":3}".getBytes(StandardCharsets.UTF_8);
+    // cut inside the CRLF and inside the multi-byte characters
+    Flux<ByteBuf> chunks = Flux.just(
+        Arrays.copyOfRange(body, 0, 8),
+        Arrays.copyOfRange(body, 8, 18),
+        Arrays.copyOfRange(body, 18, body.length))
+        .map(Unpooled::wrappedBuffer);
+
+    StepVerifier.create(NdjsonLines.split(chunks, 64).map(NdjsonLinesTest::string))
+        .expectNext("{\"a\":1}", "", "{\"b\":\"\u00e7\u00e3o\"}", "{\"c\":3}")
+        .verifyComplete();
+  }
+
+  @Test
+  public void ignoresOnlyTheEmptyLineAfterTheLastNewline() {
+    Flux<ByteBuf> chunks = Flux.just("{}\n", " \n")
+        .map(str -> Unpooled.copiedBuffer(str, StandardCharsets.UTF_8));
+
+    StepVerifier.create(NdjsonLines.split(chunks, 16).map(NdjsonLinesTest::string))
+        .expectNext("{}", " ")
+        .verifyComplete();
+  }
+
+  @Test
+  public void rejectsLongLines() {
+    Flux<ByteBuf> chunks = Flux.just("0123456789", "0123456789\n")
+        .map(str -> Unpooled.copiedBuffer(str, StandardCharsets.UTF_8));
+
+    StepVerifier.create(NdjsonLines.split(chunks, 16))
+        .verifyError(BadInputException.class);
+  }
+
+  private static String string(byte[] line) {
+    return new String(line, StandardCharsets.UTF_8);
+  }
+}
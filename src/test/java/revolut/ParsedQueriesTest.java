@@ -0,0 +1,38 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+import org.sql2o.quirks.parameterparsing.impl.DefaultSqlParameterParsingStrategy;
+import revolut.models.DaoConfigQueries;
+import revolut.models.DataConfig;
+
+public class ParsedQueriesTest {
+
+  private final DataConfig config = App.createDataConfig();
+  private final ParsedQueries parsed = new ParsedQueries(config.queries);
+  private final DefaultSqlParameterParsingStrategy parser =
+      new DefaultSqlParameterParsingStrategy();
+
+  @Test
+  public void configuredQueriesParseLikeSql2o() throws IllegalAccessException {
+    for (Field field : DaoConfigQueries.class.getFields()) {
+      String sql = (String) field.get(config.queries);
+      Map<String, List<Integer>> expected = new HashMap<>();
+      Map<String, List<Integer>> actual = new HashMap<>();
+      assertEquals(field.getName(), parser.parseSql(sql, expected), parsed.parseSql(sql, actual));
+      assertEquals(field.getName(), expected, actual);
+    }
+  }
+
+  @Test
+  public void otherSqlIsParsedOnDemand() {
+    Map<String, List<Integer>> positions = new HashMap<>();
+    assertEquals("SELECT ? + ?", parsed.parseSql("SELECT :a + :a", positions));
+    assertEquals(Map.of("a", List.of(1, 2)), positions);
+  }
+}
@@ -0,0 +1,251 @@
+package revolut;
+
+import static org.junit.Assert.*;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.sql2o.Sql2o;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateAccountResponse;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.PartitionCredit;
+
+/** Two nodes in one JVM, each with its own in-memory database and half of the accounts. */
+public class PartitionTest {
+
+  private static final long RANGE_SIZE = 1_000_000;
+
+  private static final String SECRET = "partition-test-secret";
+
+  private static final List<DisposableServer> servers = new ArrayList<>();
+
+  private static final List<Partition> partitions = new ArrayList<>();
+
+  private static final List<HttpClient> clients = new ArrayList<>();
+
+  private final Gson gson = new Gson();
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    List<String> nodes = List.of("http://localhost:" + freePort(),
+        "http://localhost:" + freePort());
+    for (int self = 0; self < nodes.size(); self++) {
+      DataConfig config = App.createDataConfig();
+      config.connection.url = String.format("jdbc:h2:mem:partition%d;DB_CLOSE_DELAY=-1;"
+          + "mode=mysql;INIT=RUNSCRIPT FROM 'classpath:/sql/create_schema.sql';", self);
+      config.partitioning.enabled = true;
+      config.partitioning.nodes = nodes;
+      config.partitioning.self = self;
+      config.partitioning.rangeSize = RANGE_SIZE;
+      config.partitioning.recoveryIntervalMs = 100;
+      config.partitioning.secret = SECRET;
+      Sql2o db = App.createDB(config);
+      Scheduler scheduler = App.createScheduler(config.scheduler);
+      Partition partition = new Partition(db, config, scheduler);
+      AccountDAO dao = App.createDAO(db, config, scheduler, partition, null);
+      App app = new App(new AccountController(dao), App.createMeterRegistry(), null, null,
+          partition, null);
+      partitions.add(partition);
+      servers.add(app.bindNow());
+      clients.add(HttpClient.create().baseUrl(nodes.get(self)));
+    }
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    servers.forEach(DisposableServer::disposeNow);
+    partitions.forEach(Partition::close);
+  }
+
+  @Test
+  public void nodesCreateAccountsInTheirOwnRange() {
+    assertEquals(0, (createAccount(0) - 1) / RANGE_SIZE);
+    assertEquals(1, (createAccount(1) - 1) / RANGE_SIZE);
+  }
+
+  @Test
+  public void depositToAccountOfOtherNode() {
+    long id = createAccount(1);
+
+    assertEquals(200, post(0, String.format("/accounts/%d/deposits", id),
+        new CreateDepositRequest(id, Money.parse("12.50"))));
+
+    assertEquals(Money.parse("12.50"), balance(1, id));
+    assertEquals(Money.parse("12.50"), balance(0, id));
+  }
+
+  @Test
+  public void transferToAccountOfOtherNode() {
+    long from = createAccount(0);
+    long to = createAccount(1);
+    post(0, String.format("/accounts/%d/deposits", from),
+        new CreateDepositRequest(from, Money.parse("100.00")));
+
+    assertEquals(200, post(0, String.format("/accounts/%d/transfers", from),
+        new CreateTransferRequest(from, to, Money.parse("40.00"))));
+
+    assertEquals(Money.parse("60.00"), balance(0, from));
+    assertEquals(Money.parse("40.00"), balance(1, to));
+    assertEquals(1, history(0, to).length);
+    assertEquals(2, history(1, from).length);
+  }
+
+  @Test
+  public void transferFromAccountOfOtherNodeIsForwarded() {
+    long from = createAccount(1);
+    long to = createAccount(0);
+    post(1, String.format("/accounts/%d/deposits", from),
+        new CreateDepositRequest(from, Money.parse("30.00")));
+
+    assertEquals(200, post(0, String.format("/accounts/%d/transfers", from),
+        new CreateTransferRequest(from, to, Money.parse("30.00"))));
+
+    assertEquals(Money.ZERO, balance(1, from));
+    assertEquals(Money.parse("30.00"), balance(0, to));
+  }
+
+  @Test
+  public void insufficientFundsLeaveBothAccountsAlone() {
+    long from = createAccount(0);
+    long to = createAccount(1);
+    post(0, String.format("/accounts/%d/deposits", from),
+        new CreateDepositRequest(from, Money.parse("10.00")));
+
+    assertEquals(422, post(0, String.format("/accounts/%d/transfers", from),
+        new CreateTransferRequest(from, to, Money.parse("50.00"))));
+
+    assertEquals(Money.parse("10.00"), balance(0, from));
+    assertEquals(Money.ZERO, balance(1, to));
+  }
+
+  @Test
+  public void missingAccountOfOtherNodeGivesTheReservationBack() {
+    long from = createAccount(0);
+    long missing = RANGE_SIZE + RANGE_SIZE - 1;
+    post(0, String.format("/accounts/%d/deposits", from),
+        new CreateDepositRequest(from, Money.parse("10.00")));
+
+    assertEquals(404, get(0, "/accounts/" + missing).status);
+    assertEquals(404, post(0, String.format("/accounts/%d/transfers", from),
+        new CreateTransferRequest(from, missing, Money.parse("5.00"))));
+
+    assertEquals(Money.parse("10.00"), balance(0, from));
+  }
+
+  @Test
+  public void partitionRoutesNeedTheSecret() {
+    long to = createAccount(1);
+    var credit = new PartitionCredit(UUID.randomUUID().toString(), 1L, to,
+        Money.parse("1000.00"));
+
+    assertEquals(403, send(1, "/partition/credits", credit, null).status);
+    assertEquals(403, send(1, "/partition/credits/" + credit.getId() + "/commit", credit,
+        "wrong").status);
+
+    assertEquals(Money.ZERO, balance(1, to));
+  }
+
+  @Test
+  public void onlyPreparedCreditsAreCommitted() {
+    long to = createAccount(1);
+    var credit = new PartitionCredit(UUID.randomUUID().toString(), 1L, to,
+        Money.parse("25.00"));
+    String commit = "/partition/credits/" + credit.getId() + "/commit";
+
+    assertEquals(409, send(1, commit, credit, SECRET).status);
+    assertEquals(200, send(1, "/partition/credits", credit, SECRET).status);
+    assertEquals(422, send(1, "/partition/credits/other/commit", credit, SECRET).status);
+    assertEquals(409, send(1, commit,
+        new PartitionCredit(credit.getId(), 1L, to, Money.parse("2500.00")), SECRET).status);
+    assertEquals(Money.ZERO, balance(1, to));
+
+    assertEquals(200, send(1, commit, credit, SECRET).status);
+    assertEquals(200, send(1, commit, credit, SECRET).status);
+    assertEquals(Money.parse("25.00"), balance(1, to));
+  }
+
+  private static int freePort() throws IOException {
+    try (ServerSocket socket = new ServerSocket(0)) {
+      return socket.getLocalPort();
+    }
+  }
+
+  private long createAccount(int node) {
+    Response resp = send(node, "/accounts", new CreateAccountRequest("PARTITION"));
+    return gson.fromJson(resp.body, CreateAccountResponse.class).getAccount().getId();
+  }
+
+  private Money balance(int node, long id) {
+    return gson.fromJson(get(node, "/accounts/" + id).body, Account.class).getBalance();
+  }
+
+  private Object[] history(int node, long id) {
+    Response resp = get(node, String.format("/accounts/%d/transactions", id));
+    return gson.fromJson(resp.body, History.class).transactions;
+  }
+
+  private int post(int node, String uri, Object body) {
+    return send(node, uri, body).status;
+  }
+
+  private Response send(int node, String uri, Object body) {
+    return send(node, uri, body, null);
+  }
+
+  private Response send(int node, String uri, Object body, String secret) {
+    return clients.get(node)
+        .headers(headers -> {
+          if (secret != null) {
+            headers.set(PartitionClient.SECRET_HEADER, secret);
+          }
+        })
+        .post()
+        .uri(uri)
+        .send(ByteBufFlux.fromString(Mono.just(gson.toJson(body))))
+        .responseSingle((resp, content) -> content.asString()
+            .defaultIfEmpty("")
+            .map(json -> new Response(resp.status().code(), json)))
+        .block();
+  }
+
+  private Response get(int node, String uri) {
+    return clients.get(node).get()
+        .uri(uri)
+        .responseSingle((resp, content) -> content.asString()
+            .defaultIfEmpty("")
+            .map(json -> new Response(resp.status().code(), json)))
+        .block();
+  }
+
+  private static class Response {
+
+    final int status;
+    final String body;
+
+    Response(int status, String body) {
+      this.status = status;
+      this.body = body;
+    }
+  }
+
+  private static class History {
+
+    Object[] transactions;
+  }
+}
@@ -0,0 +1,113 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.Transaction;
+
+public class R2dbcAccountDAOTest {
+
+  private R2dbcAccountDAO dao;
+
+  @Before
+  public void setUp() {
+    DataConfig config = App.createDataConfig();
+    dao = new R2dbcAccountDAO(App.createConnectionPool(config.connection), config);
+  }
+
+  @After
+  public void tearDown() {
+    dao.close();
+  }
+
+  @Test
+  public void createsAndFindsAccounts() {
+    Account created = dao.createAccount(new CreateAccountRequest("R2DBC")).block();
+
+    StepVerifier.create(dao.findAccount(created.getId()))
+        .expectNext(new Account(created.getId(), "R2DBC", Money.ZERO))
+        .verifyComplete();
+    StepVerifier.create(dao.findAccount(-1L))
+        .verifyComplete();
+  }
+
+  @Test
+  public void depositsAndTransfers() {
+    Long a = createAccount("R2DBC A", "10.00");
+    Long b = createAccount("R2DBC B", "0.00");
+
+    StepVerifier.create(dao.createTransfer(new CreateTransferRequest(a, b, Money.parse("4.00"))))
+        .expectNext(Money.parse("6.00"))
+        .verifyComplete();
+    StepVerifier.create(dao.createTransfer(new CreateTransferRequest(a, b, Money.parse("7.00"))))
+        .expectErrorMessage("Insufficient funds on account " + a + ": "
+            + String.format("%.2f", Money.parse("6.00").toBigDecimal()))
+        .verify();
+    StepVerifier.create(dao.createTransfer(new CreateTransferRequest(a, -1L, Money.parse("1.00"))))
+        .expectError(AccountNotFound.class)
+        .verify();
+    StepVerifier.create(dao.createTransfer(new CreateTransferRequest(a, a, Money.parse("1.00"))))
+        .expectError(CannotTransferSameAccount.class)
+        .verify();
+    StepVerifier.create(dao.createDeposit(new CreateDepositRequest(-1L, Money.parse("1.00"))))
+        .expectError(AccountNotFound.class)
+        .verify();
+
+    assertEquals(Money.parse("6.00"), dao.findAccount(a).block().getBalance());
+    assertEquals(Money.parse("4.00"), dao.findAccount(b).block().getBalance());
+
+    // newest first, after the opening deposit
+    List<Transaction> history = dao.listTransactions(b, null, 10).collectList().block();
+    assertEquals(2, history.size());
+    assertEquals(a, history.get(0).getFromAccount());
+    assertEquals(Money.parse("4.00"), history.get(0).getAmount());
+  }
+
+  @Test
+  public void manyConcurrentTransfersConserveBalance() {
+    List<Long> ids = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      ids.add(createAccount("R2DBC HOT " + i, "1000.00"));
+    }
+
+    // all in flight at once from a single thread
+    Flux<Money> transfers = Flux.range(0, 2000)
+        .flatMap(i -> {
+          var random = ThreadLocalRandom.current();
+          Long from = ids.get(random.nextInt(ids.size()));
+          Long to = ids.get((ids.indexOf(from) + 1 + random.nextInt(ids.size() - 1))
+              % ids.size());
+          return dao.createTransfer(new CreateTransferRequest(from, to,
+              Money.ofMinor(random.nextInt(1, 5000))))
+              .onErrorResume(InsufficientFunds.class, e -> Mono.empty());
+        }, Integer.MAX_VALUE);
+    transfers.blockLast(Duration.ofSeconds(30));
+
+    Money total = ids.stream()
+        .map(id -> dao.findAccount(id).block())
+        .map(Account::getBalance)
+        .reduce(Money.ZERO, Money::plus);
+    assertEquals(Money.parse("4000.00"), total);
+  }
+
+  private Long createAccount(String name, String balance) {
+    Long id = dao.createAccount(new CreateAccountRequest(name)).block().getId();
+    dao.createDeposit(new CreateDepositRequest(id, Money.parse(balance))).block();
+    return id;
+  }
+}
@@ -0,0 +1,56 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+public class ReactiveLocksTest {
+
+  private final ReactiveLocks locks = new ReactiveLocks(16, Schedulers.parallel());
+
+  @Test
+  public void serializesOperationsOnTheSameAccount() {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    Flux<Integer> ops = Flux.range(0, 50)
+        .flatMap(i -> locks.withLocks(() -> Mono.fromSupplier(() -> {
+          maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+          return i;
+        })
+            .delayElement(Duration.ofMillis(1))
+            .doOnNext(ign -> running.decrementAndGet()), 1L, i % 2 == 0 ? 2L : 3L));
+
+    StepVerifier.create(ops.count())
+        .expectNext(50L)
+        .verifyComplete();
+    assertEquals(1, maxRunning.get());
+  }
+
+  @Test
+  public void longQueuesDoNotGrowTheStack() {
+    Flux<Integer> ops = Flux.range(0, 20_000)
+        .flatMap(i -> locks.withLocks(() -> Mono.just(i), 1L), Integer.MAX_VALUE);
+
+    StepVerifier.create(ops.count())
+        .expectNext(20_000L)
+        .expectComplete()
+        .verify(Duration.ofSeconds(10));
+  }
+
+  @Test
+  public void cancelledOperationStillReleasesItsLock() {
+    locks.withLocks(() -> Mono.delay(Duration.ofMillis(50)), 1L)
+        .subscribe()
+        .dispose();
+
+    StepVerifier.create(locks.withLocks(() -> Mono.just("next"), 1L))
+        .expectNext("next")
+        .verifyComplete();
+  }
+}
@@ -0,0 +1,117 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Answers;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import revolut.models.Account;
+import revolut.models.CreateAccountRequest;
+import revolut.models.CreateDepositRequest;
+import revolut.models.CreateTransferRequest;
+import revolut.models.DataConfig;
+import revolut.models.Money;
+import revolut.models.ReadModelConfig;
+
+public class ReadModelAccountDAOTest {
+
+  private ReadModel readModel;
+  private AccountDAO delegate;
+  private ReadModelAccountDAO dao;
+
+  @Before
+  public void setUp() throws Exception {
+    DataConfig config = App.createDataConfig();
+    var db = App.createDB(config);
+    delegate = new AccountDAOImpl(db, config, App.createScheduler(config.scheduler));
+    var readModelConfig = new ReadModelConfig();
+    readModelConfig.enabled = true;
+    readModelConfig.maxStalenessMs = 1000;
+    readModel = new ReadModel(readModelConfig);
+    readModel.load(db, config);
+    dao = new ReadModelAccountDAO(delegate, readModel);
+  }
+
+  @After
+  public void tearDown() {
+    readModel.close();
+  }
+
+  @Test
+  public void committedWritesReachTheReadModel() throws Exception {
+    Long from = dao.createAccount(new CreateAccountRequest("FROM")).block().getId();
+    Long to = dao.createAccount(new CreateAccountRequest("TO")).block().getId();
+    dao.createDeposit(new CreateDepositRequest(from, Money.parse("50.00"))).block();
+    dao.createTransfer(new CreateTransferRequest(from, to, Money.parse("20.00"))).block();
+
+    long version = readModel.version();
+    assertEquals(Money.parse("30.00"), awaitProjected(from, version).getBalance());
+    assertEquals(Money.parse("20.00"), awaitProjected(to, version).getBalance());
+  }
+
+  @Test
+  public void failedWritesLeaveTheReadModelAlone() throws Exception {
+    Long id = dao.createAccount(new CreateAccountRequest("POOR")).block().getId();
+    Long to = dao.createAccount(new CreateAccountRequest("TO")).block().getId();
+
+    StepVerifier.create(dao.createTransfer(
+        new CreateTransferRequest(id, to, Money.parse("1.00"))))
+        .expectError(InsufficientFunds.class)
+        .verify();
+
+    assertEquals(Money.ZERO, awaitProjected(id, readModel.version()).getBalance());
+  }
+
+  @Test
+  public void writesWithUnknownOutcomeDropTheirAccounts() throws Exception {
+    Long id = dao.createAccount(new CreateAccountRequest("LOST")).block().getId();
+    var deposit = new CreateDepositRequest(id, Money.parse("0.01"));
+    AccountDAO broken = mock(AccountDAO.class, Answers.RETURNS_SMART_NULLS);
+    when(broken.createDeposit(deposit))
+        .thenReturn(Mono.error(new IllegalStateException("Connection reset")));
+    var failing = new ReadModelAccountDAO(broken, readModel);
+
+    StepVerifier.create(failing.createDeposit(deposit))
+        .expectError(IllegalStateException.class)
+        .verify();
+
+    // the drop is applied in the background like any other change
+    Thread.sleep(100);
+    assertNull(readModel.find(id, readModel.version()));
+    StepVerifier.create(dao.findAccount(id))
+        .expectNext(new Account(id, "LOST", Money.ZERO))
+        .verifyComplete();
+  }
+
+  @Test
+  public void lookupsWaitingForANewerVersionGoToTheDatabase() throws Exception {
+    Long id = dao.createAccount(new CreateAccountRequest("NEW")).block().getId();
+    awaitProjected(id, readModel.version());
+
+    assertNull(readModel.find(id, readModel.version() + 1));
+    StepVerifier.create(dao.findAccount(id)
+        .subscriberContext(ctx -> ctx.put(ReadModel.MIN_VERSION, readModel.version() + 1)))
+        .expectNext(new Account(id, "NEW", Money.ZERO))
+        .verifyComplete();
+  }
+
+  private Account awaitProjected(Long id, long version) throws InterruptedException {
+    for (int i = 0; i < 100; i++) {
+      Account acc = readModel.find(id, version);
+      if (acc != null) {
+        return acc;
+      }
+      Thread.sleep(10);
+    }
+    Account acc = readModel.find(id, version);
+    assertNotNull("account " + id + " was not projected", acc);
+    return acc;
+  }
+}
@@ -0,0 +1,88 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.gson.Gson;
+import java.util.List;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+import reactor.netty.ByteBufFlux;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.client.HttpClient;
+import revolut.models.CreateAccountRequest;
+import revolut.models.DataConfig;
+import revolut.models.ServerConfig;
+
+public class ServerConfigTest {
+
+  private static ServerConfig serverConfig;
+  private static AccountDAO dao;
+  private static DisposableServer server;
+  private static HttpClient client;
+  private final Gson gson = new Gson();
+
+  @BeforeClass
+  public static void setUp() {
+    DataConfig config = App.createDataConfig();
+    serverConfig = config.server;
+    serverConfig.port = 0;
+    serverConfig.protocols = List.of("http11", "h2c");
+    serverConfig.maxBodyBytes = 64;
+    serverConfig.workerThreads = 2;
+    var scheduler = App.createScheduler(config.scheduler);
+    dao = App.createDAO(App.createDB(config), config, scheduler);
+    server = new App(new AccountController(dao), App.createMeterRegistry(), null, null, null,
+        serverConfig).bindNow();
+    client = HttpClient.create().baseUrl(
+        String.format("http://%s:%d", server.host(), server.port()));
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    server.disposeNow();
+  }
+
+  @Test
+  public void acceptsBodiesWithinTheLimit() {
+    assertEquals(201, post(gson.toJson(new CreateAccountRequest("SMALL"))));
+  }
+
+  @Test
+  public void rejectsBodiesOverTheLimit() {
+    String name = "X".repeat(100);
+    assertEquals(413, post(gson.toJson(new CreateAccountRequest(name))));
+  }
+
+  @Test
+  public void disposesItsEventLoopsWithTheServer() throws Exception {
+    long before = loopThreads();
+    DisposableServer other = new App(new AccountController(dao), App.createMeterRegistry(),
+        null, null, null, serverConfig).bindNow();
+    assertTrue(loopThreads() > before);
+
+    other.disposeNow();
+    long deadline = System.currentTimeMillis() + 30_000;
+    while (loopThreads() > before && System.currentTimeMillis() < deadline) {
+      Thread.sleep(100);
+    }
+    assertEquals(before, loopThreads());
+  }
+
+  /** Live threads of the event loops created for {@code [server]}. */
+  private static long loopThreads() {
+    return Thread.getAllStackTraces().keySet().stream()
+        .filter(thread -> thread.isAlive() && thread.getName().startsWith("http-"))
+        .count();
+  }
+
+  private int post(String body) {
+    return client.post()
+        .uri("/accounts")
+        .send(ByteBufFlux.fromString(Mono.just(body)))
+        .responseSingle((resp, content) -> content.then(Mono.just(resp.status().code())))
+        .block();
+  }
+}
@@ -0,0 +1,130 @@
+package revolut;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.Before;
+import org.junit.Test;
+import revolut.WriteAheadLog.Record;
+import revolut.models.WalConfig;
+
+public class WriteAheadLogTest {
+
+  private WalConfig config;
+
+  @Before
+  public void setUp() throws Exception {
+    config = new WalConfig();
+    config.dir = Files.createTempDirectory("wal").toString();
+    config.segmentSize = 2 * WriteAheadLog.RECORD_SIZE;
+    config.fsync = "group";
+    config.fsyncIntervalMs = 10;
+  }
+
+  @Test
+  public void replaysRecordsAcrossSegments() throws Exception {
+    try (var log = new WriteAheadLog(config, neverFlushed())) {
+      for (long i = 1; i <= 5; i++) {
+        log.awaitDurable(log.append(i, i + 1, i * 100, i * 1000, i == 1 ? "key" : null)
+            .getSeq());
+      }
+    }
+    assertEquals(3, segments().size());
+
+    try (var log = new WriteAheadLog(config, neverFlushed())) {
+      List<Record> records = log.replay();
+      assertEquals(5, records.size());
+      for (int i = 0; i < 5; i++) {
+        Record record = records.get(i);
+        assertEquals(i + 1, record.getSeq());
+        assertEquals(i + 1, record.getFrom());
+        assertEquals(i + 2, record.getTo());
+        assertEquals((i + 1) * 100, record.getAmount());
+        assertEquals((i + 1) * 1000, record.getBalance());
+      }
+      assertEquals(IdempotencyStore.hash("key"), records.get(0).getIdempotencyKey());
+      assertNull(records.get(1).getIdempotencyKey());
+      assertEquals(6, log.append(1, 2, 100, 0, null).getSeq());
+    }
+  }
+
+  @Test
+  public void continuesAfterCheckpoint() throws Exception {
+    try (var log = new WriteAheadLog(config, neverFlushed())) {
+      log.replay();
+      log.advanceSeq(41);
+      Record record = log.append(1, 2, 100, 0, null);
+      assertEquals(42, record.getSeq());
+      assertTrue(record.getTimestamp() > 0);
+    }
+  }
+
+  @Test
+  public void stopsAtTornRecord() throws Exception {
+    config.segmentSize = 16 * WriteAheadLog.RECORD_SIZE;
+    config.fsync = "record";
+    try (var log = new WriteAheadLog(config, neverFlushed())) {
+      for (int i = 0; i < 3; i++) {
+        log.append(1, 2, 100, 0, null);
+      }
+    }
+    try (FileChannel channel = FileChannel.open(segments().get(0), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {42}), WriteAheadLog.RECORD_SIZE + 20);
+    }
+
+    try (var log = new WriteAheadLog(config, neverFlushed())) {
+      assertEquals(1, log.replay().size());
+    }
+  }
+
+  @Test
+  public void deletesSealedSegmentsOnceFlushed() throws Exception {
+    config.fsync = "interval";
+    AtomicLong flushed = new AtomicLong();
+    try (var log = new WriteAheadLog(config, seq -> seq <= flushed.get())) {
+      for (int i = 0; i < 5; i++) {
+        log.append(1, 2, 100, 0, null);
+      }
+      // nothing is in the database yet, so every segment stays
+      assertEquals(3, segments().size());
+
+      flushed.set(6);
+      log.append(1, 2, 100, 0, null);
+      log.append(1, 2, 100, 0, null);
+      awaitSegments(1);
+    }
+    try (var log = new WriteAheadLog(config, neverFlushed())) {
+      assertEquals(7, log.replay().get(0).getSeq());
+    }
+  }
+
+  /** Keeps every sealed segment around, as if no record had reached the database. */
+  private static LongPredicate neverFlushed() {
+    return seq -> false;
+  }
+
+  private void awaitSegments(int count) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (segments().size() > count && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, segments().size());
+  }
+
+  private List<Path> segments() throws Exception {
+    try (Stream<Path> files = Files.list(Path.of(config.dir))) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+}